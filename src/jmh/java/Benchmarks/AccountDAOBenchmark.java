@@ -0,0 +1,69 @@
+package Benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import DAO.AccountDAO;
+import Model.Account;
+
+/**
+ * Measures the AccountDAO username lookups used by registration and login at several sizes of the account table.
+ * Both a username that exists (a random generated account) and one that doesn't are measured, since registration
+ * mostly looks up names that are not taken yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountDAOBenchmark {
+    @Param({"1000", "100000"})
+    public int accountCount;
+
+    private BenchmarkDataset dataset;
+    private AccountDAO accountDAO;
+
+    @Setup
+    public void setUp() {
+        BenchmarkDataset.use("accountdao");
+        dataset = new BenchmarkDataset(accountCount, 0, BenchmarkDataset.DEFAULT_SEED);
+        dataset.generate();
+        accountDAO = new AccountDAO();
+    }
+
+    @Benchmark
+    public Account getAccountExisting() {
+        return accountDAO.getAccount(BenchmarkDataset.username(dataset.randomAccountId(ThreadLocalRandom.current())));
+    }
+
+    @Benchmark
+    public Account getAccountMissing() {
+        return accountDAO.getAccount("missing" + ThreadLocalRandom.current().nextInt(accountCount));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AccountDAOBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,153 @@
+package Benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+import Util.ConnectionUtil;
+
+/**
+ * The BenchmarkDataset class fills the database with a generated, reproducible dataset for the benchmarks.
+ *
+ * The same seed and sizes always produce the same rows: accounts named "user1".."userN" with password
+ * "password1".."passwordN", and messages spread over those accounts with random text of 10 to 254 characters and
+ * increasing timestamps. The rows are added after the seed rows of SocialMedia.sql, so the generated accounts have
+ * account ids 2..N+1 and the generated messages have message ids 2..M+1.
+ *
+ * Benchmarks call use() before anything touches ConnectionUtil, so they run against their own in-memory database
+ * instead of the h2 file used by the application and the tests. JMH runs each benchmark and each parameter
+ * combination in its own forked JVM, so every trial starts from a freshly generated database.
+ */
+public class BenchmarkDataset {
+    public static final long DEFAULT_SEED = 42;
+    private static final long FIRST_EPOCH = 1669947792L;
+    private static final int INSERT_BATCH_SIZE = 5000;
+    private static final String TEXT_ALPHABET = "abcdefghijklmnopqrstuvwxyz     ";
+
+    private final int accountCount;
+    private final int messageCount;
+    private final Random random;
+
+    /**
+     * @param accountCount the number of accounts to generate.
+     * @param messageCount the number of messages to generate.
+     * @param seed the seed of the random generator, so that a dataset can be regenerated exactly.
+     */
+    public BenchmarkDataset(int accountCount, int messageCount, long seed) {
+        this.accountCount = Math.max(1, accountCount);
+        this.messageCount = messageCount;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Points ConnectionUtil at a fresh in-memory database of the given name, unless a database url was configured
+     * explicitly with socialmedia.db.url. Must be called before ConnectionUtil is first used.
+     * @param name the name of the in-memory database.
+     */
+    public static void use(String name) {
+        if (System.getProperty("socialmedia.db.url") == null)
+            System.setProperty("socialmedia.db.url", "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+    }
+
+    /**
+     * Resets the database to the seed rows of SocialMedia.sql and inserts the generated accounts and messages.
+     */
+    public void generate() {
+        ConnectionUtil.resetTestDatabase();
+        Connection connection = ConnectionUtil.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            insertAccounts(connection);
+            insertMessages(connection);
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not generate the benchmark dataset", e);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @param random the random generator of the benchmark thread.
+     * @return the account id of a random generated account.
+     */
+    public int randomAccountId(Random random) {
+        return 2 + random.nextInt(accountCount);
+    }
+
+    /**
+     * @param random the random generator of the benchmark thread.
+     * @return the message id of a random generated message, or of the seed message if none were generated.
+     */
+    public int randomMessageId(Random random) {
+        return messageCount == 0 ? 1 : 2 + random.nextInt(messageCount);
+    }
+
+    /**
+     * @param account_id the account id of a generated account.
+     * @return the username of that account.
+     */
+    public static String username(int account_id) {
+        return "user" + (account_id - 1);
+    }
+
+    /**
+     * @param account_id the account id of a generated account.
+     * @return the password of that account.
+     */
+    public static String password(int account_id) {
+        return "password" + (account_id - 1);
+    }
+
+    private void insertAccounts(Connection connection) throws SQLException {
+        String sql = "insert into account (username, password) values (?, ?)";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int account_id = 2; account_id < accountCount + 2; account_id++) {
+                ps.setString(1, username(account_id));
+                ps.setString(2, password(account_id));
+                ps.addBatch();
+                if (account_id % INSERT_BATCH_SIZE == 0)
+                    ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private void insertMessages(Connection connection) throws SQLException {
+        String sql = "insert into message (posted_by, message_text, time_posted_epoch) values (?, ?, ?)";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            long epoch = FIRST_EPOCH;
+            for (int i = 1; i <= messageCount; i++) {
+                epoch += random.nextInt(60);
+                ps.setInt(1, randomAccountId(random));
+                ps.setString(2, randomText());
+                ps.setLong(3, epoch);
+                ps.addBatch();
+                if (i % INSERT_BATCH_SIZE == 0)
+                    ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private String randomText() {
+        char[] text = new char[10 + random.nextInt(245)];
+        for (int i = 0; i < text.length; i++)
+            text[i] = TEXT_ALPHABET.charAt(random.nextInt(TEXT_ALPHABET.length()));
+        text[0] = 'm';
+        return new String(text);
+    }
+}
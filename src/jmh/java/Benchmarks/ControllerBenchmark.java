@@ -0,0 +1,114 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Measures the SocialMediaController routes end to end, from an HTTP request sent over a kept-alive connection to
+ * the response body read by the client, against a generated dataset of 1000 accounts and 10000 messages. The
+ * numbers include the client's own overhead, so they are best compared against each other and across versions
+ * rather than read as server latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerBenchmark {
+    private static final int PORT = 8091;
+    private static final String BASE_URL = "http://localhost:" + PORT;
+
+    private BenchmarkDataset dataset;
+    private Javalin app;
+    private HttpClient webClient;
+
+    @Setup
+    public void setUp() {
+        BenchmarkDataset.use("controller");
+        dataset = new BenchmarkDataset(1000, 10000, BenchmarkDataset.DEFAULT_SEED);
+        dataset.generate();
+        app = new SocialMediaController().startAPI();
+        app.start(PORT);
+        webClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        app.stop();
+    }
+
+    @Benchmark
+    public String getMessageById() throws IOException, InterruptedException {
+        return get("/messages/" + dataset.randomMessageId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public String getMessagesPage() throws IOException, InterruptedException {
+        return get("/messages?limit=100&after=" + dataset.randomMessageId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public String getUserMessages() throws IOException, InterruptedException {
+        return get("/accounts/" + dataset.randomAccountId(ThreadLocalRandom.current()) + "/messages");
+    }
+
+    @Benchmark
+    public String postLogin() throws IOException, InterruptedException {
+        int account_id = dataset.randomAccountId(ThreadLocalRandom.current());
+        return post("/login", "{\"username\":\"" + BenchmarkDataset.username(account_id)
+                + "\",\"password\":\"" + BenchmarkDataset.password(account_id) + "\"}");
+    }
+
+    @Benchmark
+    public String postMessage() throws IOException, InterruptedException {
+        return post("/messages", "{\"posted_by\":" + dataset.randomAccountId(ThreadLocalRandom.current())
+                + ",\"message_text\":\"benchmark message\",\"time_posted_epoch\":1669947792}");
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(BASE_URL + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private String post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(BASE_URL + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ControllerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
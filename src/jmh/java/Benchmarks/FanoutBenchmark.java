@@ -0,0 +1,177 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Measures how long one message takes to reach every subscriber of a live feed, either GET /messages/stream
+ * ("sse") or the /messages/ws WebSocket ("ws", subscribed to the posting account): subscriberCount connections
+ * are opened, then messages are posted one at a time, and for each the time from sending the POST until each
+ * connection has received the insert event is recorded. The median and the slowest subscriber are printed per
+ * message, and the medians over all messages at the end. The WebSocket's latency includes waiting for its next
+ * flush, up to socialmedia.ws.flushMillis.
+ *
+ * This is not a JMH benchmark: it needs thousands of connections open against a running server. The connections
+ * are read by one selector thread, so the client's CPU competes with the server's on a small machine; every
+ * connection also takes two file descriptors in this process, so the open file limit (ulimit -n) must be more
+ * than twice subscriberCount. Run with
+ * mvn -P jmh compile exec:exec -Djmh.main=Benchmarks.FanoutBenchmark -Djmh.args="ws 9000 20"
+ */
+public class FanoutBenchmark {
+    private static final int PORT = 8093;
+
+    public static void main(String[] args) throws Exception {
+        boolean webSocket = args.length > 0 && args[0].equals("ws");
+        int subscriberCount = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int messageCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        BenchmarkDataset.use("fanout");
+        new BenchmarkDataset(1, 0, BenchmarkDataset.DEFAULT_SEED).generate();
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(PORT);
+        HttpClient webClient = HttpClient.newHttpClient();
+        Selector selector = Selector.open();
+        Subscriber[] subscribers = new Subscriber[subscriberCount];
+        byte[] request = ascii(webSocket
+                ? "GET /messages/ws?accounts=1 HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                        + "Connection: Upgrade\r\nSec-WebSocket-Version: 13\r\nSec-WebSocket-Key: "
+                        + Base64.getEncoder().encodeToString(new byte[16]) + "\r\n\r\n"
+                : "GET /messages/stream HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n\r\n");
+        byte[] connectedPattern = ascii(webSocket ? "\"type\":\"subscribed\"" : ": connected");
+        byte[] eventPattern = ascii(webSocket ? "\"type\":\"insert\"" : "event: insert");
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < subscriberCount; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", PORT));
+                channel.write(ByteBuffer.wrap(request));
+                channel.configureBlocking(false);
+                subscribers[i] = new Subscriber(channel, connectedPattern, eventPattern);
+                channel.register(selector, SelectionKey.OP_READ, subscribers[i]);
+            }
+            int connected = 0;
+            while (connected < subscriberCount)
+                connected += read(selector, true, 0);
+            System.out.printf("%,d %s connections open after %,d ms%n", subscriberCount, webSocket ? "ws" : "sse",
+                    (System.nanoTime() - start) / 1_000_000);
+
+            double[] medians = new double[messageCount];
+            double[] slowest = new double[messageCount];
+            long[] latencies = new long[subscriberCount];
+            for (int m = 0; m < messageCount; m++) {
+                long sent = System.nanoTime();
+                CompletableFuture<HttpResponse<String>> post = webClient.sendAsync(HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:" + PORT + "/messages"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": 1, \"message_text\": \"fanout "
+                                + m + "\", \"time_posted_epoch\": " + m + "}"))
+                        .build(), HttpResponse.BodyHandlers.ofString());
+                int received = 0;
+                while (received < subscriberCount)
+                    received += read(selector, false, sent);
+                post.join();
+                for (int i = 0; i < subscriberCount; i++)
+                    latencies[i] = subscribers[i].latency;
+                Arrays.sort(latencies);
+                medians[m] = latencies[subscriberCount / 2] / 1e6;
+                slowest[m] = latencies[subscriberCount - 1] / 1e6;
+                System.out.printf("message %3d: median %8.2f ms, slowest %8.2f ms%n", m, medians[m], slowest[m]);
+            }
+            Arrays.sort(medians);
+            Arrays.sort(slowest);
+            System.out.printf("over %d messages: median of medians %.2f ms, median of slowest %.2f ms%n",
+                    messageCount, medians[messageCount / 2], slowest[messageCount / 2]);
+        } finally {
+            for (Subscriber subscriber : subscribers)
+                if (subscriber != null)
+                    subscriber.channel.close();
+            selector.close();
+            app.stop();
+        }
+    }
+
+    /**
+     * Reads whatever the connections have sent.
+     * @param connecting true to count connections seeing their connected pattern, false to count insert events.
+     * @param sent when the message being waited for was posted; a connection receiving its event records the
+     *             time since then as its latency.
+     * @return the number of connections that saw one.
+     */
+    private static int read(Selector selector, boolean connecting, long sent) throws IOException {
+        selector.select(1000);
+        long now = System.nanoTime();
+        int count = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (SelectionKey key : selector.selectedKeys()) {
+            Subscriber subscriber = (Subscriber) key.attachment();
+            buffer.clear();
+            int read = subscriber.channel.read(buffer);
+            if (read < 0)
+                throw new IOException("a connection was closed");
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (connecting && subscriber.connected.match(b))
+                    count++;
+                else if (!connecting && subscriber.event.match(b)) {
+                    subscriber.latency = now - sent;
+                    count++;
+                }
+            }
+        }
+        selector.selectedKeys().clear();
+        return count;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static class Subscriber {
+        final SocketChannel channel;
+        final Matcher connected;
+        final Matcher event;
+        long latency;
+
+        Subscriber(SocketChannel channel, byte[] connectedPattern, byte[] eventPattern) {
+            this.channel = channel;
+            this.connected = new Matcher(connectedPattern);
+            this.event = new Matcher(eventPattern);
+        }
+    }
+
+    /**
+     * Finds a pattern in a stream of bytes, one byte at a time. Good enough for patterns whose first byte doesn't
+     * recur in a way that overlaps a partial match, like the ones above against the events sent.
+     */
+    private static class Matcher {
+        private final byte[] pattern;
+        private int matched;
+
+        Matcher(byte[] pattern) {
+            this.pattern = pattern;
+        }
+
+        boolean match(byte b) {
+            if (b == pattern[matched])
+                matched++;
+            else
+                matched = b == pattern[0] ? 1 : 0;
+            if (matched < pattern.length)
+                return false;
+            matched = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package Benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Account;
+import Model.Message;
+import Util.JsonCodec;
+
+/**
+ * Compares the old handler pattern (a new ObjectMapper per request, the body read as a String and the response
+ * serialized to a String) with the shared JsonCodec reading from and writing to streams, for the read-modify-write
+ * cycle of POST /messages. Run with the gc profiler (the default for the jmh profile) and compare
+ * gc.alloc.rate.norm, the bytes allocated per operation.
+ *
+ * The remaining benchmarks measure the other JsonCodec paths on their own: reading and writing an Account, as
+ * /register and /login do, and writing a page of 100 messages, as the list endpoints do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+    private static final String ACCOUNT_JSON = "{\"username\":\"testuser1\", \"password\": \"password\"}";
+    private static final String MESSAGE_JSON = "{\"posted_by\":1, \"message_text\": \"hello message\", "
+            + "\"time_posted_epoch\": 1669947792}";
+
+    private byte[] requestBody;
+    private byte[] accountBody;
+    private Account account;
+    private List<Message> messagePage;
+    private JsonCodec jsonCodec;
+
+    @Setup
+    public void setUp() {
+        requestBody = MESSAGE_JSON.getBytes(StandardCharsets.UTF_8);
+        accountBody = ACCOUNT_JSON.getBytes(StandardCharsets.UTF_8);
+        account = new Account(1, "testuser1", "password");
+        messagePage = new ArrayList<>();
+        for (int i = 1; i <= 100; i++)
+            messagePage.add(new Message(i, 1, "benchmark message " + i, 1669947792L + i));
+        jsonCodec = new JsonCodec();
+    }
+
+    @Benchmark
+    public String objectMapperPerRequest() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Message message = mapper.readValue(new String(requestBody, StandardCharsets.UTF_8), Message.class);
+        message.setMessage_id(2);
+        return mapper.writeValueAsString(message);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream sharedJsonCodec() throws IOException {
+        Message message = jsonCodec.readMessage(new ByteArrayInputStream(requestBody));
+        message.setMessage_id(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        jsonCodec.writeMessage(out, message);
+        return out;
+    }
+
+    @Benchmark
+    public Account readAccount() throws IOException {
+        return jsonCodec.readAccount(new ByteArrayInputStream(accountBody));
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeAccount() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        jsonCodec.writeAccount(out, account);
+        return out;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeMessagePage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        jsonCodec.writeMessages(out, messagePage);
+        return out;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JsonCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
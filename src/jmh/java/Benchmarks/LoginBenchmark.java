@@ -0,0 +1,86 @@
+package Benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import Model.Account;
+import Service.AccountService;
+
+/**
+ * Measures login throughput with and without the cache of recent successful verifications, for a login storm: a
+ * small set of accounts logging in over and over from several threads. Without the cache every login costs a full
+ * PBKDF2 hash on the password workers; with it, only the first login of each account in the cache's time to live
+ * does.
+ *
+ * Every account is logged in to once during setup, so the legacy plaintext passwords of the generated dataset are
+ * migrated to hashes before measuring.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class LoginBenchmark {
+    private static final int ACCOUNTS = 50;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private BenchmarkDataset dataset;
+    private AccountService accountService;
+
+    @Setup
+    public void setUp() {
+        BenchmarkDataset.use("login");
+        if (!cached)
+            System.setProperty("socialmedia.password.cache.maxSize", "0");
+        dataset = new BenchmarkDataset(ACCOUNTS, 0, BenchmarkDataset.DEFAULT_SEED);
+        dataset.generate();
+        accountService = new AccountService();
+        for (int account_id = 2; account_id < ACCOUNTS + 2; account_id++)
+            accountService.login(account(account_id));
+    }
+
+    @TearDown
+    public void tearDown() {
+        accountService.shutdown();
+    }
+
+    @Benchmark
+    public Account login() {
+        return accountService.login(account(dataset.randomAccountId(ThreadLocalRandom.current())));
+    }
+
+    private static Account account(int account_id) {
+        return new Account(BenchmarkDataset.username(account_id), BenchmarkDataset.password(account_id));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LoginBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,114 @@
+package Benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import DAO.MessageRepository;
+import DAO.StorageEngine;
+import DAO.StorageEngines;
+import Model.Message;
+import Service.MessageService;
+
+/**
+ * Measures the MessageDAO read queries, and the MessageService lookups that sit in front of them, at several
+ * sizes of the message table. Lookups pick a random generated message or account on every call, so the DAO
+ * benchmarks measure the query and the service benchmarks measure the caches once they are warm.
+ *
+ * Each benchmark runs against the message repository of every built-in StorageEngine, loaded from the same table,
+ * so the engines can be compared side by side.
+ *
+ * The dataset has one account per ten messages, generated by BenchmarkDataset with its default seed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDAOBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int messageCount;
+
+    @Param({"jdbc", "columnar", "log"})
+    public String store;
+
+    private BenchmarkDataset dataset;
+    private StorageEngine engine;
+    private MessageRepository messageDAO;
+    private MessageService messageService;
+
+    @Setup
+    public void setUp() {
+        BenchmarkDataset.use("messagedao");
+        dataset = new BenchmarkDataset(Math.max(10, messageCount / 10), messageCount, BenchmarkDataset.DEFAULT_SEED);
+        dataset.generate();
+        StorageEngines.get(store).reset();
+        engine = StorageEngines.get(store);
+        engine.open();
+        messageDAO = engine.getMessageRepository();
+        messageService = new MessageService(messageDAO);
+    }
+
+    @TearDown
+    public void tearDown() {
+        messageService.shutdown();
+        engine.close();
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageDAO.getAllMessages();
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageDAO.getMessageById(dataset.randomMessageId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByAccountId() {
+        return messageDAO.getMessagesByAccountId(dataset.randomAccountId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesAfter() {
+        return messageDAO.getMessagesAfter(dataset.randomMessageId(ThreadLocalRandom.current()), 100);
+    }
+
+    @Benchmark
+    public Message serviceGetMessageById() {
+        return messageService.getMessageById(dataset.randomMessageId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public List<Message> serviceGetUserMessages() {
+        return messageService.getUserMessages(dataset.randomAccountId(ThreadLocalRandom.current()));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageDAOBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,60 @@
+package Benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import DAO.ColumnarMessageDAO;
+import DAO.MessageDAO;
+import Model.Message;
+
+/**
+ * Measures the heap taken per message by the messages held as a List of Message objects, as the caches and
+ * GET /messages hold them, and by a ColumnarMessageDAO holding the same messages. This is not a JMH benchmark: it
+ * reads the used heap after a full collection with and without each store alive.
+ *
+ * Run with mvn -P jmh compile exec:exec -Djmh.main=Benchmarks.MessageStoreFootprint -Djmh.args="1000000"
+ */
+public class MessageStoreFootprint {
+
+    public static void main(String[] args) {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        BenchmarkDataset.use("footprint");
+        new BenchmarkDataset(Math.max(10, messageCount / 10), messageCount, BenchmarkDataset.DEFAULT_SEED).generate();
+        MessageDAO messageDAO = new MessageDAO();
+
+        // the in-memory database hands out the Strings it holds itself, so copy them, as reading from a file
+        // database would, to count what the list really costs
+        List<Message> list = messageDAO.getAllMessages();
+        long baseline = usedHeap();
+        List<Message> copies = new ArrayList<>(list.size());
+        for (Message message : list)
+            copies.add(new Message(message.getMessage_id(), message.getPosted_by(),
+                    new String(message.getMessage_text().toCharArray()), message.getTime_posted_epoch()));
+        long listBytes = usedHeap() - baseline;
+        int rows = copies.size();
+        copies = null;
+
+        baseline = usedHeap();
+        ColumnarMessageDAO columnar = new ColumnarMessageDAO(messageDAO);
+        long columnarBytes = usedHeap() - baseline;
+
+        System.out.printf("%d messages%n", rows);
+        System.out.printf("List<Message>       %,12d bytes  %6.1f bytes/message%n", listBytes, (double) listBytes / rows);
+        System.out.printf("ColumnarMessageDAO  %,12d bytes  %6.1f bytes/message  (%d rows, %,d bytes allocated)%n",
+                columnarBytes, (double) columnarBytes / rows, columnar.getRowCount(), columnar.getSizeInBytes());
+        System.out.printf("ratio               %.1fx%n", (double) listBytes / columnarBytes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,139 @@
+package Benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Compares GET /messages and GET /accounts/{account_id}/messages with the EncodedResponseCache disabled, where
+ * every request is serialized by Jackson and, for a client accepting gzip, compressed on the fly by Javalin, and
+ * enabled, where the encoded bytes are reused until a message changes.
+ *
+ * For each mode and route this prints the server CPU time per request and the bytes on the wire per response. The
+ * client is a plain HTTP/1.1 socket on the main thread, so the server's CPU time is the process CPU time less the
+ * main thread's. This is not a JMH benchmark, since that split can't be made from inside a JMH fork.
+ *
+ * Run with mvn -P jmh compile exec:exec -Djmh.main=Benchmarks.ResponseCacheBenchmark -Djmh.args="10000 2000"
+ */
+public class ResponseCacheBenchmark {
+    private static final int PORT = 8092;
+
+    public static void main(String[] args) throws Exception {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        BenchmarkDataset.use("responses");
+        BenchmarkDataset dataset = new BenchmarkDataset(1000, messageCount, BenchmarkDataset.DEFAULT_SEED);
+        dataset.generate();
+
+        System.out.printf("%-9s %-24s %-9s %14s %14s%n", "cache", "route", "encoding", "cpu us/request",
+                "bytes/response");
+        for (boolean enabled : new boolean[] {false, true}) {
+            System.setProperty("socialmedia.responseCache.enabled", Boolean.toString(enabled));
+            Javalin app = new SocialMediaController().startAPI();
+            app.start(PORT);
+            try (Socket socket = new Socket("localhost", PORT)) {
+                InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                OutputStream out = socket.getOutputStream();
+                for (String encoding : new String[] {"identity", "gzip"}) {
+                    run(in, out, enabled, "/messages", encoding, null, requests / 10);
+                    run(in, out, enabled, "/accounts/{id}/messages", encoding, dataset, requests);
+                }
+            } finally {
+                app.stop();
+            }
+        }
+    }
+
+    /**
+     * Sends requests to one route, once untimed to warm up and then timed, and prints the result.
+     */
+    private static void run(InputStream in, OutputStream out, boolean enabled, String route, String encoding,
+            BenchmarkDataset dataset, int requests) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        Random random = new Random(BenchmarkDataset.DEFAULT_SEED);
+        long bytes = 0;
+        long processCpu = 0;
+        long clientCpu = 0;
+        for (int round = 0; round < 2; round++) {
+            bytes = 0;
+            processCpu = os.getProcessCpuTime();
+            clientCpu = threads.getCurrentThreadCpuTime();
+            for (int i = 0; i < requests; i++) {
+                String path = dataset == null ? route
+                        : route.replace("{id}", Integer.toString(dataset.randomAccountId(random)));
+                bytes += get(in, out, path, encoding);
+            }
+            processCpu = os.getProcessCpuTime() - processCpu;
+            clientCpu = threads.getCurrentThreadCpuTime() - clientCpu;
+        }
+        System.out.printf(Locale.ROOT, "%-9s %-24s %-9s %14.1f %,14d%n", enabled ? "enabled" : "disabled", route,
+                encoding, (processCpu - clientCpu) / 1000.0 / requests, bytes / requests);
+    }
+
+    /**
+     * Sends one GET request over a kept-alive connection and reads the response, which is either sent with a
+     * Content-Length or chunked.
+     * @return the number of bytes in the response body, as sent.
+     */
+    private static long get(InputStream in, OutputStream out, String path, String encoding) throws IOException {
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: " + encoding + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        long contentLength = -1;
+        boolean chunked = false;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            String lower = line.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("content-length:"))
+                contentLength = Long.parseLong(lower.substring(15).trim());
+            else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked"))
+                chunked = true;
+        }
+        if (!chunked)
+            return skip(in, contentLength);
+        long bytes = 0;
+        long chunk;
+        while ((chunk = Long.parseLong(readLine(in).split(";")[0].trim(), 16)) > 0) {
+            bytes += skip(in, chunk);
+            readLine(in);
+        }
+        readLine(in);
+        return bytes;
+    }
+
+    private static long skip(InputStream in, long count) throws IOException {
+        byte[] buffer = new byte[8192];
+        long left = count;
+        while (left > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if (read < 0)
+                throw new IOException("connection closed");
+            left -= read;
+        }
+        return count;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0)
+                throw new IOException("connection closed");
+            if (c != '\r')
+                line.append((char) c);
+        }
+        return line.toString();
+    }
+}
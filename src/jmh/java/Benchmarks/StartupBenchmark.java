@@ -0,0 +1,102 @@
+package Benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import DAO.LogMessageDAO;
+import DAO.MessageDAO;
+import DAO.MessageLog;
+import Model.Message;
+
+/**
+ * Measures the time from opening the log storage engine's LogMessageDAO until it has answered its first requests,
+ * a lookup by id and an account's messages, when there are already messageCount messages in the log:
+ *
+ * - with no snapshot, replaying the whole log on one thread, and on one thread per core;
+ * - from a snapshot, replaying only a tail of tailCount messages written after it, as after a crash.
+ *
+ * This is not a JMH benchmark: each startup happens once per run, so it is timed with System.nanoTime. The log is
+ * written straight to segment files in a temporary directory, with one account per ten messages; the rest of the
+ * application's startup (the account index and the search index) is not included.
+ *
+ * Run with mvn -P jmh compile exec:exec -Djmh.main=Benchmarks.StartupBenchmark -Djmh.args="1000000 10000"
+ * The JVM needs a heap of about 80 bytes per message, eg -Xmx2g for 10000000.
+ */
+public class StartupBenchmark {
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int tailCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        BenchmarkDataset.use("startup");
+        File directory = Files.createTempDirectory("startup-benchmark").toFile();
+        File snapshot = new File(directory, "index.snapshot");
+        try {
+            long start = System.nanoTime();
+            generate(directory, messageCount);
+            System.out.printf("wrote %,d messages in %,d ms%n", messageCount, (System.nanoTime() - start) / 1_000_000);
+
+            time("full replay, 1 thread", directory, messageCount, 1).close();
+            snapshot.delete();
+            LogMessageDAO logDAO = time("full replay, " + cores + " threads", directory, messageCount, cores);
+            logDAO.saveSnapshot();
+            File crashed = new File(directory, "crashed.snapshot");
+            Files.copy(snapshot.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            for (int i = 0; i < tailCount; i++)
+                logDAO.insertMessage(new Message(1, "tail message " + i, i));
+            logDAO.close();
+            Files.move(crashed.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            time("snapshot + " + tailCount + " message tail", directory, messageCount + tailCount, cores).close();
+        } finally {
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Opens the DAO, answers a first lookup by id and by account, and prints how long that took.
+     */
+    private static LogMessageDAO time(String label, File directory, int messageCount, int threads) throws IOException {
+        Random random = new Random(BenchmarkDataset.DEFAULT_SEED);
+        long start = System.nanoTime();
+        LogMessageDAO logDAO = new LogMessageDAO(new MessageLog(directory, SEGMENT_BYTES, MessageLog.FsyncPolicy.NONE),
+                new MessageDAO(), MessageLog.FsyncPolicy.NONE, 1000, 3_600_000, 0.5,
+                new File(directory, "index.snapshot"), 3_600_000, threads);
+        long opened = System.nanoTime();
+        logDAO.getMessageById(1 + random.nextInt(messageCount));
+        logDAO.getMessagesByAccountId(1 + random.nextInt(Math.max(1, messageCount / 10)));
+        long answered = System.nanoTime();
+        System.out.printf("%-32s open %,7d ms  first request %,5d ms  total %,7d ms  (%s, %,d messages)%n", label,
+                (opened - start) / 1_000_000, (answered - opened) / 1_000_000, (answered - start) / 1_000_000,
+                logDAO.isRestoredFromSnapshot() ? "from snapshot" : "replayed", logDAO.getMessageCount());
+        return logDAO;
+    }
+
+    private static void generate(File directory, int messageCount) throws IOException {
+        MessageLog log = new MessageLog(directory, SEGMENT_BYTES, MessageLog.FsyncPolicy.NONE);
+        log.replay(new MessageLog.Visitor() {
+            @Override
+            public void put(long location, int message_id, int posted_by, long time_posted_epoch) {
+            }
+
+            @Override
+            public void delete(long location, int message_id) {
+            }
+        }, 1);
+        Random random = new Random(BenchmarkDataset.DEFAULT_SEED);
+        int accountCount = Math.max(1, messageCount / 10);
+        for (int message_id = 1; message_id <= messageCount; message_id++) {
+            byte[] text = ("message " + message_id + " from a benchmark account").getBytes(StandardCharsets.UTF_8);
+            log.appendPut(MessageLog.PUT, message_id, 1 + random.nextInt(accountCount),
+                    1_600_000_000L + message_id, text);
+        }
+        log.close();
+    }
+}
@@ -0,0 +1,142 @@
+package Benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import DAO.StorageEngine;
+import DAO.StorageEngines;
+import Model.Account;
+import Model.Message;
+
+/**
+ * The harness every StorageEngine is measured with: opening the engine over an existing dataset, the writes the
+ * API makes (single inserts, batches of 100, updates and deletes) and the reads it makes most often, so a new
+ * engine can be compared against the built-in ones on the same numbers. Add an engine's name to the store
+ * parameter to include it.
+ *
+ * Writes add to the dataset as the benchmark runs, so each trial starts from a freshly generated dataset of
+ * messageCount messages, one account per ten messages, generated by BenchmarkDataset with its default seed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageEngineBenchmark {
+    @Param({"10000", "100000"})
+    public int messageCount;
+
+    @Param({"jdbc", "columnar", "log"})
+    public String store;
+
+    private BenchmarkDataset dataset;
+    private StorageEngine engine;
+    private AccountRepository accounts;
+    private MessageRepository messages;
+    private List<Message> batch;
+
+    @Setup
+    public void setUp() {
+        BenchmarkDataset.use("storageengine");
+        dataset = new BenchmarkDataset(Math.max(10, messageCount / 10), messageCount, BenchmarkDataset.DEFAULT_SEED);
+        dataset.generate();
+        StorageEngines.get(store).reset();
+        engine = open();
+        accounts = engine.getAccountRepository();
+        messages = engine.getMessageRepository();
+        batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            batch.add(new Message(1, "batch message " + i, i));
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    private StorageEngine open() {
+        StorageEngine engine = StorageEngines.get(store);
+        engine.open();
+        return engine;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void openEngine() {
+        open().close();
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return messages.insertMessage(new Message(dataset.randomAccountId(random), "benchmark message", random.nextLong(1_000_000)));
+    }
+
+    @Benchmark
+    public List<Message> insertMessages() {
+        return messages.insertMessages(batch);
+    }
+
+    @Benchmark
+    public void updateMessage() {
+        messages.updateMessage(dataset.randomMessageId(ThreadLocalRandom.current()), "updated benchmark message");
+    }
+
+    @Benchmark
+    public void insertAndDeleteMessage() {
+        Message inserted = messages.insertMessage(new Message(1, "deleted benchmark message", 1));
+        messages.deleteMessage(inserted.getMessage_id());
+    }
+
+    @Benchmark
+    public Account getAccount() {
+        return accounts.getAccount(BenchmarkDataset.username(dataset.randomAccountId(ThreadLocalRandom.current())));
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messages.getMessageById(dataset.randomMessageId(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesAfter() {
+        return messages.getMessagesAfter(dataset.randomMessageId(ThreadLocalRandom.current()), 100);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByAccountId() {
+        return messages.getMessagesByAccountId(dataset.randomAccountId(ThreadLocalRandom.current()));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(StorageEngineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
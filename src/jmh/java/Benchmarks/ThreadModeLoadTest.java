@@ -0,0 +1,180 @@
+package Benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import Controller.SocialMediaController;
+import Util.ServerThreadPool;
+import io.javalin.Javalin;
+import org.eclipse.jetty.util.VirtualThreads;
+
+/**
+ * A load test comparing the platform and virtual thread execution modes (see ServerThreadPool) under many
+ * concurrent connections. This is not a JMH benchmark: JMH measures one thread's operation in isolation, while
+ * this needs thousands of clients in flight against a running server.
+ *
+ * For each mode and each connection count, that many clients each send requestsPerClient requests one after the
+ * other, so that many HTTP/1.1 connections are open at once. The requests are GET /messages pages at random
+ * offsets, which always go to the database. Throughput, latency percentiles and the number of requests the
+ * concurrency limiter turned away (503) are printed for each run.
+ *
+ * Virtual threads need Java 21 or later; on an older JVM the virtual run uses platform threads, which the
+ * effective column shows. 10000 connections also need a high enough open file limit (ulimit -n). Run with
+ * mvn -P jmh compile exec:exec -Djmh.main=Benchmarks.ThreadModeLoadTest -Djmh.args="platform,virtual 1000,10000 10"
+ */
+public class ThreadModeLoadTest {
+    private static final int PORT = 8089;
+    private static final int SEED_MESSAGES = 10_000;
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = (args.length > 0 ? args[0] : "platform,virtual").split(",");
+        int[] connectionCounts = Arrays.stream((args.length > 1 ? args[1] : "1000,10000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int requestsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int maxConnections = Arrays.stream(connectionCounts).max().orElse(0);
+
+        // run against a throwaway database, and let every client wait its turn rather than be turned away, unless
+        // told otherwise, so the two modes are compared on throughput and latency
+        setDefault("socialmedia.db.url", "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+        setDefault("socialmedia.limiter.maxWaiting", Integer.toString(maxConnections));
+        setDefault("socialmedia.limiter.waitTimeoutMillis", "30000");
+
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientExecutor)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+
+        System.out.printf("%-8s %-10s %-8s %12s %10s %10s %10s %8s %8s%n",
+                "mode", "effective", "clients", "requests/s", "p50 ms", "p99 ms", "max ms", "503s", "errors");
+        boolean seeded = false;
+        for (String mode : modes) {
+            System.setProperty("socialmedia.server.threads", mode);
+            Javalin app = new SocialMediaController().startAPI();
+            app.start(PORT);
+            if (!seeded) {
+                seed(client);
+                seeded = true;
+            }
+            try {
+                // one short run first so both modes are measured with a warm JIT and a warm connection pool
+                run(client, Math.min(100, connectionCounts[0]), requestsPerClient);
+                for (int connections : connectionCounts)
+                    print(mode, connections, run(client, connections, requestsPerClient));
+            } finally {
+                app.stop();
+            }
+        }
+        clientExecutor.shutdown();
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null)
+            System.setProperty(key, value);
+    }
+
+    private static void seed(HttpClient client) throws Exception {
+        for (int start = 0; start < SEED_MESSAGES; start += SEED_BATCH_SIZE) {
+            StringBuilder body = new StringBuilder("[");
+            for (int i = 0; i < SEED_BATCH_SIZE; i++) {
+                if (i > 0)
+                    body.append(',');
+                body.append("{\"posted_by\":1,\"message_text\":\"load test message ").append(start + i)
+                        .append("\",\"time_posted_epoch\":").append(1669947792L + start + i).append('}');
+            }
+            body.append(']');
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/messages/batch"))
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .header("Content-Type", "application/json")
+                    .build();
+            client.send(request, HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private static Result run(HttpClient client, int clients, int requestsPerClient) {
+        Result result = new Result(clients * requestsPerClient);
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> running = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++)
+            running.add(sendRequests(client, requestsPerClient, result));
+        CompletableFuture.allOf(running.toArray(new CompletableFuture[0])).join();
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Sends the given number of requests one after the other, each as soon as the previous response arrived.
+     */
+    private static CompletableFuture<Void> sendRequests(HttpClient client, int remaining, Result result) {
+        if (remaining == 0)
+            return CompletableFuture.completedFuture(null);
+        int after = ThreadLocalRandom.current().nextInt(SEED_MESSAGES);
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + PORT + "/messages?after=" + after + "&limit=20")).build();
+        long sent = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    result.record(System.nanoTime() - sent, error == null ? response.statusCode() : -1);
+                    return null;
+                })
+                .thenCompose(ignored -> sendRequests(client, remaining - 1, result));
+    }
+
+    private static void print(String mode, int connections, Result result) {
+        long[] latencies = Arrays.copyOf(result.latencyNanos, result.count.get());
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %-10s %-8d %12.0f %10.1f %10.1f %10.1f %8d %8d%n",
+                mode, effectiveMode(mode), connections,
+                latencies.length / (result.elapsedNanos / 1e9),
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0),
+                result.rejected.get(), result.errors.get());
+    }
+
+    /**
+     * @return the mode the server actually ran in, which is platform when virtual threads are not supported.
+     */
+    private static String effectiveMode(String mode) {
+        return ServerThreadPool.VIRTUAL.equalsIgnoreCase(mode) && VirtualThreads.areSupported()
+                ? ServerThreadPool.VIRTUAL : ServerThreadPool.PLATFORM;
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private static class Result {
+        final long[] latencyNanos;
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        long elapsedNanos;
+
+        Result(int requests) {
+            this.latencyNanos = new long[requests];
+        }
+
+        void record(long nanos, int status) {
+            latencyNanos[count.getAndIncrement()] = nanos;
+            if (status == 503)
+                rejected.incrementAndGet();
+            else if (status != 200)
+                errors.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import Model.Message;
+import Service.MessageEvent;
+import Util.EventRing;
+import Util.JsonCodec;
+import io.javalin.websocket.WsCloseContext;
+import io.javalin.websocket.WsConfig;
+import io.javalin.websocket.WsConnectContext;
+import io.javalin.websocket.WsContext;
+import io.javalin.websocket.WsErrorContext;
+import io.javalin.websocket.WsMessageContext;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * The MessageSocketHub serves the WebSocket at /messages/ws, which pushes the inserts, updates and deletes of the
+ * messages of the accounts a client has subscribed to, read from the MessageService's EventRing.
+ *
+ * A client subscribes with the "accounts" query parameter when it connects (eg ?accounts=1,2), or at any time by
+ * sending {"subscribe": [1, 2]} or {"unsubscribe": [2]}; each of those is answered with
+ * {"type": "subscribed", "accounts": [...]}, the accounts it is now subscribed to. Events are sent in batches:
+ * {"type": "events", "events": [{"id": sequence, "type": "insert|update|delete", "message": {...}}, ...]}, in the
+ * order they happened. An element {"type": "reset"} in place of an event means events were missed and the client
+ * should reload what it shows; it comes after every event sent before the gap, and before every event after it.
+ * {"type": "error", "message": "..."} answers a request that couldn't be understood.
+ *
+ * One flusher thread does the work. Every flush interval it reads the events published since the last one,
+ * serializes each event once, appends it to the outbound queue of every connection subscribed to its account,
+ * and then sends each connection with queued events all of them as one batch. Sends are asynchronous and a
+ * connection has at most one batch in flight, so a slow client's events wait in its queue while the others go
+ * out. The queues are bounded: a connection whose queue fills up is closed with 1013 (try again later), and
+ * its client can reconnect and reload, rather than the server buffering without limit.
+ *
+ * The flusher also pings every connection each heartbeat interval, which keeps idle connections from timing
+ * out and proxies from closing them. Like GET /messages/stream, the socket is not behind the concurrency
+ * limiter: a connection holds no request thread and no database connection.
+ */
+public class MessageSocketHub {
+    private static final String RESET = "{\"type\":\"reset\"}";
+
+    private final EventRing<MessageEvent> events;
+    private final JsonCodec jsonCodec;
+    private final long flushNanos;
+    private final long heartbeatNanos;
+    private final int maxQueuedEvents;
+    private final int maxSubscriptions;
+    /**
+     * The open connections by session id.
+     */
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    /**
+     * The connections subscribed to each account. Sets are created and removed inside compute, so a subscribe
+     * racing an unsubscribe of the same account never adds to a set that has just been dropped.
+     */
+    private final Map<Integer, Set<Connection>> subscribers = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final AtomicLong sentEventCount = new AtomicLong();
+    private final AtomicLong sentBatchCount = new AtomicLong();
+    private final AtomicLong slowConnectionCount = new AtomicLong();
+
+    /**
+     * @param events the ring the MessageService publishes its events to.
+     * @param jsonCodec serializes the messages, and parses the clients' requests.
+     * @param flushMillis how often queued events are sent.
+     * @param maxQueuedEvents the most events a connection may have waiting to be sent before it is closed.
+     * @param maxSubscriptions the most accounts one connection may subscribe to.
+     * @param heartbeatMillis how often every connection is pinged.
+     */
+    public MessageSocketHub(EventRing<MessageEvent> events, JsonCodec jsonCodec, long flushMillis,
+            int maxQueuedEvents, int maxSubscriptions, long heartbeatMillis) {
+        this.events = events;
+        this.jsonCodec = jsonCodec;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMillis));
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+        this.maxQueuedEvents = Math.max(1, maxQueuedEvents);
+        this.maxSubscriptions = maxSubscriptions;
+        this.flusher = new Thread(this::flushLoop, "ws-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Sets up the handlers of the socket; pass to Javalin's app.ws.
+     */
+    public void configure(WsConfig ws) {
+        ws.onConnect(this::onConnect);
+        ws.onMessage(this::onMessage);
+        ws.onClose(this::onClose);
+        ws.onError(this::onError);
+    }
+
+    /**
+     * Stops the flusher thread. Open connections are left to be closed by the server.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+    }
+
+    /**
+     * Registers the connection and subscribes it to the accounts in the "accounts" query parameter. If that isn't
+     * a list of numbers, the connection is closed with 1008 (policy violation).
+     */
+    private void onConnect(WsConnectContext ctx) {
+        List<Integer> accountIds = new ArrayList<>();
+        String accounts = ctx.queryParam("accounts");
+        if (accounts != null && !accounts.isBlank()) {
+            try {
+                for (String id : accounts.split(","))
+                    accountIds.add(Integer.parseInt(id.trim()));
+            } catch (NumberFormatException e) {
+                ctx.closeSession(StatusCode.POLICY_VIOLATION, "accounts must be a list of account ids");
+                return;
+            }
+        }
+        Connection connection = new Connection(ctx.session);
+        connections.put(ctx.getSessionId(), connection);
+        subscribe(connection, accountIds);
+    }
+
+    /**
+     * Handles {"subscribe": [...]} and {"unsubscribe": [...]}. Anything else is answered with an error.
+     */
+    private void onMessage(WsMessageContext ctx) {
+        Connection connection = connections.get(ctx.getSessionId());
+        if (connection == null)
+            return;
+        List<Integer> subscribe = new ArrayList<>();
+        List<Integer> unsubscribe = new ArrayList<>();
+        try {
+            JsonNode request = jsonCodec.getMapper().readTree(ctx.message());
+            if (!readIds(request, "subscribe", subscribe) || !readIds(request, "unsubscribe", unsubscribe)) {
+                connection.send(error("expected {\"subscribe\": [account ids]} or {\"unsubscribe\": [account ids]}"));
+                return;
+            }
+        } catch (IOException e) {
+            connection.send(error("the request is not valid JSON"));
+            return;
+        }
+        for (int accountId : unsubscribe) {
+            connection.accounts.remove(accountId);
+            subscribers.computeIfPresent(accountId, (id, set) -> {
+                set.remove(connection);
+                return set.isEmpty() ? null : set;
+            });
+        }
+        subscribe(connection, subscribe);
+    }
+
+    private void onClose(WsCloseContext ctx) {
+        remove(ctx);
+    }
+
+    private void onError(WsErrorContext ctx) {
+        remove(ctx);
+    }
+
+    /**
+     * @return true if the request had no such field, or it was an array of numbers, which were added to ids.
+     */
+    private static boolean readIds(JsonNode request, String field, List<Integer> ids) {
+        if (request == null || !request.isObject())
+            return false;
+        JsonNode array = request.get(field);
+        if (array == null)
+            return true;
+        if (!array.isArray())
+            return false;
+        for (JsonNode id : array) {
+            if (!id.canConvertToInt())
+                return false;
+            ids.add(id.intValue());
+        }
+        return true;
+    }
+
+    /**
+     * Subscribes the connection to the accounts, up to maxSubscriptions, and tells the client which accounts it is
+     * subscribed to.
+     */
+    private void subscribe(Connection connection, List<Integer> accountIds) {
+        for (int accountId : accountIds) {
+            if (connection.accounts.size() >= maxSubscriptions && !connection.accounts.contains(accountId)) {
+                connection.send(error("a connection may subscribe to at most " + maxSubscriptions + " accounts"));
+                break;
+            }
+            connection.accounts.add(accountId);
+            subscribers.compute(accountId, (id, set) -> {
+                if (set == null)
+                    set = ConcurrentHashMap.newKeySet();
+                set.add(connection);
+                return set;
+            });
+        }
+        StringBuilder ack = new StringBuilder("{\"type\":\"subscribed\",\"accounts\":[");
+        String separator = "";
+        for (int accountId : new TreeSet<>(connection.accounts)) {
+            ack.append(separator).append(accountId);
+            separator = ",";
+        }
+        connection.send(ack.append("]}").toString());
+    }
+
+    private void remove(WsContext ctx) {
+        Connection connection = connections.remove(ctx.getSessionId());
+        if (connection == null)
+            return;
+        connection.closed = true;
+        for (int accountId : connection.accounts) {
+            subscribers.computeIfPresent(accountId, (id, set) -> {
+                set.remove(connection);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    private String error(String message) {
+        try {
+            return "{\"type\":\"error\",\"message\":" + jsonCodec.getMapper().writeValueAsString(message) + "}";
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the event as an element of a batch.
+     */
+    private String encode(long sequence, MessageEvent event) {
+        byte[] json = event.getJson(this::toJson);
+        return "{\"id\":" + sequence + ",\"type\":\"" + event.getType().getName() + "\",\"message\":"
+                + new String(json, StandardCharsets.UTF_8) + "}";
+    }
+
+    private byte[] toJson(Message message) {
+        try {
+            return jsonCodec.getMapper().writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushLoop() {
+        long cursor = events.getPublished();
+        List<Connection> dirty = new ArrayList<>();
+        long lastHeartbeat = System.nanoTime();
+        while (running) {
+            LockSupport.parkNanos(this, flushNanos);
+            cursor = route(cursor, dirty);
+            for (int i = dirty.size() - 1; i >= 0; i--) {
+                if (dirty.get(i).flush()) {
+                    dirty.get(i).dirty = false;
+                    dirty.set(i, dirty.get(dirty.size() - 1));
+                    dirty.remove(dirty.size() - 1);
+                }
+            }
+            long now = System.nanoTime();
+            if (now - lastHeartbeat >= heartbeatNanos) {
+                lastHeartbeat = now;
+                for (Connection connection : connections.values())
+                    connection.ping();
+            }
+        }
+    }
+
+    /**
+     * Appends every event published since cursor to the queues of the connections subscribed to its account.
+     * @param dirty the connections with queued events, which connections are added to when they get one.
+     * @return the new cursor.
+     */
+    private long route(long cursor, List<Connection> dirty) {
+        long published = events.getPublished();
+        while (cursor < published) {
+            MessageEvent event = events.get(cursor);
+            if (event == null) {
+                // the ring went round since the last flush: every subscriber may have missed events, so the events
+                // still queued are dropped and the reset takes their place, after any batch already in flight
+                cursor = Math.max(cursor + 1, events.getOldestSequence());
+                for (Connection connection : connections.values()) {
+                    if (connection.reset() && !connection.dirty) {
+                        connection.dirty = true;
+                        dirty.add(connection);
+                    }
+                }
+                continue;
+            }
+            Set<Connection> subscribed = subscribers.get(event.getMessage().getPosted_by());
+            if (subscribed != null) {
+                String encoded = null;
+                for (Connection connection : subscribed) {
+                    if (encoded == null)
+                        encoded = encode(cursor, event);
+                    if (connection.enqueue(encoded) && !connection.dirty) {
+                        connection.dirty = true;
+                        dirty.add(connection);
+                    }
+                }
+            }
+            cursor++;
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the number of open connections.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of events sent, counting each connection it was sent to.
+     */
+    public long getSentEventCount() {
+        return sentEventCount.get();
+    }
+
+    /**
+     * @return the number of batches sent.
+     */
+    public long getSentBatchCount() {
+        return sentBatchCount.get();
+    }
+
+    /**
+     * @return the number of connections closed because their outbound queue was full.
+     */
+    public long getSlowConnectionCount() {
+        return slowConnectionCount.get();
+    }
+
+    /**
+     * One open socket: the accounts it is subscribed to, and its queue of events waiting to be sent. The queue and
+     * the dirty flag are only touched by the flusher thread.
+     */
+    private class Connection implements WriteCallback {
+        final Session session;
+        final Set<Integer> accounts = ConcurrentHashMap.newKeySet();
+        final ArrayDeque<String> queue = new ArrayDeque<>();
+        final AtomicBoolean inFlight = new AtomicBoolean();
+        boolean dirty;
+        volatile boolean closed;
+
+        Connection(Session session) {
+            this.session = session;
+        }
+
+        /**
+         * Queues an event, or closes the connection if its queue is full.
+         * @return false if the event wasn't queued.
+         */
+        boolean enqueue(String event) {
+            if (closed)
+                return false;
+            if (queue.size() >= maxQueuedEvents) {
+                closed = true;
+                queue.clear();
+                slowConnectionCount.incrementAndGet();
+                session.close(StatusCode.TRY_AGAIN_LATER, "too far behind", WriteCallback.NOOP);
+                return false;
+            }
+            queue.add(event);
+            return true;
+        }
+
+        /**
+         * Replaces the queued events with a reset.
+         * @return false if the connection is closed.
+         */
+        boolean reset() {
+            if (closed)
+                return false;
+            queue.clear();
+            queue.add(RESET);
+            return true;
+        }
+
+        /**
+         * Sends the queued events as one batch, unless the last batch is still being sent.
+         * @return true if the queue is now empty, or the connection is closed.
+         */
+        boolean flush() {
+            if (closed) {
+                queue.clear();
+                return true;
+            }
+            if (!inFlight.compareAndSet(false, true))
+                return false;
+            int count = queue.size();
+            StringBuilder batch = new StringBuilder("{\"type\":\"events\",\"events\":[");
+            String event;
+            String separator = "";
+            while ((event = queue.poll()) != null) {
+                batch.append(separator).append(event);
+                separator = ",";
+            }
+            sentEventCount.addAndGet(count);
+            sentBatchCount.incrementAndGet();
+            session.getRemote().sendString(batch.append("]}").toString(), this);
+            return true;
+        }
+
+        /**
+         * Sends a message outside the batches, eg a reply to a request.
+         */
+        void send(String text) {
+            if (!closed)
+                session.getRemote().sendString(text, WriteCallback.NOOP);
+        }
+
+        void ping() {
+            if (!closed)
+                session.getRemote().sendPing(ByteBuffer.allocate(0), WriteCallback.NOOP);
+        }
+
+        @Override
+        public void writeSuccess() {
+            inFlight.set(false);
+        }
+
+        @Override
+        public void writeFailed(Throwable t) {
+            closed = true;
+            inFlight.set(false);
+        }
+    }
+}
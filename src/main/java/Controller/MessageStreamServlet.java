@@ -0,0 +1,438 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import Model.Message;
+import Service.MessageEvent;
+import Util.EventRing;
+import Util.JsonCodec;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * The MessageStreamServlet serves GET /messages/stream, a Server-Sent Events feed of every message insert, update
+ * and delete, read from the MessageService's EventRing. The optional "posted_by" query parameter limits the feed
+ * to one account's messages.
+ *
+ * Each event is sent as "id: sequence", "event: insert|update|delete" and "data: the message as JSON". A client
+ * that reconnects with a Last-Event-ID header still in the ring resumes after it; otherwise it gets a "reset"
+ * event, meaning it may have missed events and should reload what it shows.
+ *
+ * Subscribers are spread over a few dispatch threads, each of which wakes when an event is published and moves
+ * every one of its subscribers' cursors forward. Writes are non-blocking: a subscriber whose connection can't
+ * take more is skipped until the container says it can, so one slow client never holds up the others, and no
+ * thread is held per connection. Each event is serialized once, however many subscribers it goes to.
+ *
+ * A subscriber that falls more than the ring's capacity behind has lost events. With the "disconnect" drop policy
+ * (the default) its stream is closed, and the client's reconnect gets a reset; with "skip" it jumps to the oldest
+ * event still in the ring after a "dropped" event giving the number it missed. Idle streams get a comment every
+ * heartbeat interval, which keeps proxies from closing them and finds dead connections.
+ *
+ * The servlet is mapped beside Javalin's, so the stream is not behind the concurrency limiter: subscribers hold
+ * no request thread and no database connection while they wait.
+ */
+public class MessageStreamServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final byte[] CONNECTED = ascii("retry: 3000\n: connected\n\n");
+    private static final byte[] RESET = ascii("retry: 3000\nevent: reset\ndata: {}\n\n");
+    private static final byte[] HEARTBEAT = ascii(": ping\n\n");
+
+    private final EventRing<MessageEvent> events;
+    private final JsonCodec jsonCodec;
+    private final boolean skipSlowSubscribers;
+    private final long heartbeatNanos;
+    private final Dispatcher[] dispatchers;
+    private final AtomicInteger nextDispatcher = new AtomicInteger();
+    private final AtomicReferenceArray<Frame> frames;
+    private final Runnable onPublish = this::wakeAll;
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedEventCount = new AtomicLong();
+    private final AtomicLong slowSubscriberCount = new AtomicLong();
+
+    /**
+     * @param events the ring the MessageService publishes its events to.
+     * @param jsonCodec serializes the messages.
+     * @param dispatchThreads the number of threads delivering events.
+     * @param dropPolicy "disconnect" or "skip", what to do with a subscriber that has fallen too far behind.
+     * @param heartbeatMillis how often an idle stream gets a comment.
+     */
+    public MessageStreamServlet(EventRing<MessageEvent> events, JsonCodec jsonCodec, int dispatchThreads,
+            String dropPolicy, long heartbeatMillis) {
+        if (!dropPolicy.equals("disconnect") && !dropPolicy.equals("skip"))
+            throw new IllegalArgumentException("Unknown drop policy " + dropPolicy + ", expected disconnect or skip");
+        this.events = events;
+        this.jsonCodec = jsonCodec;
+        this.skipSlowSubscribers = dropPolicy.equals("skip");
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+        this.frames = new AtomicReferenceArray<>(events.getCapacity());
+        this.dispatchers = new Dispatcher[Math.max(1, dispatchThreads)];
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = new Dispatcher("sse-dispatch-" + (i + 1));
+            dispatchers[i].start();
+        }
+        events.addListener(onPublish);
+    }
+
+    /**
+     * Starts a stream. If "posted_by" is not a valid number, responds with a 400 message (client error).
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        int posted_by = 0;
+        if (request.getParameter("posted_by") != null) {
+            try {
+                posted_by = Integer.parseInt(request.getParameter("posted_by"));
+            } catch (NumberFormatException e) {
+                response.setStatus(400);
+                return;
+            }
+        }
+
+        long cursor = events.getPublished();
+        boolean reset = false;
+        String lastEventId = request.getHeader("Last-Event-ID");
+        if (lastEventId != null) {
+            try {
+                long next = Long.parseLong(lastEventId.trim()) + 1;
+                if (next >= events.getOldestSequence() && next <= cursor)
+                    cursor = next;
+                else
+                    reset = true;
+            } catch (NumberFormatException e) {
+                reset = true;
+            }
+        }
+
+        response.setStatus(200);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Accel-Buffering", "no");
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        Dispatcher dispatcher = dispatchers[Math.floorMod(nextDispatcher.getAndIncrement(), dispatchers.length)];
+        Subscriber subscriber = new Subscriber(dispatcher, async, response.getOutputStream(), posted_by, cursor,
+                reset ? RESET : CONNECTED);
+        async.addListener(subscriber);
+        subscriberCount.incrementAndGet();
+        dispatcher.add(subscriber);
+        response.getOutputStream().setWriteListener(subscriber);
+    }
+
+    /**
+     * Stops the dispatch threads and ends every stream.
+     */
+    public void close() {
+        events.removeListener(onPublish);
+        for (Dispatcher dispatcher : dispatchers)
+            dispatcher.shutdown();
+    }
+
+    @Override
+    public void destroy() {
+        close();
+    }
+
+    private void wakeAll() {
+        for (Dispatcher dispatcher : dispatchers)
+            dispatcher.wake();
+    }
+
+    /**
+     * @return the frame of an event, built the first time any subscriber needs it.
+     */
+    private byte[] frame(long sequence, MessageEvent event) {
+        int slot = (int) (sequence & (frames.length() - 1));
+        Frame frame = frames.get(slot);
+        if (frame == null || frame.sequence != sequence) {
+            byte[] json = event.getJson(this::toJson);
+            byte[] head = ascii("id: " + sequence + "\nevent: " + event.getType().getName() + "\ndata: ");
+            byte[] bytes = new byte[head.length + json.length + 2];
+            System.arraycopy(head, 0, bytes, 0, head.length);
+            System.arraycopy(json, 0, bytes, head.length, json.length);
+            bytes[bytes.length - 2] = '\n';
+            bytes[bytes.length - 1] = '\n';
+            frame = new Frame(sequence, bytes);
+            frames.set(slot, frame);
+        }
+        return frame.bytes;
+    }
+
+    private byte[] toJson(Message message) {
+        try {
+            return jsonCodec.getMapper().writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the number of open streams.
+     */
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * @return the number of events written to streams.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return the number of events skipped subscribers missed, under the skip drop policy.
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount.get();
+    }
+
+    /**
+     * @return the number of times a subscriber fell more than the ring's capacity behind.
+     */
+    public long getSlowSubscriberCount() {
+        return slowSubscriberCount.get();
+    }
+
+    private static class Frame {
+        final long sequence;
+        final byte[] bytes;
+
+        Frame(long sequence, byte[] bytes) {
+            this.sequence = sequence;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A thread delivering events to its share of the subscribers. Only this thread writes to them or moves their
+     * cursors; the container's threads only flag that a stream can be written again, or has closed.
+     */
+    private class Dispatcher extends Thread {
+        private final Queue<Subscriber> added = new ConcurrentLinkedQueue<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private final AtomicBoolean signalled = new AtomicBoolean();
+        private volatile boolean running = true;
+        private long lastHeartbeat = System.nanoTime();
+
+        Dispatcher(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        void add(Subscriber subscriber) {
+            added.add(subscriber);
+            wake();
+        }
+
+        void wake() {
+            if (!signalled.getAndSet(true))
+                LockSupport.unpark(this);
+        }
+
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                if (!signalled.getAndSet(false))
+                    LockSupport.parkNanos(this, heartbeatNanos);
+                Subscriber subscriber;
+                while ((subscriber = added.poll()) != null)
+                    subscribers.add(subscriber);
+
+                long now = System.nanoTime();
+                boolean heartbeat = now - lastHeartbeat >= heartbeatNanos;
+                if (heartbeat)
+                    lastHeartbeat = now;
+                for (int i = subscribers.size() - 1; i >= 0; i--) {
+                    subscriber = subscribers.get(i);
+                    if (!subscriber.deliver(heartbeat)) {
+                        subscriber.end();
+                        subscribers.set(i, subscribers.get(subscribers.size() - 1));
+                        subscribers.remove(subscribers.size() - 1);
+                    }
+                }
+            }
+            while (added.peek() != null)
+                subscribers.add(added.poll());
+            for (Subscriber subscriber : subscribers)
+                subscriber.end();
+        }
+    }
+
+    /**
+     * One open stream: its cursor into the ring, its filter, and whether it can be written to.
+     */
+    private class Subscriber implements WriteListener, AsyncListener {
+        private final Dispatcher dispatcher;
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        private final int posted_by;
+        private long cursor;
+        private byte[] pending;
+        private boolean unflushed;
+        private boolean ended;
+        private volatile boolean writable;
+        private volatile boolean closed;
+
+        Subscriber(Dispatcher dispatcher, AsyncContext async, ServletOutputStream out, int posted_by, long cursor,
+                byte[] first) {
+            this.dispatcher = dispatcher;
+            this.async = async;
+            this.out = out;
+            this.posted_by = posted_by;
+            this.cursor = cursor;
+            this.pending = first;
+        }
+
+        /**
+         * Writes as many events as the stream will take without blocking, and flushes them.
+         * @param heartbeat true if an idle stream should get a heartbeat comment.
+         * @return false if the stream should be ended: it was closed, failed, or fell too far behind.
+         */
+        boolean deliver(boolean heartbeat) {
+            if (closed)
+                return false;
+            if (cursor < events.getOldestSequence() && !skipSlowSubscribers) {
+                slowSubscriberCount.incrementAndGet();
+                return false;
+            }
+            if (!writable)
+                return true;
+            if (heartbeat && pending == null && cursor >= events.getPublished() && !unflushed)
+                pending = HEARTBEAT;
+            try {
+                while (ready()) {
+                    byte[] frame = next();
+                    if (frame == null) {
+                        if (unflushed) {
+                            unflushed = false;
+                            out.flush();
+                        }
+                        break;
+                    }
+                    out.write(frame);
+                    unflushed = true;
+                }
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                return false;
+            }
+        }
+
+        /**
+         * The container calls onWritePossible only after isReady has returned false, so writable is cleared
+         * first: a callback that comes in between sets it again rather than being lost.
+         */
+        private boolean ready() {
+            writable = false;
+            if (!out.isReady())
+                return false;
+            writable = true;
+            return true;
+        }
+
+        /**
+         * @return the next frame to write, or <code>null</code> if the subscriber is up to date.
+         */
+        private byte[] next() {
+            if (pending != null) {
+                byte[] frame = pending;
+                pending = null;
+                return frame;
+            }
+            while (cursor < events.getPublished()) {
+                long sequence = cursor;
+                MessageEvent event = events.get(sequence);
+                if (event == null) {
+                    long oldest = events.getOldestSequence();
+                    slowSubscriberCount.incrementAndGet();
+                    droppedEventCount.addAndGet(oldest - sequence);
+                    cursor = oldest;
+                    return ascii("event: dropped\ndata: {\"dropped\":" + (oldest - sequence) + "}\n\n");
+                }
+                cursor++;
+                if (posted_by == 0 || event.getMessage().getPosted_by() == posted_by) {
+                    sentCount.incrementAndGet();
+                    return frame(sequence, event);
+                }
+            }
+            return null;
+        }
+
+        void end() {
+            if (ended)
+                return;
+            ended = true;
+            subscriberCount.decrementAndGet();
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // already completed by the container
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            writable = true;
+            dispatcher.wake();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            closed = true;
+            dispatcher.wake();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            closed = true;
+            dispatcher.wake();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            closed = true;
+            dispatcher.wake();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            closed = true;
+            dispatcher.wake();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
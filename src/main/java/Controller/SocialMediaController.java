@@ -1,16 +1,42 @@
 package Controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 
 import Model.Account;
 import Model.Message;
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import DAO.StorageEngine;
+import DAO.StorageEngines;
+import Service.AccountIndex;
 import Service.AccountService;
+import Service.MessageSearchIndex;
 import Service.MessageService;
+import Service.MessageVersions;
+import Service.PasswordVerifier;
+import Util.AppConfig;
+import Util.ConcurrencyLimiter;
+import Util.ConnectionUtil;
+import Util.ConnectionPool;
+import Util.EncodedResponseCache;
+import Util.JsonCodec;
+import Util.LruCache;
+import Util.Metrics;
+import Util.ServerThreadPool;
+import Util.SessionTokens;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHolder;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -18,83 +44,393 @@ import io.javalin.http.Context;
  * refer to prior mini-project labs and lecture materials for guidance on how a controller may be built.
  */
 public class SocialMediaController {
+    /**
+     * Page sizes used by GET /messages when a page is requested without a limit, the largest page a client may
+     * request, and the page size used internally when streaming.
+     */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_PAGE_SIZE = 500;
+    /**
+     * The largest number of messages accepted by one POST /messages/batch request.
+     */
+    private static final int MAX_BATCH_SIZE = AppConfig.getInt("socialmedia.batch.maxSize", 5000);
+
+    /**
+     * The storage the services run against, chosen by socialmedia.storage.engine; see StorageEngines.
+     */
+    StorageEngine storageEngine;
     AccountService accountService;
     MessageService messageService;
+    /**
+     * The JSON codec shared by every handler, and registered as the Javalin app's JsonMapper.
+     */
+    JsonCodec jsonCodec;
+    /**
+     * Bounds the number of requests working against the database at once; see ConcurrencyLimiter.
+     */
+    ConcurrencyLimiter concurrencyLimiter;
+    /**
+     * The encoded bodies of GET /messages and GET /accounts/{account_id}/messages, reused until a message changes;
+     * see EncodedResponseCache. <code>null</code> if socialmedia.responseCache.enabled is false.
+     */
+    EncodedResponseCache responseCache;
+    /**
+     * Serves GET /messages/stream, the live feed of message events.
+     */
+    MessageStreamServlet messageStream;
+    /**
+     * Serves the /messages/ws WebSocket, which pushes message events to the accounts' subscribers.
+     */
+    MessageSocketHub messageSocket;
+    /**
+     * Issues the session tokens returned by POST /login and verifies the ones sent to the message endpoints.
+     */
+    SessionTokens sessionTokens;
 
     public SocialMediaController(){
-        this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        this.storageEngine = StorageEngines.fromConfig();
+        AccountRepository accountDAO = storageEngine.getAccountRepository();
+        AccountIndex accountIndex = AppConfig.getBoolean("socialmedia.accountIndex.enabled", true)
+                ? AccountIndex.warm(accountDAO,
+                        AppConfig.getLong("socialmedia.accountIndex.expectedAccounts", 100_000),
+                        AppConfig.getDouble("socialmedia.accountIndex.falsePositiveRate", 0.01))
+                : null;
+        this.accountService = new AccountService(accountDAO, accountIndex);
+        MessageRepository messageDAO = storageEngine.getMessageRepository();
+        this.messageService = new MessageService(messageDAO, accountIndex, MessageSearchIndex.warm(messageDAO));
+        this.jsonCodec = new JsonCodec();
+        this.sessionTokens = SessionTokens.fromConfig();
+        this.responseCache = AppConfig.getBoolean("socialmedia.responseCache.enabled", true)
+                ? new EncodedResponseCache(
+                        AppConfig.getInt("socialmedia.responseCache.maxEntries", 512),
+                        AppConfig.getInt("socialmedia.responseCache.maxBodyBytes", 4 * 1024 * 1024))
+                : null;
+        this.messageStream = new MessageStreamServlet(messageService.getEvents(), jsonCodec,
+                AppConfig.getInt("socialmedia.sse.dispatchThreads", Runtime.getRuntime().availableProcessors()),
+                AppConfig.getString("socialmedia.sse.dropPolicy", "disconnect"),
+                AppConfig.getLong("socialmedia.sse.heartbeatMillis", 15000));
+        this.messageSocket = new MessageSocketHub(messageService.getEvents(), jsonCodec,
+                AppConfig.getLong("socialmedia.ws.flushMillis", 50),
+                AppConfig.getInt("socialmedia.ws.maxQueuedEvents", 1000),
+                AppConfig.getInt("socialmedia.ws.maxSubscriptions", 100),
+                AppConfig.getLong("socialmedia.ws.heartbeatMillis", 15000));
+        this.concurrencyLimiter = new ConcurrencyLimiter(
+                AppConfig.getInt("socialmedia.limiter.maxConcurrent", ConnectionUtil.getDataSource().getMaxSize() * 2),
+                AppConfig.getInt("socialmedia.limiter.maxWaiting", 1000),
+                AppConfig.getLong("socialmedia.limiter.waitTimeoutMillis", 2000));
     }
 
     /**
      * In order for the test cases to work, you will need to write the endpoints in the startAPI() method, as the test
      * suite must receive a Javalin object from this method.
+     * The server runs its handlers on platform or virtual threads depending on socialmedia.server.threads (see
+     * ServerThreadPool), and every handler is run behind the concurrency limiter. Every route's requests are
+     * counted and timed, and GET /metrics reports those numbers along with the DAO query times and the state of
+     * the connection pool, the caches and the limiter.
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
-        app.post("/register", this::postNewUserHandler);
-        app.post("/login", this::postLoginHandler);
-        app.post("/messages", this::postNewMessageHandler);
-        app.get("/messages", this::getAllMessagesHandler);
-        app.get("/messages/{message_id}", this::getMessageByIdHandler);
-        app.delete("/messages/{message_id}", this::deleteMessageHandler);
-        app.patch("/messages/{message_id}", this::patchMessageHandler);
-        app.get("/accounts/{account_id}/messages", this::getUserMessagesHandler);
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(jsonCodec);
+            config.jetty.server(() -> new Server(ServerThreadPool.create()));
+            // an exact servlet mapping takes precedence over Javalin's, so the stream bypasses the limiter
+            config.jetty.contextHandlerConfig(handler -> {
+                ServletHolder holder = new ServletHolder(messageStream);
+                holder.setAsyncSupported(true);
+                handler.addServlet(holder, "/messages/stream");
+            });
+        });
+        route(app, HandlerType.POST, "/register", this::postNewUserHandler);
+        route(app, HandlerType.POST, "/login", this::postLoginHandler);
+        route(app, HandlerType.POST, "/messages", this::postNewMessageHandler);
+        route(app, HandlerType.POST, "/messages/batch", this::postMessageBatchHandler);
+        route(app, HandlerType.GET, "/messages", this::getAllMessagesHandler);
+        // registered before /messages/{message_id}, which would otherwise match it
+        route(app, HandlerType.GET, "/messages/search", this::searchMessagesHandler);
+        route(app, HandlerType.GET, "/messages/{message_id}", this::getMessageByIdHandler);
+        route(app, HandlerType.DELETE, "/messages/{message_id}", this::deleteMessageHandler);
+        route(app, HandlerType.PATCH, "/messages/{message_id}", this::patchMessageHandler);
+        route(app, HandlerType.GET, "/accounts/{account_id}/messages", this::getUserMessagesHandler);
+        app.ws("/messages/ws", messageSocket::configure);
+        app.get("/metrics", this::getMetricsHandler);
+        app.events(event -> event.serverStopped(() -> {
+            messageStream.close();
+            messageSocket.close();
+            messageService.shutdown();
+            accountService.shutdown();
+            storageEngine.close();
+        }));
+        registerMetrics();
 
         return app;
     }
 
+    /**
+     * Adds a route to the app. The handler runs behind the concurrency limiter, and the route's requests are
+     * counted by status code and timed. Recording only increments counters that were set up here, so it adds no
+     * locking or allocation to the request.
+     * @param app the Javalin app.
+     * @param method the HTTP method of the route.
+     * @param path the path of the route.
+     * @param handler the handler of the route.
+     */
+    private void route(Javalin app, HandlerType method, String path, Handler handler) {
+        Metrics.Route metrics = Metrics.route(method.name(), path);
+        Handler limitedHandler = limited(handler);
+        app.addHandler(method, path, ctx -> {
+            long start = System.nanoTime();
+            int status = 500;
+            try {
+                limitedHandler.handle(ctx);
+                status = ctx.statusCode();
+            } catch (HttpResponseException e) {
+                status = e.getStatus();
+                throw e;
+            } finally {
+                metrics.record(status, start);
+            }
+        });
+    }
+
+    /**
+     * Registers the gauges and counters of the connection pool, the concurrency limiter, the password workers, the
+     * caches, the write-behind queue, the storage engine, the account index and the search index, which GET /metrics
+     * reads when it is scraped.
+     */
+    private void registerMetrics() {
+        ConnectionPool pool = ConnectionUtil.getDataSource();
+        Metrics.gauge("socialmedia_pool_connections", "state=\"active\"", pool::getActiveCount);
+        Metrics.gauge("socialmedia_pool_connections", "state=\"idle\"", pool::getIdleCount);
+        Metrics.gauge("socialmedia_pool_max_connections", "", pool::getMaxSize);
+        Metrics.counter("socialmedia_pool_borrow_timeouts_total", "", pool::getBorrowTimeoutCount);
+        Metrics.counter("socialmedia_pool_connections_created_total", "", pool::getCreatedCount);
+        Metrics.counter("socialmedia_pool_statement_cache_hits_total", "", pool::getStatementCacheHits);
+        Metrics.counter("socialmedia_pool_statement_cache_misses_total", "", pool::getStatementCacheMisses);
+        Metrics.histogram("socialmedia_pool_borrow_wait_seconds", "", pool.getBorrowWaitHistogram());
+
+        Metrics.gauge("socialmedia_limiter_requests", "state=\"active\"", concurrencyLimiter::getActiveCount);
+        Metrics.gauge("socialmedia_limiter_requests", "state=\"waiting\"", concurrencyLimiter::getWaitingCount);
+        Metrics.counter("socialmedia_limiter_rejected_total", "", concurrencyLimiter::getRejectedCount);
+
+        PasswordVerifier passwordVerifier = accountService.getPasswordVerifier();
+        Metrics.gauge("socialmedia_password_queue_depth", "", passwordVerifier::getQueueDepth);
+        Metrics.counter("socialmedia_password_rejected_total", "", passwordVerifier::getRejectedCount);
+
+        registerCacheMetrics("passwords", passwordVerifier.getCache());
+        registerCacheMetrics("messages", messageService.getMessageCache());
+        registerCacheMetrics("timelines", messageService.getTimelineCache().getCache());
+        Metrics.gauge("socialmedia_write_behind_queue_depth", "", messageService::getWriteBehindQueueDepth);
+        Metrics.gauge("socialmedia_sse_subscribers", "", messageStream::getSubscriberCount);
+        Metrics.counter("socialmedia_sse_events_sent_total", "", messageStream::getSentCount);
+        Metrics.counter("socialmedia_sse_events_dropped_total", "", messageStream::getDroppedEventCount);
+        Metrics.counter("socialmedia_sse_slow_subscribers_total", "", messageStream::getSlowSubscriberCount);
+        Metrics.gauge("socialmedia_ws_connections", "", messageSocket::getConnectionCount);
+        Metrics.counter("socialmedia_ws_events_sent_total", "", messageSocket::getSentEventCount);
+        Metrics.counter("socialmedia_ws_batches_sent_total", "", messageSocket::getSentBatchCount);
+        Metrics.counter("socialmedia_ws_slow_connections_total", "", messageSocket::getSlowConnectionCount);
+        if (responseCache != null) {
+            Metrics.gauge("socialmedia_cache_entries", "cache=\"responses\"", responseCache::size);
+            Metrics.counter("socialmedia_cache_hits_total", "cache=\"responses\"", responseCache::getHitCount);
+            Metrics.counter("socialmedia_cache_misses_total", "cache=\"responses\"", responseCache::getMissCount);
+            Metrics.counter("socialmedia_response_compressions_total", "", responseCache::getCompressionCount);
+        }
+
+        storageEngine.registerMetrics();
+
+        MessageSearchIndex searchIndex = messageService.getSearchIndex();
+        Metrics.gauge("socialmedia_search_index_terms", "", searchIndex::getTermCount);
+        Metrics.gauge("socialmedia_search_index_bytes", "", searchIndex::getSizeInBytes);
+
+        AccountIndex accountIndex = accountService.getAccountIndex();
+        if (accountIndex != null) {
+            Metrics.gauge("socialmedia_account_index_bytes", "structure=\"account_ids\"", accountIndex::getAccountIdBytes);
+            Metrics.gauge("socialmedia_account_index_bytes", "structure=\"usernames\"", accountIndex::getUsernameBytes);
+            Metrics.counter("socialmedia_account_index_negatives_total", "structure=\"account_ids\"",
+                    accountIndex::getAccountIdNegativeCount);
+            Metrics.counter("socialmedia_account_index_negatives_total", "structure=\"usernames\"",
+                    accountIndex::getUsernameNegativeCount);
+            Metrics.counter("socialmedia_account_index_false_positives_total", "structure=\"usernames\"",
+                    accountIndex::getUsernameFalsePositiveCount);
+            Metrics.gauge("socialmedia_account_index_false_positive_rate", "structure=\"usernames\"",
+                    accountIndex::getUsernameFalsePositiveRate);
+            Metrics.gauge("socialmedia_account_index_expected_false_positive_rate", "structure=\"usernames\"",
+                    accountIndex::getUsernameExpectedFalsePositiveRate);
+        }
+    }
+
+    private void registerCacheMetrics(String name, LruCache<?, ?> cache) {
+        String labels = "cache=\"" + name + "\"";
+        Metrics.gauge("socialmedia_cache_entries", labels, cache::size);
+        Metrics.counter("socialmedia_cache_hits_total", labels, cache::getHitCount);
+        Metrics.counter("socialmedia_cache_misses_total", labels, cache::getMissCount);
+        Metrics.counter("socialmedia_cache_evictions_total", labels, cache::getEvictionCount);
+    }
+
+    /**
+     * Handler to get the application's metrics in the Prometheus text format.
+     * This route is not behind the concurrency limiter, so the metrics can still be read while the server is
+     * overloaded.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void getMetricsHandler(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(Metrics.scrape());
+    }
+
+    /**
+     * Wraps a handler so it only runs while holding a permit from the concurrency limiter.
+     * If no permit can be had, the API will return a 503 message (service unavailable) with a Retry-After header.
+     * @param handler the handler to wrap.
+     * @return the wrapped handler.
+     */
+    private Handler limited(Handler handler) {
+        return ctx -> {
+            if (!concurrencyLimiter.acquire()) {
+                serviceUnavailable(ctx);
+                return;
+            }
+            try {
+                handler.handle(ctx);
+            } finally {
+                concurrencyLimiter.release();
+            }
+        };
+    }
+
+    /**
+     * Responds with a 503 message (service unavailable), asking the client to retry in a second.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void serviceUnavailable(Context ctx) {
+        ctx.header("Retry-After", "1");
+        ctx.status(503);
+    }
+
     /**
      * Handler to post a new user.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into an Account object.
+     * The JsonCodec will automatically convert the JSON of the POST request into an Account object.
      * If accountService returns a <code>null</code> account (meaning posting an account was unsuccessful), the 
      * API will return a 400 message (client error).
+     * If the password workers are too busy to hash the password in time, the API will return a 503 message
+     * (service unavailable).
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object or writing the response.
      */
-    private void postNewUserHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account newAccount = accountService.insertAccount(account);
+    private void postNewUserHandler(Context ctx) throws IOException {
+        Account account = jsonCodec.readAccount(ctx.bodyInputStream());
+        Account newAccount;
+        try {
+            newAccount = accountService.insertAccount(account);
+        } catch (RejectedExecutionException e) {
+            serviceUnavailable(ctx);
+            return;
+        }
         if (newAccount != null)
-            ctx.json(mapper.writeValueAsString(newAccount)); 
+            jsonCodec.writeAccount(jsonOutputStream(ctx), newAccount);
         else
             ctx.status(400);
     }
 
     /**
      * Handler to post a user login.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into an Account object.
+     * The JsonCodec will automatically convert the JSON of the POST request into an Account object.
      * If accountService returns a <code>null</code> account (meaning an account with a matching username and 
      * password was not found), the API will return a 401 message (unauthorized).
+     * If the password workers are too busy to verify the password in time, the API will return a 503 message
+     * (service unavailable).
+     * On success, the X-Session-Token header holds a signed session token for the account. Sending it back as
+     * "Authorization: Bearer token" when posting messages saves the API from looking the account up again.
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object or writing the response.
      */
-    public void postLoginHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account loginAccount = accountService.login(account);
-        if (loginAccount != null)
-            ctx.json(mapper.writeValueAsString(loginAccount));
+    public void postLoginHandler(Context ctx) throws IOException {
+        Account account = jsonCodec.readAccount(ctx.bodyInputStream());
+        Account loginAccount;
+        try {
+            loginAccount = accountService.login(account);
+        } catch (RejectedExecutionException e) {
+            serviceUnavailable(ctx);
+            return;
+        }
+        if (loginAccount != null) {
+            ctx.header("X-Session-Token", sessionTokens.issue(loginAccount.getAccount_id()));
+            jsonCodec.writeAccount(jsonOutputStream(ctx), loginAccount);
+        }
         else
             ctx.status(401);
     }
 
     /**
      * Handler to post a new message.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into a Message object.
+     * The JsonCodec will automatically convert the JSON of the POST request into a Message object.
      * If messageService returns a <code>null</code> message (meaning posting a message was unsuccessful), the 
      * API will return a 400 message (client error).
+     * When write-behind is enabled: if the write queue is full, the API will return a 429 message (too many
+     * requests), and if the message was queued without waiting for it to be committed (so it has no message id
+     * yet), the API will return a 202 message (accepted).
+     * If a session token is sent, it must be valid and belong to the posted_by account, or the API will return a
+     * 401 message (unauthorized); a valid token saves the lookup of the posting account.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object or writing the response.
+     */
+    public void postNewMessageHandler(Context ctx) throws IOException {
+        Message message = jsonCodec.readMessage(ctx.bodyInputStream());
+        int session_account_id = sessionAccountId(ctx);
+        if (session_account_id < 0 || (session_account_id > 0 && session_account_id != message.getPosted_by())) {
+            ctx.status(401);
+            return;
+        }
+        Message newMessage;
+        try {
+            newMessage = messageService.insertMessage(message, session_account_id > 0);
+        } catch (RejectedExecutionException e) {
+            ctx.status(429);
+            return;
+        }
+        if (newMessage == null) {
+            ctx.status(400);
+            return;
+        }
+        if (newMessage.getMessage_id() == 0)
+            ctx.status(202);
+        jsonCodec.writeMessage(jsonOutputStream(ctx), newMessage);
+    }
+
+    /**
+     * Handler to post many new messages at once.
+     * The JsonCodec will automatically convert the JSON array of the POST request into a list of Message objects.
+     * The messages are inserted in a single transaction, so either all of them are posted or none are.
+     * If messageService returns a <code>null</code> list (meaning a message didn't meet the message requirements
+     * or posting the messages was unsuccessful), or the batch is empty or larger than the maximum batch size,
+     * the API will return a 400 message (client error).
+     * If a session token is sent, it must be valid and every message must be posted by its account, or the API
+     * will return a 401 message (unauthorized).
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object or writing the response.
      */
-    public void postNewMessageHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
-        Message newMessage = messageService.insertMessage(message);
-        if (newMessage != null)
-            ctx.json(mapper.writeValueAsString(newMessage));
+    public void postMessageBatchHandler(Context ctx) throws IOException {
+        List<Message> messages = jsonCodec.readMessages(ctx.bodyInputStream());
+        if (messages == null || messages.size() > MAX_BATCH_SIZE) {
+            ctx.status(400);
+            return;
+        }
+        int session_account_id = sessionAccountId(ctx);
+        if (session_account_id < 0) {
+            ctx.status(401);
+            return;
+        }
+        if (session_account_id > 0) {
+            for (Message message : messages) {
+                if (message != null && message.getPosted_by() != session_account_id) {
+                    ctx.status(401);
+                    return;
+                }
+            }
+        }
+        List<Message> newMessages = messageService.insertMessages(messages, session_account_id > 0);
+        if (newMessages != null)
+            jsonCodec.writeMessages(jsonOutputStream(ctx), newMessages);
         else
             ctx.status(400);
     }
@@ -103,11 +439,121 @@ public class SocialMediaController {
      * Handler to get all messages.
      * If messageService returns a list of message objects, The API will return a 200 message (OK), even if 
      * the returned list of messages is empty.
+     * The optional "after" and "limit" query parameters request a single page of messages in message id order
+     * (keyset pagination). When the page is full, the X-Next-After header holds the "after" value of the next page.
+     * The optional "stream=true" query parameter streams every message (after "after", if given) as one JSON
+     * array, written to the response a page at a time so memory use doesn't grow with the size of the table.
+     * The optional "since" and "until" query parameters request the messages posted in a time window instead,
+     * since <= time_posted_epoch < until, ordered by time posted; either bound may be left out. They can't be
+     * combined with "after", "limit" or "stream".
+     * If a query parameter is not a valid number, or the parameters are combined, the API will return a 400
+     * message (client error).
+     * Without query parameters, the encoded response (gzip or deflate if the client accepts it) is cached until a
+     * message changes; see EncodedResponseCache.
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws IOException will be thrown if there is an issue writing a streamed response.
      */
-    public void getAllMessagesHandler(Context ctx) {
-        List<Message> messages = messageService.getAllMessages();
-        ctx.json(messages);
+    public void getAllMessagesHandler(Context ctx) throws IOException {
+        String after = ctx.queryParam("after");
+        String limit = ctx.queryParam("limit");
+        boolean stream = Boolean.parseBoolean(ctx.queryParam("stream"));
+        if (ctx.queryParam("since") != null || ctx.queryParam("until") != null) {
+            long[] window = timeWindow(ctx);
+            if (window == null || after != null || limit != null || stream) {
+                ctx.status(400);
+                return;
+            }
+            jsonCodec.writeMessages(jsonOutputStream(ctx), messageService.getMessagesBetween(window[0], window[1]));
+            return;
+        }
+        if (after == null && limit == null && !stream) {
+            if (responseCache != null) {
+                String version = Long.toString(messageService.getVersions().getVersion());
+                writeEncoded(ctx, responseCache.get("/messages", version,
+                        out -> jsonCodec.writeMessages(out, messageService.getAllMessages())));
+                return;
+            }
+            List<Message> messages = messageService.getAllMessages();
+            jsonCodec.writeMessages(jsonOutputStream(ctx), messages);
+            return;
+        }
+
+        int after_id;
+        int page_size;
+        try {
+            after_id = after == null ? 0 : Integer.parseInt(after);
+            page_size = limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (after_id < 0 || page_size < 1) {
+            ctx.status(400);
+            return;
+        }
+
+        if (stream) {
+            streamMessages(ctx, after_id);
+            return;
+        }
+        List<Message> messages = messageService.getMessagesAfter(after_id, Math.min(page_size, MAX_PAGE_SIZE));
+        if (messages.size() == Math.min(page_size, MAX_PAGE_SIZE))
+            ctx.header("X-Next-After", Integer.toString(messages.get(messages.size() - 1).getMessage_id()));
+        jsonCodec.writeMessages(jsonOutputStream(ctx), messages);
+    }
+
+    /**
+     * Writes every message with an id greater than after_id to the response as a single JSON array. Messages are
+     * read one page at a time and each element is written as soon as it is read, so only one page is ever held
+     * in memory and no database connection is held while the client is reading.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @param after_id the message id to start after.
+     * @throws IOException will be thrown if there is an issue writing the response.
+     */
+    private void streamMessages(Context ctx, int after_id) throws IOException {
+        OutputStream out = jsonOutputStream(ctx);
+        try (SequenceWriter writer = jsonCodec.startMessageArray(out)) {
+            List<Message> page;
+            do {
+                page = messageService.getMessagesAfter(after_id, STREAM_PAGE_SIZE);
+                for (Message message : page)
+                    writer.write(message);
+                if (!page.isEmpty())
+                    after_id = page.get(page.size() - 1).getMessage_id();
+                writer.flush();
+            } while (page.size() == STREAM_PAGE_SIZE);
+        }
+        out.flush();
+    }
+
+    /**
+     * Handler to search the text of messages.
+     * The "q" query parameter holds the query: terms separated by spaces must all appear in a message, "OR"
+     * between groups of terms matches a message containing any group, and a term ending in "*" matches every word
+     * starting with it. Matching ignores case and punctuation. The optional "limit" query parameter caps the
+     * number of messages returned.
+     * The API will return a 200 message (OK) with the matching messages, most recent first, even if none match.
+     * If "q" is missing or blank, or "limit" is not a positive number, the API will return a 400 message
+     * (client error).
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws IOException will be thrown if there is an issue writing the response.
+     */
+    public void searchMessagesHandler(Context ctx) throws IOException {
+        String query = ctx.queryParam("q");
+        String limit = ctx.queryParam("limit");
+        int page_size;
+        try {
+            page_size = limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (query == null || query.isBlank() || page_size < 1) {
+            ctx.status(400);
+            return;
+        }
+        List<Message> messages = messageService.searchMessages(query, Math.min(page_size, MAX_PAGE_SIZE));
+        jsonCodec.writeMessages(jsonOutputStream(ctx), messages);
     }
 
     /**
@@ -115,13 +561,18 @@ public class SocialMediaController {
      * The message id is parsed from the PATH parameter of the context object. 
      * The API will return a 200 message (OK), even if messageService returns a <code>null</code> Message 
      * object (meaning a message with the given message id wasn't found).
+     * The response carries an ETag; if the If-None-Match header holds the current tag, the API will return a 304
+     * message (not modified) without reading the message.
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws IOException will be thrown if there is an issue writing the response.
      */
-    public void getMessageByIdHandler(Context ctx) {
+    public void getMessageByIdHandler(Context ctx) throws IOException {
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
+        if (notModified(ctx, messageService.getVersions().messageTag(message_id)))
+            return;
         Message message = messageService.getMessageById(message_id);
         if (message != null)
-            ctx.json(message);
+            jsonCodec.writeMessage(jsonOutputStream(ctx), message);
         else
             ctx.json("");
     }
@@ -132,33 +583,33 @@ public class SocialMediaController {
      * The API will return a 200 message (OK), even if messageService returns a <code>null</code> Message 
      * object (meaning a message to be deleted wasn't found with the given message id).
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws IOException will be thrown if there is an issue writing the response.
      */
-    public void deleteMessageHandler(Context ctx) {
+    public void deleteMessageHandler(Context ctx) throws IOException {
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
         Message deletedMessage = messageService.deleteMessage(message_id);
         if (deletedMessage != null)
-            ctx.json(deletedMessage);
+            jsonCodec.writeMessage(jsonOutputStream(ctx), deletedMessage);
         else
             ctx.json("");
     }
     
     /**
      * Handler to update a message, identified by its message id
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into a Message object.
+     * The JsonCodec will automatically convert the JSON of the POST request into a Message object.
      * The message text is retrieved from the Message object using the .getMessage_text() method.
      * The message id is parsed from the PATH parameter of the context object.
      * If messageService returns a <code>null</code> message (meaning updating a message was unsuccessful),
      * the API will return a 400 message (client error).
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object or writing the response.
      */
-    public void patchMessageHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        String message_text = mapper.readValue(ctx.body(), Message.class).getMessage_text();
+    public void patchMessageHandler(Context ctx) throws IOException {
+        String message_text = jsonCodec.readMessage(ctx.bodyInputStream()).getMessage_text();
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
         Message updatedMessage = messageService.updateMessage(message_id, message_text);
         if (updatedMessage != null)
-            ctx.json(updatedMessage);
+            jsonCodec.writeMessage(jsonOutputStream(ctx), updatedMessage);
         else
             ctx.status(400);
     }
@@ -167,11 +618,119 @@ public class SocialMediaController {
      * Handler to get all of a user's messages, identified by the account id.
      * If messageService returns a list of message objects, The API will return a 200 message (OK), even if 
      * the returned list of messages is empty.
+     * The optional "since" and "until" query parameters request only the messages posted in a time window,
+     * since <= time_posted_epoch < until. If either is not a valid number, or since is after until, the API will
+     * return a 400 message (client error).
+     * The response carries an ETag that changes with any of the account's messages; if the If-None-Match header
+     * holds the current tag, the API will return a 304 message (not modified) without reading the messages.
+     * Without a time window, the encoded response is cached until the tag changes, like GET /messages.
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws IOException will be thrown if there is an issue writing the response.
      */
-    public void getUserMessagesHandler(Context ctx) {
+    public void getUserMessagesHandler(Context ctx) throws IOException {
         int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        if (ctx.queryParam("since") != null || ctx.queryParam("until") != null) {
+            long[] window = timeWindow(ctx);
+            if (window == null) {
+                ctx.status(400);
+                return;
+            }
+            if (notModified(ctx, messageService.getVersions().accountTag(account_id)))
+                return;
+            jsonCodec.writeMessages(jsonOutputStream(ctx),
+                    messageService.getUserMessagesBetween(account_id, window[0], window[1]));
+            return;
+        }
+        String etag = messageService.getVersions().accountTag(account_id);
+        if (notModified(ctx, etag))
+            return;
+        if (responseCache != null) {
+            writeEncoded(ctx, responseCache.get("/accounts/" + account_id + "/messages", etag,
+                    out -> jsonCodec.writeMessages(out, messageService.getUserMessages(account_id))));
+            return;
+        }
         List<Message> userMessages = messageService.getUserMessages(account_id);
-        ctx.json(userMessages);
+        jsonCodec.writeMessages(jsonOutputStream(ctx), userMessages);
+    }
+
+    /**
+     * Sets the ETag of a response, which must be taken before the data it describes is read, and answers a
+     * conditional request whose If-None-Match header holds it with a 304 message (not modified) and no body.
+     * Cache-Control asks clients to check back with the tag on every request rather than reuse a response.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @param etag the current tag of the requested messages.
+     * @return true if the 304 response was sent, and the handler has nothing more to do.
+     */
+    private static boolean notModified(Context ctx, String etag) {
+        ctx.header("ETag", etag);
+        ctx.header("Cache-Control", "no-cache");
+        if (!MessageVersions.matches(ctx.header("If-None-Match"), etag))
+            return false;
+        ctx.status(304);
+        return true;
+    }
+
+    /**
+     * Parses the "since" and "until" query parameters of a time window. A missing "since" means the earliest
+     * time, and a missing "until" the latest.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @return the window's since and until, or <code>null</code> if either is not a valid number or since is
+     *         after until.
+     */
+    private static long[] timeWindow(Context ctx) {
+        String since = ctx.queryParam("since");
+        String until = ctx.queryParam("until");
+        try {
+            long[] window = {since == null ? Long.MIN_VALUE : Long.parseLong(since),
+                    until == null ? Long.MAX_VALUE : Long.parseLong(until)};
+            return window[0] <= window[1] ? window : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the session token sent as "Authorization: Bearer token", if any. Verifying it takes no database lookup.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @return the account id of a valid token, 0 if no token was sent, or -1 if the token is invalid or expired.
+     */
+    private int sessionAccountId(Context ctx) {
+        String authorization = ctx.header("Authorization");
+        if (authorization == null)
+            return 0;
+        if (!authorization.regionMatches(true, 0, "Bearer ", 0, 7))
+            return -1;
+        return sessionTokens.verify(authorization.substring(7).trim());
+    }
+
+    /**
+     * Sends a cached JSON body in the content coding the client prefers (see EncodedResponseCache.negotiate),
+     * with its length set up front. The bytes go straight to the servlet's stream rather than through Javalin's,
+     * which would compress them again on every request.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @param body the encoded body.
+     * @throws IOException will be thrown if there is an issue writing the response.
+     */
+    private void writeEncoded(Context ctx, EncodedResponseCache.EncodedBody body) throws IOException {
+        String coding = EncodedResponseCache.negotiate(ctx.header("Accept-Encoding"));
+        byte[] bytes = body.get(coding);
+        HttpServletResponse response = ctx.res();
+        response.setContentType("application/json");
+        response.setHeader("Vary", "Accept-Encoding");
+        if (coding != null)
+            response.setHeader("Content-Encoding", coding);
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    /**
+     * Marks the response as JSON and returns the response stream, so the JsonCodec can serialize straight into it
+     * rather than building the whole body as a String first.
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @return the response stream.
+     */
+    private OutputStream jsonOutputStream(Context ctx) {
+        ctx.contentType("application/json");
+        return ctx.outputStream();
     }
 }
\ No newline at end of file
@@ -2,34 +2,52 @@ package DAO;
 
 import Model.Account;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
 
 import java.sql.*;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The AccountDAO class is the JDBC implementation of AccountRepository, reading and writing the Account table through
+ * the connection pool.
+ */
+public class AccountDAO implements AccountRepository {
+    /**
+     * The time each method takes, including waiting for a connection, reported on GET /metrics.
+     */
+    private static final LatencyHistogram INSERT_ACCOUNT_TIMER = Metrics.daoTimer("AccountDAO", "insertAccount");
+    private static final LatencyHistogram GET_ACCOUNT_TIMER = Metrics.daoTimer("AccountDAO", "getAccount");
+    private static final LatencyHistogram UPDATE_PASSWORD_TIMER = Metrics.daoTimer("AccountDAO", "updatePassword");
+    private static final LatencyHistogram FOR_EACH_ACCOUNT_TIMER = Metrics.daoTimer("AccountDAO", "forEachAccount");
 
-public class AccountDAO {
-    
     /**
      * Inserts an account into the Account table.
      * The account_id is generated by the sql database because it is set to auto_increment.
      * @param account an object modelling an Account. The Account object does not contain a flight ID.
      * @return the newly inserted account. Return <code>null</code> if account insertion was unsuccessful.
      */
+    @Override
     public Account insertAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "INSERT INTO account (username, password) VALUES (?, ?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        long start = System.nanoTime();
+        String sql = "INSERT INTO account (username, password) VALUES (?, ?)";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             preparedStatement.setString(1, account.getUsername());
             preparedStatement.setString(2, account.getPassword());
 
             preparedStatement.executeUpdate();
-            ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
-            if(pkeyResultSet.next()){
-                int generated_account_id = (int) pkeyResultSet.getLong(1);
-                return new Account(generated_account_id, account.getUsername(), account.getPassword());
+            try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+                if(pkeyResultSet.next()){
+                    int generated_account_id = (int) pkeyResultSet.getLong(1);
+                    return new Account(generated_account_id, account.getUsername(), account.getPassword());
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            INSERT_ACCOUNT_TIMER.recordSince(start);
         }
         return null;
     }
@@ -39,52 +57,77 @@ public class AccountDAO {
      * @param username an account username.
      * @return the found account. Return <code>null</code> if account retrieval was unsuccessful.
      */
+    @Override
     public Account getAccount(String username) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM account WHERE username = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        long start = System.nanoTime();
+        String sql = "SELECT * FROM account WHERE username = ?";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setString(1, username);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                Account account = new Account(rs.getInt("account_id"),
-                                            rs.getString("username"),
-                                            rs.getString("password"));
-                return account;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    Account account = new Account(rs.getInt("account_id"),
+                                                rs.getString("username"),
+                                                rs.getString("password"));
+                    return account;
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            GET_ACCOUNT_TIMER.recordSince(start);
         }
         return null;
     }
 
     /**
-     * Retrieves an account from the Account table using its username and password.
-     * @param username an account username.
-     * @param password an account password.
-     * @return the found account. Return <code>null</code> if account retrieval was unsuccessful.
+     * Replaces the stored password of an account, used to swap a legacy plaintext password (or an outdated hash)
+     * for a new hash.
+     * @param account_id the account id.
+     * @param password the new stored password hash.
      */
-    public Account getAccount(String username, String password) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM account WHERE username = ? AND password = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    @Override
+    public void updatePassword(int account_id, String password) {
+        long start = System.nanoTime();
+        String sql = "UPDATE account SET password = ? WHERE account_id = ?";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
-            preparedStatement.setString(1, username);
-            preparedStatement.setString(2, password);
+            preparedStatement.setString(1, password);
+            preparedStatement.setInt(2, account_id);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                Account account = new Account(rs.getInt("account_id"),
-                                            rs.getString("username"),
-                                            rs.getString("password"));
-                return account;
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            UPDATE_PASSWORD_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads the username and account id of every account in the Account table, in account id order, without
+     * holding them all in memory at once. Used to warm the AccountIndex at startup.
+     * @param consumer called with the username and account id of each account.
+     */
+    @Override
+    public void forEachAccount(ObjIntConsumer<String> consumer) {
+        long start = System.nanoTime();
+        String sql = "SELECT account_id, username FROM account ORDER BY account_id";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setFetchSize(1000);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next())
+                    consumer.accept(rs.getString("username"), rs.getInt("account_id"));
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            FOR_EACH_ACCOUNT_TIMER.recordSince(start);
         }
-        return null;
     }
 }
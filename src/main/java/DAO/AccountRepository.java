@@ -0,0 +1,38 @@
+package DAO;
+
+import Model.Account;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The AccountRepository interface is what AccountService needs from an account store. AccountDAO implements it
+ * with SQL against the Account table.
+ *
+ * Methods that find nothing, or fail, return <code>null</code> as documented, rather than throwing.
+ */
+public interface AccountRepository {
+
+    /**
+     * @param account a new account, without an account id. Its password is stored as given.
+     * @return the inserted account, including its generated account id, or <code>null</code> if the insert failed,
+     *         eg because the username is taken.
+     */
+    Account insertAccount(Account account);
+
+    /**
+     * @param username a username.
+     * @return the account with the username, including its stored password, or <code>null</code> if there is none.
+     */
+    Account getAccount(String username);
+
+    /**
+     * @param account_id an account id.
+     * @param password the new stored password.
+     */
+    void updatePassword(int account_id, String password);
+
+    /**
+     * @param consumer called with the username and account id of every account, in account id order.
+     */
+    void forEachAccount(ObjIntConsumer<String> consumer);
+}
@@ -0,0 +1,468 @@
+package DAO;
+
+import Model.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The ColumnarMessageDAO class keeps every message in memory as primitive columns, and answers all reads from
+ * them, while writing every change through to another MessageRepository (normally the JDBC MessageDAO), which
+ * generates the message ids and makes the changes durable.
+ *
+ * A message takes one row across four arrays, int ids, int posted_by, long time_posted_epoch and an int offset
+ * into a byte arena holding its text as UTF-8 with a two byte length prefix: 22 bytes plus the text, against
+ * about 76 bytes plus the text (twice the text if it isn't Latin-1) for a Message object with its String and its
+ * slot in a list. The saving is largest for short messages. Rows are kept in message id order,
+ * so a lookup by id is a binary search, a page after an id is a slice, and a scan by time reads one primitive
+ * array from end to end. Each account also has a sorted array of its message ids, another 4 bytes a message, so
+ * reading a timeline costs a binary search per message of the account rather than a scan of every row. Message
+ * objects are only created for the rows returned.
+ *
+ * A deleted row is marked with an offset of -1, and an update appends the new text to the arena, so both leave
+ * garbage behind; once garbage makes up half of the arena the rows and the arena are compacted.
+ *
+ * The columns are loaded from the backing repository when the store is created and then only see changes made
+ * through this class: a row written to the database by other means is not visible until the store is reloaded.
+ * Reads share a read lock and changes take the write lock, after the backing repository has been written.
+ * Inserts, updates and deletes are also made one at a time, so the columns apply them in the order the backing
+ * repository did: two updates of one message can't leave the columns holding the earlier text, and a delete
+ * can't reach the columns before the insert of the row it deleted.
+ */
+public class ColumnarMessageDAO implements MessageRepository {
+    private static final int LOAD_PAGE_SIZE = 10_000;
+    private static final int DELETED = -1;
+    private static final Comparator<Message> TIME_ORDER = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id);
+
+    private final MessageRepository backing;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Held across a change to the backing repository and the matching change to the columns, so the columns see
+     * changes in the order the backing repository applied them. Not a monitor, since it is held during I/O.
+     */
+    private final ReentrantLock changeOrder = new ReentrantLock();
+
+    private int rowCount;
+    private int[] ids = new int[1024];
+    private int[] postedBy = new int[1024];
+    private long[] epochs = new long[1024];
+    private int[] textOffsets = new int[1024];
+    private byte[] arena = new byte[16 * 1024];
+    private int arenaLength;
+    private long garbage;
+    /**
+     * The ids of each account's live messages, in message id order.
+     */
+    private final Map<Integer, IdList> accountMessageIds = new HashMap<>();
+
+    /**
+     * Creates the store and loads every message of the backing repository into it, a page at a time.
+     * @param backing the repository that generates message ids and stores the messages durably.
+     */
+    public ColumnarMessageDAO(MessageRepository backing) {
+        this.backing = backing;
+        List<Message> page;
+        int after = 0;
+        do {
+            page = backing.getMessagesAfter(after, LOAD_PAGE_SIZE);
+            for (Message message : page)
+                append(message);
+            if (!page.isEmpty())
+                after = page.get(page.size() - 1).getMessage_id();
+        } while (page.size() == LOAD_PAGE_SIZE);
+        resize(Math.max(1024, rowCount + rowCount / 8), Math.max(16 * 1024, arenaLength + arenaLength / 8));
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        changeOrder.lock();
+        try {
+            Message inserted = backing.insertMessage(message);
+            if (inserted != null) {
+                lock.writeLock().lock();
+                try {
+                    append(inserted);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return inserted;
+        } finally {
+            changeOrder.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> insertMessages(List<Message> messages) {
+        changeOrder.lock();
+        try {
+            List<Message> inserted = backing.insertMessages(messages);
+            if (inserted != null) {
+                lock.writeLock().lock();
+                try {
+                    for (Message message : inserted)
+                        append(message);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return inserted;
+        } finally {
+            changeOrder.unlock();
+        }
+    }
+
+    /**
+     * Accounts aren't held in the columns, so this asks the backing repository.
+     */
+    @Override
+    public Set<Integer> getExistingAccountIds(Collection<Integer> account_ids) {
+        return backing.getExistingAccountIds(account_ids);
+    }
+
+    /**
+     * Accounts aren't held in the columns, so this asks the backing repository.
+     */
+    @Override
+    public int getPostedBy(int posted_by) {
+        return backing.getPostedBy(posted_by);
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return getMessagesAfter(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int message_id, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>(Math.min(limit, rowCount));
+            for (int row = firstRowAfter(message_id); row < rowCount && messages.size() < limit; row++)
+                if (textOffsets[row] != DELETED)
+                    messages.add(message(row));
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Message getMessageById(int message_id) {
+        lock.readLock().lock();
+        try {
+            int row = Arrays.binarySearch(ids, 0, rowCount, message_id);
+            return row >= 0 && textOffsets[row] != DELETED ? message(row) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>(message_ids.size());
+            for (int message_id : message_ids) {
+                int row = Arrays.binarySearch(ids, 0, rowCount, message_id);
+                if (row >= 0 && textOffsets[row] != DELETED)
+                    messages.add(message(row));
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Message deleteMessage(int message_id) {
+        changeOrder.lock();
+        try {
+            Message deleted = backing.deleteMessage(message_id);
+            if (deleted != null) {
+                lock.writeLock().lock();
+                try {
+                    int row = Arrays.binarySearch(ids, 0, rowCount, message_id);
+                    if (row >= 0 && textOffsets[row] != DELETED) {
+                        garbage += textBytes(textOffsets[row]);
+                        textOffsets[row] = DELETED;
+                        IdList accountIds = accountMessageIds.get(postedBy[row]);
+                        if (accountIds != null && accountIds.remove(message_id) && accountIds.size == 0)
+                            accountMessageIds.remove(postedBy[row]);
+                        compactIfNeeded();
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return deleted;
+        } finally {
+            changeOrder.unlock();
+        }
+    }
+
+    @Override
+    public Message updateMessage(int message_id, String message_text) {
+        changeOrder.lock();
+        try {
+            Message oldMessage = backing.updateMessage(message_id, message_text);
+            if (oldMessage != null) {
+                lock.writeLock().lock();
+                try {
+                    int row = Arrays.binarySearch(ids, 0, rowCount, message_id);
+                    if (row >= 0 && textOffsets[row] != DELETED) {
+                        garbage += textBytes(textOffsets[row]);
+                        textOffsets[row] = appendText(message_text);
+                        compactIfNeeded();
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return oldMessage;
+        } finally {
+            changeOrder.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByAccountId(int account_id) {
+        return getMessagesByAccountIdBetween(account_id, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesBetween(long since, long until) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            for (int row = 0; row < rowCount; row++)
+                if (epochs[row] >= since && epochs[row] < until && textOffsets[row] != DELETED)
+                    messages.add(message(row));
+            messages.sort(TIME_ORDER);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByAccountIdBetween(int account_id, long since, long until) {
+        lock.readLock().lock();
+        try {
+            IdList accountIds = accountMessageIds.get(account_id);
+            if (accountIds == null)
+                return new ArrayList<>();
+            List<Message> messages = new ArrayList<>(accountIds.size);
+            for (int i = 0; i < accountIds.size; i++) {
+                int row = Arrays.binarySearch(ids, 0, rowCount, accountIds.ids[i]);
+                if (row >= 0 && epochs[row] >= since && epochs[row] < until && textOffsets[row] != DELETED)
+                    messages.add(message(row));
+            }
+            messages.sort(TIME_ORDER);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] getTimeBounds() {
+        lock.readLock().lock();
+        try {
+            long earliest = Long.MAX_VALUE;
+            long latest = Long.MIN_VALUE;
+            boolean any = false;
+            for (int row = 0; row < rowCount; row++) {
+                if (textOffsets[row] == DELETED)
+                    continue;
+                earliest = Math.min(earliest, epochs[row]);
+                latest = Math.max(latest, epochs[row]);
+                any = true;
+            }
+            return any ? new long[] {earliest, latest} : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of rows held, including deleted rows not yet compacted away.
+     */
+    public int getRowCount() {
+        lock.readLock().lock();
+        try {
+            return rowCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated for the columns, the text arena and the accounts' id arrays.
+     */
+    public long getSizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long size = (long) ids.length * (Integer.BYTES * 3 + Long.BYTES) + arena.length;
+            for (IdList accountIds : accountMessageIds.values())
+                size += (long) accountIds.ids.length * Integer.BYTES;
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a row for a message. Messages normally arrive in message id order, but concurrent inserts can finish
+     * out of order, in which case the row is moved into place.
+     */
+    private void append(Message message) {
+        if (rowCount == ids.length)
+            resize(ids.length + ids.length / 2, arena.length);
+        int row = rowCount;
+        if (row > 0 && ids[row - 1] >= message.getMessage_id()) {
+            int index = Arrays.binarySearch(ids, 0, rowCount, message.getMessage_id());
+            if (index >= 0)
+                return;
+            row = -index - 1;
+            System.arraycopy(ids, row, ids, row + 1, rowCount - row);
+            System.arraycopy(postedBy, row, postedBy, row + 1, rowCount - row);
+            System.arraycopy(epochs, row, epochs, row + 1, rowCount - row);
+            System.arraycopy(textOffsets, row, textOffsets, row + 1, rowCount - row);
+        }
+        ids[row] = message.getMessage_id();
+        postedBy[row] = message.getPosted_by();
+        epochs[row] = message.getTime_posted_epoch();
+        textOffsets[row] = appendText(message.getMessage_text());
+        rowCount++;
+        accountMessageIds.computeIfAbsent(message.getPosted_by(), account_id -> new IdList())
+                .add(message.getMessage_id());
+    }
+
+    /**
+     * @return the offset of the text's length prefix in the arena.
+     */
+    private int appendText(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF)
+            throw new IllegalArgumentException("Message text of " + bytes.length + " bytes is too long");
+        int needed = arenaLength + 2 + bytes.length;
+        if (needed < 0)
+            throw new IllegalStateException("The columnar message store is full");
+        if (needed > arena.length)
+            resize(ids.length, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, arena.length + arena.length / 2L)));
+        int offset = arenaLength;
+        arena[offset] = (byte) (bytes.length >>> 8);
+        arena[offset + 1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, arena, offset + 2, bytes.length);
+        arenaLength = needed;
+        return offset;
+    }
+
+    /**
+     * Grows the columns and the arena by half when they fill up, and trims them to the data plus an eighth once
+     * the initial load is done, so the spare capacity stays a small fraction of the store.
+     */
+    private void resize(int rows, int arenaBytes) {
+        if (rows != ids.length) {
+            ids = Arrays.copyOf(ids, rows);
+            postedBy = Arrays.copyOf(postedBy, rows);
+            epochs = Arrays.copyOf(epochs, rows);
+            textOffsets = Arrays.copyOf(textOffsets, rows);
+        }
+        if (arenaBytes != arena.length)
+            arena = Arrays.copyOf(arena, arenaBytes);
+    }
+
+    private int textBytes(int offset) {
+        return 2 + ((arena[offset] & 0xFF) << 8 | (arena[offset + 1] & 0xFF));
+    }
+
+    private Message message(int row) {
+        int offset = textOffsets[row];
+        String text = new String(arena, offset + 2, textBytes(offset) - 2, StandardCharsets.UTF_8);
+        return new Message(ids[row], postedBy[row], text, epochs[row]);
+    }
+
+    private int firstRowAfter(int message_id) {
+        int index = Arrays.binarySearch(ids, 0, rowCount, message_id);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Drops deleted rows and copies the live texts into a new arena once garbage makes up half of the arena.
+     */
+    private void compactIfNeeded() {
+        if (garbage < 64 * 1024 || garbage * 2 < arenaLength)
+            return;
+        byte[] oldArena = arena;
+        arena = new byte[Math.max(16 * 1024, (int) (arenaLength - garbage) * 2)];
+        arenaLength = 0;
+        int live = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int offset = textOffsets[row];
+            if (offset == DELETED)
+                continue;
+            int length = 2 + ((oldArena[offset] & 0xFF) << 8 | (oldArena[offset + 1] & 0xFF));
+            System.arraycopy(oldArena, offset, arena, arenaLength, length);
+            ids[live] = ids[row];
+            postedBy[live] = postedBy[row];
+            epochs[live] = epochs[row];
+            textOffsets[live] = arenaLength;
+            arenaLength += length;
+            live++;
+        }
+        rowCount = live;
+        garbage = 0;
+    }
+
+    /**
+     * A growable, sorted array of message ids.
+     */
+    private static class IdList {
+        int[] ids = new int[4];
+        int size;
+
+        /**
+         * Adds an id. Ids normally arrive in ascending order, so this is usually an append.
+         */
+        void add(int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size + size / 2 + 1);
+            int index = size;
+            if (size > 0 && ids[size - 1] > id) {
+                index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0)
+                    return;
+                index = -index - 1;
+                System.arraycopy(ids, index, ids, index + 1, size - index);
+            }
+            ids[index] = id;
+            size++;
+        }
+
+        /**
+         * @return true if the id was in the list.
+         */
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0)
+                return false;
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+}
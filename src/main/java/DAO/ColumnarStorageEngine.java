@@ -0,0 +1,39 @@
+package DAO;
+
+import Util.Metrics;
+
+/**
+ * The "columnar" storage engine: accounts in H2 through AccountDAO, and messages in a ColumnarMessageDAO that
+ * answers reads from memory and writes through to H2 through MessageDAO.
+ */
+public class ColumnarStorageEngine implements StorageEngine {
+    private AccountDAO accountDAO;
+    private ColumnarMessageDAO messageDAO;
+
+    @Override
+    public String getName() {
+        return "columnar";
+    }
+
+    @Override
+    public void open() {
+        accountDAO = new AccountDAO();
+        messageDAO = new ColumnarMessageDAO(new MessageDAO());
+    }
+
+    @Override
+    public AccountRepository getAccountRepository() {
+        return accountDAO;
+    }
+
+    @Override
+    public MessageRepository getMessageRepository() {
+        return messageDAO;
+    }
+
+    @Override
+    public void registerMetrics() {
+        Metrics.gauge("socialmedia_columnar_store_rows", "", messageDAO::getRowCount);
+        Metrics.gauge("socialmedia_columnar_store_bytes", "", messageDAO::getSizeInBytes);
+    }
+}
@@ -0,0 +1,31 @@
+package DAO;
+
+/**
+ * The "jdbc" storage engine: AccountDAO and MessageDAO, reading and writing the H2 database through the
+ * connection pool on every call. This is the default engine.
+ */
+public class JdbcStorageEngine implements StorageEngine {
+    private AccountDAO accountDAO;
+    private MessageDAO messageDAO;
+
+    @Override
+    public String getName() {
+        return "jdbc";
+    }
+
+    @Override
+    public void open() {
+        accountDAO = new AccountDAO();
+        messageDAO = new MessageDAO();
+    }
+
+    @Override
+    public AccountRepository getAccountRepository() {
+        return accountDAO;
+    }
+
+    @Override
+    public MessageRepository getMessageRepository() {
+        return messageDAO;
+    }
+}
@@ -0,0 +1,814 @@
+package DAO;
+
+import Model.Message;
+import Util.GrowableBitSet;
+import Util.PostingList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * The LogMessageDAO class stores messages in a MessageLog instead of the Message table, and generates their
+ * message ids itself. An insert is an append to a memory-mapped file, with no SQL to parse and no B-tree pages to
+ * write, and only reaches the disk as often as the log's fsync policy says.
+ *
+ * The location of every message's latest record is kept in memory in an array indexed by message id, next to its
+ * posted_by and time_posted_epoch, and the ids of each account's messages in a PostingList, so reads go straight
+ * to the records they return. If the log is empty when the DAO is created, the messages in the database are copied
+ * into it first, keeping their ids.
+ *
+ * The index is saved to a snapshot file every snapshotIntervalMillis, after a compaction and on close, along with
+ * how far each segment had been written. At startup the snapshot is loaded and only the records appended after it
+ * are replayed, so a restart, even after a crash, reads the log's tail rather than all of it. Without a usable
+ * snapshot the whole log is replayed, reading and checking several segments at once, and the index of each
+ * account's messages is built afterwards by sorting the messages by account on several threads.
+ *
+ * Accounts still live in the database. An account that has been seen to exist is remembered, since accounts are
+ * never deleted, so inserts by an account only query the Account table the first time.
+ *
+ * Updates and deletes leave the records they replace behind as garbage. A background thread compacts sealed
+ * segments where garbage has reached compactGarbageRatio, by copying their live records to the active segment
+ * and deleting the segment file. Tombstones are copied too, until they reach the oldest segment, where nothing
+ * older is left for them to hide; the tombstone of the highest id is always kept, so ids are never reused.
+ *
+ * Reads share a read lock and changes take the write lock.
+ */
+public class LogMessageDAO implements MessageRepository {
+    private static final int IMPORT_PAGE_SIZE = 10_000;
+    private static final int SNAPSHOT_MAGIC = 0x4D4C4958;
+    private static final Comparator<Message> TIME_ORDER = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id);
+
+    private final MessageLog log;
+    private final MessageRepository database;
+    private final double compactGarbageRatio;
+    private final GrowableBitSet knownAccounts = new GrowableBitSet(1024);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService maintenance;
+
+    private long[] locations = new long[1024];
+    private int[] postedBy = new int[1024];
+    private long[] epochs = new long[1024];
+    private final Map<Integer, PostingList> byAccount = new HashMap<>();
+    private int nextId = 1;
+    private int messageCount;
+    private volatile long compactionCount;
+    /**
+     * False while the whole log is replayed at startup, when byAccount is left alone and built afterwards.
+     */
+    private boolean accountsIndexed;
+    private final File snapshot;
+    private boolean restoredFromSnapshot;
+
+    /**
+     * Builds the index, from the snapshot and the records appended since it was saved if there is a usable
+     * snapshot, and by replaying the whole log otherwise, then starts the background fsync, compaction and
+     * snapshots.
+     * @param log the log, not yet replayed.
+     * @param database the repository accounts are checked against, and messages are copied from if the log is
+     *                 empty.
+     * @param fsync the log's fsync policy.
+     * @param fsyncIntervalMillis how often to force the log to disk, if its policy is INTERVAL.
+     * @param compactIntervalMillis how often to look for segments to compact.
+     * @param compactGarbageRatio the fraction of a segment that must be garbage before it is compacted.
+     * @param snapshot the file the index is saved to and loaded from, or <code>null</code> to always replay the
+     *                 whole log.
+     * @param snapshotIntervalMillis how often to save the index.
+     * @param rebuildThreads the number of threads that replay the log and index the accounts at startup.
+     * @throws IOException if the log can't be replayed or the messages can't be copied into it.
+     */
+    public LogMessageDAO(MessageLog log, MessageRepository database, MessageLog.FsyncPolicy fsync,
+                         long fsyncIntervalMillis, long compactIntervalMillis, double compactGarbageRatio,
+                         File snapshot, long snapshotIntervalMillis, int rebuildThreads) throws IOException {
+        this.log = log;
+        this.database = database;
+        this.compactGarbageRatio = compactGarbageRatio;
+        this.snapshot = snapshot;
+        if (snapshot != null && loadSnapshot(snapshot, rebuildThreads))
+            restoredFromSnapshot = true;
+        log.replay(new MessageLog.Visitor() {
+            @Override
+            public void put(long location, int message_id, int posted_by, long time_posted_epoch) {
+                indexPut(location, message_id, posted_by, time_posted_epoch);
+            }
+
+            @Override
+            public void delete(long location, int message_id) {
+                indexDelete(message_id);
+            }
+        }, rebuildThreads);
+        if (log.isEmpty())
+            importFrom(database);
+        if (!accountsIndexed)
+            indexAccounts(rebuildThreads);
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-log-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fsync == MessageLog.FsyncPolicy.INTERVAL)
+            maintenance.scheduleWithFixedDelay(log::force, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                if (compact() > 0)
+                    saveSnapshot();
+            } catch (RuntimeException e) {
+                System.out.println("Message log compaction failed: " + e.getMessage());
+            }
+        }, compactIntervalMillis, compactIntervalMillis, TimeUnit.MILLISECONDS);
+        if (snapshot != null)
+            maintenance.scheduleWithFixedDelay(this::saveSnapshot, snapshotIntervalMillis, snapshotIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+    }
+
+    private void importFrom(MessageRepository database) throws IOException {
+        List<Message> page;
+        int after = 0;
+        do {
+            page = database.getMessagesAfter(after, IMPORT_PAGE_SIZE);
+            for (Message message : page) {
+                byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+                long location = log.appendPut(MessageLog.PUT, message.getMessage_id(), message.getPosted_by(),
+                        message.getTime_posted_epoch(), text);
+                indexPut(location, message.getMessage_id(), message.getPosted_by(), message.getTime_posted_epoch());
+                after = message.getMessage_id();
+            }
+        } while (page.size() == IMPORT_PAGE_SIZE);
+        log.force();
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        if (getPostedBy(message.getPosted_by()) < 0)
+            return null;
+        byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int message_id = nextId;
+            long location = log.appendPut(MessageLog.PUT, message_id, message.getPosted_by(),
+                    message.getTime_posted_epoch(), text);
+            indexPut(location, message_id, message.getPosted_by(), message.getTime_posted_epoch());
+            log.afterWrite();
+            return new Message(message_id, message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The batch is written to one segment, so a batch too large to fit in a segment is refused.
+     */
+    @Override
+    public List<Message> insertMessages(List<Message> messages) {
+        Set<Integer> account_ids = new HashSet<>();
+        for (Message message : messages)
+            account_ids.add(message.getPosted_by());
+        if (!getExistingAccountIds(account_ids).containsAll(account_ids))
+            return null;
+
+        byte[][] texts = new byte[messages.size()][];
+        long recordBytes = 0;
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = messages.get(i).getMessage_text().getBytes(StandardCharsets.UTF_8);
+            recordBytes += MessageLog.recordBytes(texts[i].length);
+        }
+        lock.writeLock().lock();
+        try {
+            if (!log.reserve(recordBytes)) {
+                System.out.println("A batch of " + messages.size() + " messages does not fit in a log segment");
+                return null;
+            }
+            List<Message> inserted = new ArrayList<>(messages.size());
+            long[] batchLocations = new long[texts.length];
+            for (int i = 0; i < texts.length; i++) {
+                Message message = messages.get(i);
+                batchLocations[i] = log.appendPut(i == texts.length - 1 ? MessageLog.PUT : MessageLog.BATCH_PUT,
+                        nextId + i, message.getPosted_by(), message.getTime_posted_epoch(), texts[i]);
+            }
+            for (int i = 0; i < texts.length; i++) {
+                Message message = messages.get(i);
+                int message_id = nextId;
+                indexPut(batchLocations[i], message_id, message.getPosted_by(), message.getTime_posted_epoch());
+                inserted.add(new Message(message_id, message.getPosted_by(), message.getMessage_text(),
+                        message.getTime_posted_epoch()));
+            }
+            log.afterWrite();
+            return inserted;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Accounts aren't held in the log, so the ones not seen before are looked up in the database.
+     */
+    @Override
+    public Set<Integer> getExistingAccountIds(Collection<Integer> account_ids) {
+        Set<Integer> existing = new HashSet<>();
+        List<Integer> unknown = new ArrayList<>();
+        for (int account_id : account_ids) {
+            if (knownAccounts.contains(account_id))
+                existing.add(account_id);
+            else if (account_id >= 0)
+                unknown.add(account_id);
+        }
+        if (!unknown.isEmpty()) {
+            for (int account_id : database.getExistingAccountIds(unknown)) {
+                knownAccounts.add(account_id);
+                existing.add(account_id);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Accounts aren't held in the log, so an account not seen before is looked up in the database.
+     */
+    @Override
+    public int getPostedBy(int posted_by) {
+        if (knownAccounts.contains(posted_by))
+            return posted_by;
+        int existing = posted_by >= 0 ? database.getPostedBy(posted_by) : -1;
+        if (existing >= 0)
+            knownAccounts.add(existing);
+        return existing;
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return getMessagesAfter(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int message_id, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>(Math.min(limit, messageCount));
+            for (int id = Math.max(1, message_id + 1); id < nextId && messages.size() < limit; id++)
+                if (locations[id] != 0)
+                    messages.add(log.read(locations[id]));
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Message getMessageById(int message_id) {
+        lock.readLock().lock();
+        try {
+            return exists(message_id) ? log.read(locations[message_id]) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>(message_ids.size());
+            for (int message_id : message_ids)
+                if (exists(message_id))
+                    messages.add(log.read(locations[message_id]));
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Message deleteMessage(int message_id) {
+        lock.writeLock().lock();
+        try {
+            if (exists(message_id)) {
+                Message deleted = log.read(locations[message_id]);
+                log.appendDelete(message_id);
+                indexDelete(message_id);
+                log.afterWrite();
+                return deleted;
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public Message updateMessage(int message_id, String message_text) {
+        byte[] text = message_text.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            if (exists(message_id)) {
+                Message oldMessage = log.read(locations[message_id]);
+                long location = log.appendPut(MessageLog.PUT, message_id, postedBy[message_id],
+                        epochs[message_id], text);
+                indexPut(location, message_id, postedBy[message_id], epochs[message_id]);
+                log.afterWrite();
+                return oldMessage;
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public List<Message> getMessagesByAccountId(int account_id) {
+        return getMessagesByAccountIdBetween(account_id, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesBetween(long since, long until) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            for (int id = 1; id < nextId; id++)
+                if (locations[id] != 0 && epochs[id] >= since && epochs[id] < until)
+                    messages.add(log.read(locations[id]));
+            messages.sort(TIME_ORDER);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByAccountIdBetween(int account_id, long since, long until) {
+        lock.readLock().lock();
+        try {
+            PostingList ids = byAccount.get(account_id);
+            if (ids == null)
+                return new ArrayList<>();
+            List<Message> messages = new ArrayList<>();
+            for (int id : ids.toArray())
+                if (epochs[id] >= since && epochs[id] < until)
+                    messages.add(log.read(locations[id]));
+            messages.sort(TIME_ORDER);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] getTimeBounds() {
+        lock.readLock().lock();
+        try {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int id = 1; id < nextId; id++) {
+                if (locations[id] != 0) {
+                    min = Math.min(min, epochs[id]);
+                    max = Math.max(max, epochs[id]);
+                }
+            }
+            return messageCount == 0 ? null : new long[] {min, max};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts every sealed segment where garbage has reached compactGarbageRatio. Called every
+     * compactIntervalMillis by the background thread. The write lock is taken once per record copied, so writers
+     * are never held up for a whole segment.
+     * @return the number of segments compacted.
+     */
+    public int compact() {
+        int compacted = 0;
+        for (int seq : log.getSealedSegments()) {
+            lock.readLock().lock();
+            try {
+                if (log.getGarbageRatio(seq) < compactGarbageRatio)
+                    continue;
+            } finally {
+                lock.readLock().unlock();
+            }
+            boolean oldest = seq == log.getFirstSegment();
+            try {
+                log.forEachRecord(seq, new MessageLog.Visitor() {
+                    @Override
+                    public void put(long location, int message_id, int posted_by, long time_posted_epoch) {
+                        lock.writeLock().lock();
+                        try {
+                            if (locations[message_id] == location)
+                                locations[message_id] = log.appendCopy(location);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+
+                    @Override
+                    public void delete(long location, int message_id) {
+                        lock.writeLock().lock();
+                        try {
+                            if (!oldest || message_id == nextId - 1)
+                                log.appendDelete(message_id);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+                });
+            } catch (IllegalStateException e) {
+                System.out.println("Stopped compacting segment " + seq + ": " + e.getCause().getMessage());
+                return compacted;
+            }
+            lock.writeLock().lock();
+            try {
+                log.force();
+                log.deleteSegment(seq);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            compacted++;
+            compactionCount++;
+        }
+        return compacted;
+    }
+
+    /**
+     * @return the number of messages stored.
+     */
+    public int getMessageCount() {
+        lock.readLock().lock();
+        try {
+            return messageCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of segments compacted since the DAO was created.
+     */
+    public long getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * @return true if the index was loaded from a snapshot at startup, false if the whole log was replayed.
+     */
+    public boolean isRestoredFromSnapshot() {
+        return restoredFromSnapshot;
+    }
+
+    /**
+     * @return the log the messages are stored in.
+     */
+    public MessageLog getLog() {
+        return log;
+    }
+
+    /**
+     * Stops the background fsync, compaction and snapshots, saves the index and forces the log to disk. The DAO must
+     * not be used afterwards.
+     */
+    public void close() {
+        maintenance.shutdownNow();
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveSnapshot();
+        lock.writeLock().lock();
+        try {
+            log.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the index to the snapshot file, along with the state of the log's segments, so the next startup only
+     * replays the records appended after it. The messages are saved one account after another, so the index of
+     * each account's messages can be loaded without sorting. The log is forced to disk and the index copied under the read lock;
+     * the copy is written to a temporary file outside the lock, which then replaces the snapshot.
+     */
+    public synchronized void saveSnapshot() {
+        if (snapshot == null)
+            return;
+        List<MessageLog.SegmentState> states;
+        int snapshotNextId;
+        int[] ids;
+        long[] snapshotLocations;
+        int[] snapshotPostedBy;
+        long[] snapshotEpochs;
+        lock.readLock().lock();
+        try {
+            log.force();
+            states = log.getSegmentStates();
+            snapshotNextId = nextId;
+            ids = new int[messageCount];
+            snapshotLocations = new long[messageCount];
+            snapshotPostedBy = new int[messageCount];
+            snapshotEpochs = new long[messageCount];
+            int count = 0;
+            for (PostingList accountIds : byAccount.values()) {
+                for (int id : accountIds.toArray()) {
+                    ids[count] = id;
+                    snapshotLocations[count] = locations[id];
+                    snapshotPostedBy[count] = postedBy[id];
+                    snapshotEpochs[count] = epochs[id];
+                    count++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        File temporary = new File(snapshot.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SnapshotWriter out = new SnapshotWriter(channel);
+            out.putInt(SNAPSHOT_MAGIC);
+            out.putInt(states.size());
+            for (MessageLog.SegmentState state : states) {
+                out.putInt(state.getSeq());
+                out.putInt(state.getWritePosition());
+                out.putLong(state.getLiveBytes());
+            }
+            out.putInt(snapshotNextId);
+            out.putInt(ids.length);
+            for (int id : ids)
+                out.putInt(id);
+            for (long location : snapshotLocations)
+                out.putLong(location);
+            for (int posted_by : snapshotPostedBy)
+                out.putInt(posted_by);
+            for (long epoch : snapshotEpochs)
+                out.putLong(epoch);
+            out.finish();
+            channel.force(true);
+        } catch (IOException e) {
+            System.out.println("Could not save the message log snapshot: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not replace the message log snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the index saved by saveSnapshot() and restores the log's segments to the state saved with it. The
+     * messages are spread into the index on rebuildThreads threads. They were saved grouped by account, with each
+     * account's ids in order, so every account's list is encoded straight from the snapshot.
+     * @return false, leaving the index empty, if there is no snapshot, it is damaged, or it no longer matches the
+     *         log, eg because a segment was compacted after it was saved.
+     */
+    private boolean loadSnapshot(File file, int rebuildThreads) {
+        if (!file.isFile())
+            return false;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < 12 || buffer.getInt(0) != SNAPSHOT_MAGIC)
+                return false;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().limit(buffer.capacity() - 4));
+            if ((int) crc.getValue() != buffer.getInt(buffer.capacity() - 4))
+                return false;
+
+            buffer.position(4);
+            List<MessageLog.SegmentState> states = new ArrayList<>();
+            for (int i = buffer.getInt(); i > 0; i--)
+                states.add(new MessageLog.SegmentState(buffer.getInt(), buffer.getInt(), buffer.getLong()));
+            int snapshotNextId = buffer.getInt();
+            int count = buffer.getInt();
+            int[] ids = new int[count];
+            long[] snapshotLocations = new long[count];
+            int[] snapshotPostedBy = new int[count];
+            long[] snapshotEpochs = new long[count];
+            buffer.asIntBuffer().get(ids);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            buffer.asLongBuffer().get(snapshotLocations);
+            buffer.position(buffer.position() + count * Long.BYTES);
+            buffer.asIntBuffer().get(snapshotPostedBy);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            buffer.asLongBuffer().get(snapshotEpochs);
+            if (!log.restore(states))
+                return false;
+
+            ensureCapacity(snapshotNextId + snapshotNextId / 8);
+            inParallel(rebuildThreads, (thread, threads) -> {
+                int from = (int) ((long) count * thread / threads);
+                int to = (int) ((long) count * (thread + 1) / threads);
+                for (int i = from; i < to; i++) {
+                    locations[ids[i]] = snapshotLocations[i];
+                    postedBy[ids[i]] = snapshotPostedBy[i];
+                    epochs[ids[i]] = snapshotEpochs[i];
+                }
+            });
+            for (int from = 0, to; from < count; from = to) {
+                to = from + 1;
+                while (to < count && snapshotPostedBy[to] == snapshotPostedBy[from])
+                    to++;
+                byAccount.put(snapshotPostedBy[from], PostingList.of(ids, from, to));
+            }
+            accountsIndexed = true;
+            nextId = snapshotNextId;
+            messageCount = count;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not load the message log snapshot, replaying the whole log: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Builds byAccount from the index, and from then on keeps it up to date with every change. The messages are
+     * sorted by account, then id, on rebuildThreads threads, so each account's list is encoded in one pass.
+     */
+    private void indexAccounts(int rebuildThreads) {
+        long[] keys = new long[messageCount];
+        int count = 0;
+        for (int id = 1; id < nextId; id++)
+            if (locations[id] != 0)
+                keys[count++] = (long) postedBy[id] << 32 | id;
+        if (rebuildThreads > 1)
+            Arrays.parallelSort(keys, 0, count);
+        else
+            Arrays.sort(keys, 0, count);
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++)
+            ids[i] = (int) keys[i];
+        for (int from = 0, to; from < count; from = to) {
+            int account_id = (int) (keys[from] >> 32);
+            to = from + 1;
+            while (to < count && (int) (keys[to] >> 32) == account_id)
+                to++;
+            byAccount.put(account_id, PostingList.of(ids, from, to));
+        }
+        accountsIndexed = true;
+    }
+
+    /**
+     * Runs a task on each of a number of threads, one of them the calling thread, and waits for them all.
+     * @param threads the number of threads.
+     * @param task called with the number of the thread it runs on, from 0, and the number of threads.
+     */
+    private static void inParallel(int threads, BiConsumer<Integer, Integer> task) {
+        int count = Math.max(1, threads);
+        List<Thread> started = new ArrayList<>();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        for (int i = 1; i < count; i++) {
+            int thread = i;
+            Thread worker = new Thread(() -> {
+                try {
+                    task.accept(thread, count);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "index-rebuild-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            started.add(worker);
+        }
+        task.accept(0, count);
+        for (Thread worker : started) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while rebuilding the message index", e);
+            }
+        }
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    private boolean exists(int message_id) {
+        return message_id > 0 && message_id < nextId && locations[message_id] != 0;
+    }
+
+    /**
+     * Points the index at a new put for a message, counting the record it replaces as garbage.
+     */
+    private void indexPut(long location, int message_id, int posted_by, long time_posted_epoch) {
+        ensureCapacity(message_id);
+        if (locations[message_id] != 0) {
+            log.release(locations[message_id]);
+        } else {
+            messageCount++;
+            if (accountsIndexed)
+                byAccount.computeIfAbsent(posted_by, account_id -> new PostingList()).add(message_id);
+        }
+        locations[message_id] = location;
+        postedBy[message_id] = posted_by;
+        epochs[message_id] = time_posted_epoch;
+        nextId = Math.max(nextId, message_id + 1);
+    }
+
+    /**
+     * Removes a message from the index, counting its last put as garbage.
+     */
+    private void indexDelete(int message_id) {
+        ensureCapacity(message_id);
+        nextId = Math.max(nextId, message_id + 1);
+        if (locations[message_id] == 0)
+            return;
+        log.release(locations[message_id]);
+        locations[message_id] = 0;
+        messageCount--;
+        if (!accountsIndexed)
+            return;
+        PostingList ids = byAccount.get(postedBy[message_id]);
+        ids.remove(message_id);
+        if (ids.isEmpty())
+            byAccount.remove(postedBy[message_id]);
+    }
+
+    private void ensureCapacity(int message_id) {
+        if (message_id < locations.length)
+            return;
+        int capacity = Math.max(message_id + 1, locations.length + locations.length / 2);
+        locations = Arrays.copyOf(locations, capacity);
+        postedBy = Arrays.copyOf(postedBy, capacity);
+        epochs = Arrays.copyOf(epochs, capacity);
+    }
+
+    /**
+     * Writes a snapshot through a buffer, keeping a CRC32 of everything written, which finish() appends.
+     */
+    private static class SnapshotWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final CRC32 crc = new CRC32();
+
+        SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES)
+                flush();
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < Long.BYTES)
+                flush();
+            buffer.putLong(value);
+        }
+
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+
+        private void flush() throws IOException {
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
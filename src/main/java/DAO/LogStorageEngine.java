@@ -0,0 +1,94 @@
+package DAO;
+
+import Util.AppConfig;
+import Util.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The "log" storage engine: accounts in H2 through AccountDAO, and messages in a LogMessageDAO, an append-only log
+ * of memory-mapped segment files in socialmedia.storage.log.dir.
+ *
+ * socialmedia.storage.log.fsync chooses when appends are forced to disk: "write" after every change, "interval"
+ * every socialmedia.storage.log.fsyncIntervalMillis (the default), or "none", leaving it to the operating system.
+ * Segments are socialmedia.storage.log.segmentBytes long, and one is compacted once the fraction of it that is
+ * garbage reaches socialmedia.storage.log.compactGarbageRatio.
+ *
+ * The message index is saved to index.snapshot in the same directory every
+ * socialmedia.storage.log.snapshotIntervalMillis and when the engine is closed, so a restart only replays the
+ * log's tail; socialmedia.storage.log.rebuildThreads threads rebuild it at startup. Accounts stay in H2, so a warm
+ * restart also needs socialmedia.db.resetOnStartup=false, or the accounts the log refers to are dropped.
+ */
+public class LogStorageEngine implements StorageEngine {
+    private static final String SNAPSHOT_FILE = "index.snapshot";
+
+    private AccountDAO accountDAO;
+    private LogMessageDAO messageDAO;
+
+    @Override
+    public String getName() {
+        return "log";
+    }
+
+    @Override
+    public void open() {
+        accountDAO = new AccountDAO();
+        MessageLog.FsyncPolicy fsync = MessageLog.FsyncPolicy.of(
+                AppConfig.getString("socialmedia.storage.log.fsync", "interval"));
+        try {
+            MessageLog log = new MessageLog(directory(),
+                    AppConfig.getInt("socialmedia.storage.log.segmentBytes", 64 * 1024 * 1024), fsync);
+            messageDAO = new LogMessageDAO(log, new MessageDAO(), fsync,
+                    AppConfig.getLong("socialmedia.storage.log.fsyncIntervalMillis", 200),
+                    AppConfig.getLong("socialmedia.storage.log.compactIntervalMillis", 10_000),
+                    AppConfig.getDouble("socialmedia.storage.log.compactGarbageRatio", 0.5),
+                    new File(directory(), SNAPSHOT_FILE),
+                    AppConfig.getLong("socialmedia.storage.log.snapshotIntervalMillis", 60_000),
+                    AppConfig.getInt("socialmedia.storage.log.rebuildThreads", Runtime.getRuntime().availableProcessors()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the message log in " + directory(), e);
+        }
+    }
+
+    @Override
+    public AccountRepository getAccountRepository() {
+        return accountDAO;
+    }
+
+    @Override
+    public MessageRepository getMessageRepository() {
+        return messageDAO;
+    }
+
+    @Override
+    public void registerMetrics() {
+        Metrics.gauge("socialmedia_message_log_messages", "", messageDAO::getMessageCount);
+        Metrics.gauge("socialmedia_message_log_segments", "", messageDAO.getLog()::getSegmentCount);
+        Metrics.gauge("socialmedia_message_log_bytes", "", messageDAO.getLog()::getSizeInBytes);
+        Metrics.counter("socialmedia_message_log_compactions_total", "", messageDAO::getCompactionCount);
+    }
+
+    @Override
+    public void close() {
+        messageDAO.close();
+    }
+
+    /**
+     * Deletes the segment files and the snapshot, so the log is copied from the database again when it is next
+     * opened.
+     */
+    @Override
+    public void reset() {
+        File[] files = directory().listFiles((dir, name) -> name.endsWith(".log") || name.startsWith(SNAPSHOT_FILE));
+        if (files != null)
+            for (File file : files)
+                if (!file.delete())
+                    System.out.println("Could not delete " + file);
+    }
+
+    private static File directory() {
+        return new File(AppConfig.getString("socialmedia.storage.log.dir", "h2/messagelog"));
+    }
+}
@@ -2,12 +2,43 @@ package DAO;
 
 import Model.Message;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-public class MessageDAO {
+/**
+ * The MessageDAO class is the JDBC implementation of MessageRepository, reading and writing the Message table
+ * through the connection pool.
+ */
+public class MessageDAO implements MessageRepository {
+    /**
+     * The time each method takes, including waiting for a connection, reported on GET /metrics.
+     */
+    private static final LatencyHistogram INSERT_MESSAGE_TIMER = Metrics.daoTimer("MessageDAO", "insertMessage");
+    private static final LatencyHistogram INSERT_MESSAGES_TIMER = Metrics.daoTimer("MessageDAO", "insertMessages");
+    private static final LatencyHistogram GET_EXISTING_ACCOUNT_IDS_TIMER =
+            Metrics.daoTimer("MessageDAO", "getExistingAccountIds");
+    private static final LatencyHistogram GET_POSTED_BY_TIMER = Metrics.daoTimer("MessageDAO", "getPostedBy");
+    private static final LatencyHistogram GET_ALL_MESSAGES_TIMER = Metrics.daoTimer("MessageDAO", "getAllMessages");
+    private static final LatencyHistogram GET_MESSAGES_AFTER_TIMER = Metrics.daoTimer("MessageDAO", "getMessagesAfter");
+    private static final LatencyHistogram GET_MESSAGE_BY_ID_TIMER = Metrics.daoTimer("MessageDAO", "getMessageById");
+    private static final LatencyHistogram DELETE_MESSAGE_TIMER = Metrics.daoTimer("MessageDAO", "deleteMessage");
+    private static final LatencyHistogram UPDATE_MESSAGE_TIMER = Metrics.daoTimer("MessageDAO", "updateMessage");
+    private static final LatencyHistogram GET_MESSAGES_BY_ACCOUNT_ID_TIMER =
+            Metrics.daoTimer("MessageDAO", "getMessagesByAccountId");
+    private static final LatencyHistogram GET_MESSAGES_BY_IDS_TIMER =
+            Metrics.daoTimer("MessageDAO", "getMessagesByIds");
+    private static final LatencyHistogram GET_MESSAGES_BETWEEN_TIMER =
+            Metrics.daoTimer("MessageDAO", "getMessagesBetween");
+    private static final LatencyHistogram GET_MESSAGES_BY_ACCOUNT_ID_BETWEEN_TIMER =
+            Metrics.daoTimer("MessageDAO", "getMessagesByAccountIdBetween");
+    private static final LatencyHistogram GET_TIME_BOUNDS_TIMER = Metrics.daoTimer("MessageDAO", "getTimeBounds");
 
     /**
      * Inserts a new message into the Message table.
@@ -15,64 +46,148 @@ public class MessageDAO {
      * @param message an object modelling a Message. The Message object does not contain a flight ID.
      * @return the newly inserted message. Return <code>null</code> if message insertion was unsuccessful.
      */
+    @Override
     public Message insertMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS); 
+        long start = System.nanoTime();
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             preparedStatement.setInt(1, message.getPosted_by());
             preparedStatement.setString(2, message.getMessage_text());
             preparedStatement.setLong(3, message.getTime_posted_epoch());
 
             preparedStatement.executeUpdate();
-            ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
-            if(pkeyResultSet.next()){
-                int generated_message_id = (int) pkeyResultSet.getLong(1);
-                return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+            try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+                if(pkeyResultSet.next()){
+                    int generated_message_id = (int) pkeyResultSet.getLong(1);
+                    return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            INSERT_MESSAGE_TIMER.recordSince(start);
         }
         return null;
     }
 
+    /**
+     * Inserts many messages into the Message table in a single transaction, sending them to the database as one
+     * JDBC batch. Either every message is inserted or none are.
+     * @param messages the messages to insert. The Message objects do not contain message IDs.
+     * @return the newly inserted messages, including their generated message ids, in the same order as the
+     *         messages passed in. Return <code>null</code> if the insertion was unsuccessful.
+     */
+    @Override
+    public List<Message> insertMessages(List<Message> messages) {
+        long start = System.nanoTime();
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (Message message : messages) {
+                    preparedStatement.setInt(1, message.getPosted_by());
+                    preparedStatement.setString(2, message.getMessage_text());
+                    preparedStatement.setLong(3, message.getTime_posted_epoch());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+
+                List<Message> inserted = new ArrayList<>(messages.size());
+                try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+                    for (Message message : messages) {
+                        if (!pkeyResultSet.next())
+                            throw new SQLException("Missing generated key for batch insert");
+                        int generated_message_id = (int) pkeyResultSet.getLong(1);
+                        inserted.add(new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch()));
+                    }
+                }
+                connection.commit();
+                return inserted;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            INSERT_MESSAGES_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the account ids, out of a collection of account ids, that exist in the Account table,
+     * using a single query.
+     * @param account_ids the account ids to check.
+     * @return the account ids that exist. The set is empty if none exist or the retrieval was unsuccessful.
+     */
+    @Override
+    public Set<Integer> getExistingAccountIds(Collection<Integer> account_ids) {
+        long start = System.nanoTime();
+        Set<Integer> existing = new HashSet<>();
+        String sql = "SELECT account_id FROM account WHERE account_id = ANY(?)";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", account_ids.toArray()));
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next())
+                    existing.add(rs.getInt("account_id"));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            GET_EXISTING_ACCOUNT_IDS_TIMER.recordSince(start);
+        }
+        return existing;
+    }
+
     /**
      * Retrieves an account id from the Account table using a message's posted_by account id.
      * @param posted_by an account_id.
      * @return the found account id. Return -1 if account id retrieval was unsuccessful.
      */
+    @Override
     public int getPostedBy(int posted_by) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT account_id FROM account WHERE account_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        long start = System.nanoTime();
+        String sql = "SELECT account_id FROM account WHERE account_id = ?";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setInt(1, posted_by);
-            
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                int existing_account_id = rs.getInt("account_id");
-                return existing_account_id;
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    int existing_account_id = rs.getInt("account_id");
+                    return existing_account_id;
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            GET_POSTED_BY_TIMER.recordSince(start);
         }
         return -1;
     }
-    
+
     /**
      * Retrieves all messages from the Message table
-     * @return a list of all messages in the database.
+     * @return a list of all messages in the database, in message id order.
      */
+    @Override
     public List<Message> getAllMessages() {
-        Connection connection = ConnectionUtil.getConnection();
+        long start = System.nanoTime();
         List<Message> messages = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM message";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        String sql = "SELECT * FROM message ORDER BY message_id";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
 
-            ResultSet rs = preparedStatement.executeQuery();
             while (rs.next()) {
                 Message message = new Message(rs.getInt("message_id"),
                                             rs.getInt("posted_by"),
@@ -82,103 +197,312 @@ public class MessageDAO {
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            GET_ALL_MESSAGES_TIMER.recordSince(start);
         }
 
         return messages;
     }
 
+    /**
+     * Retrieves one page of messages from the Message table, in message id order, starting after the given
+     * message id. This is keyset pagination: the next page is fetched by passing the id of the last message of
+     * this page, so every page is an index range scan on the primary key no matter how deep it is.
+     * @param message_id the message id to start after. Use 0 to start from the first message.
+     * @param limit the maximum number of messages to retrieve.
+     * @return a list of at most limit messages with ids greater than message_id.
+     */
+    @Override
+    public List<Message> getMessagesAfter(int message_id, int limit) {
+        long start = System.nanoTime();
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setInt(1, message_id);
+            preparedStatement.setInt(2, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGES_AFTER_TIMER.recordSince(start);
+        }
+        return messages;
+    }
+
     /**
      * Retrieves a message from the Message table using its message id.
      * @param message_id a message id.
      * @return the found message. Return <code>null</code> if message retrieval was unsuccessful.
      */
+    @Override
     public Message getMessageById(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM message WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        long start = System.nanoTime();
+        String sql = "SELECT * FROM message WHERE message_id = ?";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setInt(1, message_id);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                Message message = new Message(rs.getInt("message_id"),
-                                            rs.getInt("posted_by"),
-                                            rs.getString("message_text"),
-                                            rs.getLong("time_posted_epoch"));
-                return message;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    return message;
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGE_BY_ID_TIMER.recordSince(start);
         }
         return null;
     }
 
     /**
-     * Deletes a message from the Message table using its message id.
+     * Deletes a message from the Message table using its message id, reading the deleted row back from the same
+     * statement through H2's OLD TABLE data change delta table, so the read can't race with another change.
      * @param message_id a message id.
+     * @return the deleted message. Return <code>null</code> if no message had the id, or the delete failed.
      */
-    public void deleteMessage(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "DELETE FROM message WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    @Override
+    public Message deleteMessage(int message_id) {
+        long start = System.nanoTime();
+        String sql = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?)";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setInt(1, message_id);
 
-            preparedStatement.executeUpdate();
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    return message;
+                }
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            DELETE_MESSAGE_TIMER.recordSince(start);
         }
+        return null;
     }
 
     /**
-     * Updates a message's text from the Message table using its message id.
+     * Updates a message's text from the Message table using its message id, reading the row as it was before the
+     * update back from the same statement through H2's OLD TABLE data change delta table. The row is locked by
+     * the update, so concurrent updates of one message each see the text left by the one before.
      * @param message_id a message id.
-     * @param message_text the text string that should replace the text string contained 
+     * @param message_text the text string that should replace the text string contained
      *                     by the existing message.
+     * @return the message before the update. Return <code>null</code> if no message had the id, or the update
+     *         failed.
      */
-    public void updateMessage(int message_id, String message_text) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    @Override
+    public Message updateMessage(int message_id, String message_text) {
+        long start = System.nanoTime();
+        String sql = "SELECT * FROM OLD TABLE (UPDATE message SET message_text = ? WHERE message_id = ?)";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setString(1, message_text);
             preparedStatement.setInt(2, message_id);
 
-            preparedStatement.executeUpdate();
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    return message;
+                }
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            UPDATE_MESSAGE_TIMER.recordSince(start);
         }
+        return null;
     }
 
     /**
      * Retrieves all messages written by a specific account from the Message table
-     * using the posted_by account id.
+     * using the posted_by account id. The query is answered from the (posted_by, time_posted_epoch) index.
      * @param account_id an account id.
-     * @return a list of messages written by the given posted_by account id.
+     * @return a list of messages written by the given posted_by account id, ordered by time posted.
      */
+    @Override
     public List<Message> getMessagesByAccountId(int account_id) {
-        Connection connection = ConnectionUtil.getConnection();
+        long start = System.nanoTime();
         List<Message> messages = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM message WHERE posted_by = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        String sql = "SELECT * FROM message WHERE posted_by = ? ORDER BY time_posted_epoch, message_id";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setInt(1, account_id);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                Message message = new Message(rs.getInt("message_id"),
-                                            rs.getInt("posted_by"),
-                                            rs.getString("message_text"),
-                                            rs.getLong("time_posted_epoch"));
-                messages.add(message);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGES_BY_ACCOUNT_ID_TIMER.recordSince(start);
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the messages with the given message ids from the Message table, using a single query.
+     * @param message_ids the message ids to retrieve.
+     * @return the found messages, in no particular order. Ids with no message are left out.
+     */
+    @Override
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+        long start = System.nanoTime();
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM message WHERE message_id = ANY(?)";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", message_ids.toArray()));
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGES_BY_IDS_TIMER.recordSince(start);
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the messages posted in a time window from the Message table. The query is answered from the
+     * time_posted_epoch index, so only the rows in the window are read.
+     * @param since the start of the window, inclusive.
+     * @param until the end of the window, exclusive.
+     * @return the messages with since <= time_posted_epoch < until, ordered by time posted, then message id.
+     */
+    @Override
+    public List<Message> getMessagesBetween(long since, long until) {
+        long start = System.nanoTime();
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM message WHERE time_posted_epoch >= ? AND time_posted_epoch < ? " +
+                "ORDER BY time_posted_epoch, message_id";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setLong(1, since);
+            preparedStatement.setLong(2, until);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGES_BETWEEN_TIMER.recordSince(start);
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the messages written by an account in a time window from the Message table. The query is answered
+     * from the (posted_by, time_posted_epoch) index.
+     * @param account_id an account id.
+     * @param since the start of the window, inclusive.
+     * @param until the end of the window, exclusive.
+     * @return the account's messages with since <= time_posted_epoch < until, ordered by time posted.
+     */
+    @Override
+    public List<Message> getMessagesByAccountIdBetween(int account_id, long since, long until) {
+        long start = System.nanoTime();
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM message WHERE posted_by = ? AND time_posted_epoch >= ? AND time_posted_epoch < ? " +
+                "ORDER BY time_posted_epoch, message_id";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setLong(2, since);
+            preparedStatement.setLong(3, until);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"),
+                                                rs.getInt("posted_by"),
+                                                rs.getString("message_text"),
+                                                rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGES_BY_ACCOUNT_ID_BETWEEN_TIMER.recordSince(start);
         }
         return messages;
     }
+
+    /**
+     * Retrieves the earliest and latest time_posted_epoch in the Message table, read from the ends of the
+     * time_posted_epoch index.
+     * @return an array of the earliest and latest times, or <code>null</code> if there are no messages or the
+     *         retrieval was unsuccessful.
+     */
+    @Override
+    public long[] getTimeBounds() {
+        long start = System.nanoTime();
+        String sql = "SELECT MIN(time_posted_epoch), MAX(time_posted_epoch) FROM message";
+        try (Connection connection = ConnectionUtil.getDataSource().getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
+
+            if (rs.next()) {
+                long earliest = rs.getLong(1);
+                if (!rs.wasNull())
+                    return new long[] {earliest, rs.getLong(2)};
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            GET_TIME_BOUNDS_TIMER.recordSince(start);
+        }
+        return null;
+    }
 }
@@ -0,0 +1,594 @@
+package DAO;
+
+import Model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * The MessageLog class stores message records in an append-only log of fixed-size, memory-mapped segment files,
+ * named by their sequence number (0000000001.log, 0000000002.log, ...) in one directory. Records are only ever
+ * appended to the newest segment, the active one; when a record doesn't fit, a new segment is created.
+ *
+ * A record is an int length and an int CRC32 of the body that follows, then the body: a type byte and a message
+ * id, followed for a put by posted_by, time_posted_epoch and the UTF-8 text. A put stores the whole message, so an
+ * update is a new put for the same id, and a delete is a tombstone holding only the id. A length of 0 marks the
+ * end of a segment's records, since new segment files are zero-filled.
+ *
+ * The messages of a batch are written as batch puts followed by one put: on replay, batch puts only count once
+ * the put that ends their batch has been read, so a batch cut short by a crash is dropped as a whole. A batch
+ * never spans two segments; see reserve().
+ *
+ * The log keeps no index: replay() reports every record once at startup, with the location it can be read back
+ * from, and the caller keeps the locations it needs. A caller that saves its index can save the segments' state
+ * with it, and restore() that state before replay() to only be told about the records appended since. See
+ * LogMessageDAO.
+ *
+ * Appends, release() and deleteSegment() must be serialized by the caller. read() may run alongside them, and
+ * forEachRecord() alongside anything but deleting the segment it reads.
+ */
+public class MessageLog {
+    /**
+     * The record types: a whole message, a tombstone, and a message of a batch that isn't finished yet.
+     */
+    public static final byte PUT = 1;
+    public static final byte DELETE = 2;
+    public static final byte BATCH_PUT = 3;
+    private static final int HEADER_BYTES = 8;
+    private static final int PUT_BYTES = 1 + 4 + 4 + 8;
+    private static final int DELETE_BYTES = 1 + 4;
+
+    /**
+     * When appended records are forced to disk: after every write, every few hundred milliseconds from a
+     * background thread (see LogMessageDAO), or only when a segment fills up and when the log is closed.
+     */
+    public enum FsyncPolicy {
+        WRITE, INTERVAL, NONE;
+
+        /**
+         * @param name "write", "interval" or "none", in any case.
+         * @return the policy.
+         * @throws IllegalArgumentException if there is no policy with the name.
+         */
+        public static FsyncPolicy of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Receives the records of the log, each with the location it can be read from.
+     */
+    public interface Visitor {
+        void put(long location, int message_id, int posted_by, long time_posted_epoch);
+
+        void delete(long location, int message_id);
+    }
+
+    private final File directory;
+    private final int segmentBytes;
+    private final FsyncPolicy fsync;
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private volatile Segment active;
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[1024];
+
+    /**
+     * Maps the segment files already in the directory, creating the directory if it doesn't exist. replay() must
+     * be called before anything is appended.
+     * @param directory the directory holding the segment files.
+     * @param segmentBytes the size of new segment files.
+     * @param fsync when appended records are forced to disk.
+     * @throws IOException if the directory can't be created or a segment file can't be mapped.
+     */
+    public MessageLog(File directory, int segmentBytes, FsyncPolicy fsync) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create the message log directory " + directory);
+        File[] files = directory.listFiles((dir, name) -> name.matches("\\d{10}\\.log"));
+        for (File file : files) {
+            int seq = Integer.parseInt(file.getName().substring(0, 10));
+            segments.put(seq, map(seq, file, file.length()));
+        }
+    }
+
+    /**
+     * Reads every record of every segment, oldest first, and reports the committed ones to the visitor. Reading a
+     * segment stops at the first record that is cut short or fails its CRC, which can only be the last records
+     * written before a crash; those bytes, and a batch that was never finished, are cleared so that new records
+     * are appended in their place. Afterwards the newest segment is the active one.
+     *
+     * Segments whose state was restored by restore() are only read from where the restored state ends, so after a
+     * restore only the records appended since the state was saved are reported.
+     *
+     * Up to parallelism segments are read and checked at once, on as many threads, and their records are then
+     * reported in order on the calling thread.
+     * @param visitor receives the records.
+     * @param parallelism the number of segments to read at once.
+     * @throws IOException if the first segment can't be created.
+     */
+    public void replay(Visitor visitor, int parallelism) throws IOException {
+        List<Segment> all = new ArrayList<>(segments.values());
+        parallelism = Math.max(1, parallelism);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService readers = parallelism > 1 && all.size() > 1 ? Executors.newFixedThreadPool(parallelism,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "log-replay-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }) : null;
+        try {
+            for (int first = 0; first < all.size(); first += parallelism) {
+                List<Segment> group = all.subList(first, Math.min(all.size(), first + parallelism));
+                List<Scan> scans = new ArrayList<>(group.size());
+                if (readers == null) {
+                    for (Segment segment : group)
+                        scans.add(scan(segment));
+                } else {
+                    List<Future<Scan>> futures = new ArrayList<>(group.size());
+                    for (Segment segment : group)
+                        futures.add(readers.submit(() -> scan(segment)));
+                    for (Future<Scan> future : futures)
+                        scans.add(future.get());
+                }
+                for (Scan scan : scans)
+                    scan.report(visitor);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying the message log", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not replay the message log", e.getCause());
+        } finally {
+            if (readers != null)
+                readers.shutdownNow();
+        }
+        active = segments.isEmpty() ? create(1) : segments.lastEntry().getValue();
+    }
+
+    /**
+     * Reads and checks the records of one segment from where its known state ends, and clears any damaged tail.
+     */
+    private Scan scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        CRC32 crc = new CRC32();
+        Scan scan = new Scan();
+        int capacity = buffer.capacity();
+        int position = segment.writePosition;
+        int batchStart = -1;
+        int committed = 0;
+        long batchBytes = 0;
+        while (position + HEADER_BYTES <= capacity) {
+            int length = buffer.getInt(position);
+            if (length < DELETE_BYTES || length > capacity - position - HEADER_BYTES)
+                break;
+            crc.reset();
+            buffer.limit(position + HEADER_BYTES + length).position(position + HEADER_BYTES);
+            crc.update(buffer);
+            buffer.clear();
+            if ((int) crc.getValue() != buffer.getInt(position + 4))
+                break;
+
+            byte type = buffer.get(position + HEADER_BYTES);
+            boolean delete = type == DELETE;
+            scan.add(delete, location(segment.seq, position), buffer.getInt(position + HEADER_BYTES + 1),
+                    delete ? 0 : buffer.getInt(position + HEADER_BYTES + 5),
+                    delete ? 0 : buffer.getLong(position + HEADER_BYTES + 9));
+            if (type == BATCH_PUT) {
+                if (batchStart < 0)
+                    batchStart = position;
+                batchBytes += HEADER_BYTES + length;
+            } else {
+                committed = scan.count;
+                segment.liveBytes += batchBytes + HEADER_BYTES + length;
+                batchStart = -1;
+                batchBytes = 0;
+            }
+            position += HEADER_BYTES + length;
+        }
+        if (batchStart >= 0) {
+            System.out.println("Dropped an unfinished batch of " + (scan.count - committed) + " messages from segment "
+                    + segment.seq);
+            scan.count = committed;
+            position = batchStart;
+        }
+        if (position + 4 <= capacity && buffer.getInt(position) != 0) {
+            System.out.println("Cleared a damaged record at offset " + position + " of segment " + segment.seq);
+            for (int i = position; i < capacity; i++)
+                buffer.put(i, (byte) 0);
+            segment.buffer.force();
+        }
+        segment.writePosition = position;
+        return scan;
+    }
+
+    /**
+     * @return the write position and live bytes of every segment, to be saved along with an index built from the
+     *         log, and passed to restore() when the index is loaded again. The log should be forced first.
+     */
+    public List<SegmentState> getSegmentStates() {
+        List<SegmentState> states = new ArrayList<>();
+        for (Segment segment : segments.values())
+            states.add(new SegmentState(segment.seq, segment.writePosition, segment.liveBytes));
+        return states;
+    }
+
+    /**
+     * Restores the state of the segments as it was saved, so that replay() only reads the records appended since.
+     * Must be called before replay().
+     * @param states the saved states.
+     * @return false, changing nothing, if the states don't match the segment files, eg because a segment was
+     *         compacted after they were saved. The whole log must then be replayed.
+     */
+    public boolean restore(List<SegmentState> states) {
+        int last = 0;
+        for (SegmentState state : states) {
+            Segment segment = segments.get(state.seq);
+            if (segment == null || state.writePosition > segment.buffer.capacity())
+                return false;
+            last = Math.max(last, state.seq);
+        }
+        if (segments.headMap(last, true).size() != states.size())
+            return false;
+        for (SegmentState state : states) {
+            Segment segment = segments.get(state.seq);
+            segment.writePosition = state.writePosition;
+            segment.liveBytes = state.liveBytes;
+        }
+        return true;
+    }
+
+    /**
+     * Appends a put.
+     * @param type PUT, or BATCH_PUT for every message of a batch but the last.
+     * @return the location of the record.
+     * @throws IOException if a new segment was needed and couldn't be created.
+     */
+    public long appendPut(byte type, int message_id, int posted_by, long time_posted_epoch, byte[] text)
+            throws IOException {
+        int length = PUT_BYTES + text.length;
+        ByteBuffer body = scratch(length);
+        body.put(type).putInt(message_id).putInt(posted_by).putLong(time_posted_epoch).put(text);
+        return write(length);
+    }
+
+    /**
+     * Appends a tombstone for a message.
+     * @return the location of the record.
+     * @throws IOException if a new segment was needed and couldn't be created.
+     */
+    public long appendDelete(int message_id) throws IOException {
+        scratch(DELETE_BYTES).put(DELETE).putInt(message_id);
+        return write(DELETE_BYTES);
+    }
+
+    /**
+     * Appends a copy of the put at a location, as a put of its own, for compaction.
+     * @return the location of the copy.
+     * @throws IOException if a new segment was needed and couldn't be created.
+     */
+    public long appendCopy(long location) throws IOException {
+        ByteBuffer record = record(location);
+        int length = record.remaining();
+        scratch(length).put(record);
+        scratch[0] = PUT;
+        return write(length);
+    }
+
+    /**
+     * Makes sure the active segment has room for records taking up a number of bytes, starting a new segment if
+     * it doesn't, so that a batch is written to one segment.
+     * @param recordBytes the total size of the records; see recordBytes().
+     * @return false if the records wouldn't fit even in an empty segment.
+     * @throws IOException if a new segment was needed and couldn't be created.
+     */
+    public boolean reserve(long recordBytes) throws IOException {
+        if (recordBytes > segmentBytes)
+            return false;
+        if (active.writePosition + recordBytes > active.buffer.capacity())
+            roll();
+        return true;
+    }
+
+    /**
+     * @param textBytes the length of a message's UTF-8 text.
+     * @return the space a put of the message takes in a segment.
+     */
+    public static int recordBytes(int textBytes) {
+        return HEADER_BYTES + PUT_BYTES + textBytes;
+    }
+
+    /**
+     * @param location the location of a put.
+     * @return the message the put holds.
+     */
+    public Message read(long location) {
+        ByteBuffer record = record(location);
+        record.get();
+        int message_id = record.getInt();
+        int posted_by = record.getInt();
+        long time_posted_epoch = record.getLong();
+        byte[] text = new byte[record.remaining()];
+        record.get(text);
+        return new Message(message_id, posted_by, new String(text, StandardCharsets.UTF_8), time_posted_epoch);
+    }
+
+    /**
+     * Counts the record at a location as garbage, because a newer record replaces it.
+     */
+    public void release(long location) {
+        Segment segment = segments.get(segment(location));
+        segment.liveBytes -= HEADER_BYTES + segment.buffer.getInt(offset(location));
+    }
+
+    /**
+     * Forces the records appended so far to disk if the policy is to do so after every write.
+     */
+    public void afterWrite() {
+        if (fsync == FsyncPolicy.WRITE)
+            active.buffer.force();
+    }
+
+    /**
+     * Forces the records appended to the active segment to disk.
+     */
+    public void force() {
+        active.buffer.force();
+    }
+
+    /**
+     * @return the sequence numbers of the segments that are no longer appended to, oldest first.
+     */
+    public List<Integer> getSealedSegments() {
+        List<Integer> sealed = new ArrayList<>(segments.keySet());
+        sealed.remove(Integer.valueOf(active.seq));
+        return sealed;
+    }
+
+    /**
+     * @return the sequence number of the oldest segment.
+     */
+    public int getFirstSegment() {
+        return segments.firstKey();
+    }
+
+    /**
+     * @param seq a segment's sequence number.
+     * @return the fraction of the segment's records that newer records have replaced.
+     */
+    public double getGarbageRatio(int seq) {
+        Segment segment = segments.get(seq);
+        return segment.writePosition == 0 ? 0 : 1 - (double) segment.liveBytes / segment.writePosition;
+    }
+
+    /**
+     * Reports every record of a sealed segment to the visitor, whether or not a newer record replaces it.
+     */
+    public void forEachRecord(int seq, Visitor visitor) {
+        Segment segment = segments.get(seq);
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position < segment.writePosition) {
+            int length = buffer.getInt(position);
+            long location = location(seq, position);
+            int message_id = buffer.getInt(position + HEADER_BYTES + 1);
+            if (buffer.get(position + HEADER_BYTES) == DELETE)
+                visitor.delete(location, message_id);
+            else
+                visitor.put(location, message_id, buffer.getInt(position + HEADER_BYTES + 5),
+                        buffer.getLong(position + HEADER_BYTES + 9));
+            position += HEADER_BYTES + length;
+        }
+    }
+
+    /**
+     * Deletes a sealed segment whose records have all been replaced or copied to the active segment.
+     */
+    public void deleteSegment(int seq) {
+        Segment segment = segments.remove(seq);
+        if (!segment.file.delete())
+            System.out.println("Could not delete the message log segment " + segment.file);
+    }
+
+    /**
+     * @return true if no record has been appended to any segment.
+     */
+    public boolean isEmpty() {
+        for (Segment segment : segments.values())
+            if (segment.writePosition > 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the number of segment files.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the disk space taken by the segment files.
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values())
+            bytes += segment.buffer.capacity();
+        return bytes;
+    }
+
+    /**
+     * Forces every segment to disk. Nothing may be appended afterwards.
+     */
+    public void close() {
+        for (Segment segment : segments.values())
+            segment.buffer.force();
+    }
+
+    /**
+     * Writes the body in scratch as a record of the active segment, starting a new segment if it doesn't fit. The
+     * length is written last, so a record whose length is visible is complete in memory.
+     */
+    private long write(int length) throws IOException {
+        if (active.writePosition + HEADER_BYTES + length > active.buffer.capacity())
+            roll();
+        Segment segment = active;
+        int offset = segment.writePosition;
+        crc.reset();
+        crc.update(scratch, 0, length);
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset + HEADER_BYTES);
+        buffer.put(scratch, 0, length);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        buffer.putInt(offset, length);
+        segment.writePosition = offset + HEADER_BYTES + length;
+        segment.liveBytes += HEADER_BYTES + length;
+        return location(segment.seq, offset);
+    }
+
+    /**
+     * @return a buffer over the body of the record at a location.
+     */
+    private ByteBuffer record(long location) {
+        ByteBuffer buffer = segments.get(segment(location)).buffer.duplicate();
+        int offset = offset(location);
+        buffer.position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + buffer.getInt(offset));
+        return buffer;
+    }
+
+    private ByteBuffer scratch(int length) {
+        if (scratch.length < length)
+            scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+        return ByteBuffer.wrap(scratch);
+    }
+
+    private void roll() throws IOException {
+        if (fsync != FsyncPolicy.NONE)
+            active.buffer.force();
+        active = create(active.seq + 1);
+    }
+
+    private Segment create(int seq) throws IOException {
+        Segment segment = map(seq, new File(directory, String.format("%010d.log", seq)), segmentBytes);
+        segments.put(seq, segment);
+        return segment;
+    }
+
+    private static Segment map(int seq, File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            return new Segment(seq, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private static long location(int seq, int offset) {
+        return (long) seq << 32 | offset;
+    }
+
+    private static int segment(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    /**
+     * The saved state of a segment: how far it has been written, and how many of those bytes are live records.
+     */
+    public static class SegmentState {
+        final int seq;
+        final int writePosition;
+        final long liveBytes;
+
+        public SegmentState(int seq, int writePosition, long liveBytes) {
+            this.seq = seq;
+            this.writePosition = writePosition;
+            this.liveBytes = liveBytes;
+        }
+
+        public int getSeq() {
+            return seq;
+        }
+
+        public int getWritePosition() {
+            return writePosition;
+        }
+
+        public long getLiveBytes() {
+            return liveBytes;
+        }
+    }
+
+    /**
+     * The committed records read from one segment by replay(), held in columns until they are reported.
+     */
+    private static class Scan {
+        int count;
+        boolean[] deletes = new boolean[256];
+        long[] locations = new long[256];
+        int[] ids = new int[256];
+        int[] postedBy = new int[256];
+        long[] epochs = new long[256];
+
+        void add(boolean delete, long location, int message_id, int posted_by, long time_posted_epoch) {
+            if (count == ids.length) {
+                int capacity = count * 2;
+                deletes = Arrays.copyOf(deletes, capacity);
+                locations = Arrays.copyOf(locations, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                postedBy = Arrays.copyOf(postedBy, capacity);
+                epochs = Arrays.copyOf(epochs, capacity);
+            }
+            deletes[count] = delete;
+            locations[count] = location;
+            ids[count] = message_id;
+            postedBy[count] = posted_by;
+            epochs[count] = time_posted_epoch;
+            count++;
+        }
+
+        void report(Visitor visitor) {
+            for (int i = 0; i < count; i++) {
+                if (deletes[i])
+                    visitor.delete(locations[i], ids[i]);
+                else
+                    visitor.put(locations[i], ids[i], postedBy[i], epochs[i]);
+            }
+        }
+    }
+
+    /**
+     * One segment file, mapped into memory. The mapping outlives the file's channel, which is closed once mapped.
+     */
+    private static class Segment {
+        final int seq;
+        final File file;
+        final MappedByteBuffer buffer;
+        volatile int writePosition;
+        long liveBytes;
+
+        Segment(int seq, File file, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
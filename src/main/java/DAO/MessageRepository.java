@@ -0,0 +1,112 @@
+package DAO;
+
+import Model.Message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The MessageRepository interface is what MessageService needs from a message store. MessageDAO implements it
+ * with SQL against the Message table; ColumnarMessageDAO keeps the messages in memory in primitive columns and
+ * writes through to a MessageDAO.
+ *
+ * Methods that find nothing, or fail, return <code>null</code>, -1 or an empty collection as documented, rather
+ * than throwing.
+ */
+public interface MessageRepository {
+
+    /**
+     * @param message a new message, without a message id.
+     * @return the inserted message, including its generated message id, or <code>null</code> if the insert failed.
+     */
+    Message insertMessage(Message message);
+
+    /**
+     * Inserts every message or none of them.
+     * @param messages new messages, without message ids.
+     * @return the inserted messages, including their generated message ids, in the order given, or
+     *         <code>null</code> if the insert failed.
+     */
+    List<Message> insertMessages(List<Message> messages);
+
+    /**
+     * @param account_ids account ids.
+     * @return the account ids, out of those given, that belong to an existing account.
+     */
+    Set<Integer> getExistingAccountIds(Collection<Integer> account_ids);
+
+    /**
+     * @param posted_by an account id.
+     * @return the account id if the account exists, or -1 if it doesn't.
+     */
+    int getPostedBy(int posted_by);
+
+    /**
+     * @return every message, in message id order.
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * @param message_id the message id to start after, or 0 to start from the first message.
+     * @param limit the largest number of messages to return.
+     * @return at most limit messages with ids greater than message_id, in message id order.
+     */
+    List<Message> getMessagesAfter(int message_id, int limit);
+
+    /**
+     * @param message_id a message id.
+     * @return the message, or <code>null</code> if there is none with the id.
+     */
+    Message getMessageById(int message_id);
+
+    /**
+     * @param message_ids message ids.
+     * @return the messages with the given ids, in no particular order. Ids with no message are left out.
+     */
+    List<Message> getMessagesByIds(Collection<Integer> message_ids);
+
+    /**
+     * Deletes a message and returns it, as one atomic operation: when several callers delete the same message at
+     * once, exactly one of them gets it back.
+     * @param message_id the id of the message to delete. Deleting a missing message does nothing.
+     * @return the deleted message, or <code>null</code> if there was no message with the id.
+     */
+    Message deleteMessage(int message_id);
+
+    /**
+     * Replaces a message's text and returns the message as it was just before, as one atomic operation: when
+     * several callers update the same message at once, each gets back the text written by the update ordered
+     * just before its own, so no update is lost. The updated message is the returned one with the new text.
+     * @param message_id the id of the message to update. Updating a missing message does nothing.
+     * @param message_text the new text of the message.
+     * @return the message before the update, or <code>null</code> if there was no message with the id.
+     */
+    Message updateMessage(int message_id, String message_text);
+
+    /**
+     * @param account_id an account id.
+     * @return the account's messages, ordered by time posted, then message id.
+     */
+    List<Message> getMessagesByAccountId(int account_id);
+
+    /**
+     * @param since the start of a time window, inclusive.
+     * @param until the end of the time window, exclusive.
+     * @return the messages with since <= time_posted_epoch < until, ordered by time posted, then message id.
+     */
+    List<Message> getMessagesBetween(long since, long until);
+
+    /**
+     * @param account_id an account id.
+     * @param since the start of a time window, inclusive.
+     * @param until the end of the time window, exclusive.
+     * @return the account's messages in the window, ordered by time posted, then message id.
+     */
+    List<Message> getMessagesByAccountIdBetween(int account_id, long since, long until);
+
+    /**
+     * @return the earliest and latest time_posted_epoch of any message, or <code>null</code> if there are none.
+     */
+    long[] getTimeBounds();
+}
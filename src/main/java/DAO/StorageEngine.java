@@ -0,0 +1,56 @@
+package DAO;
+
+/**
+ * The StorageEngine interface is the service provider interface for the application's storage: an engine supplies
+ * the AccountRepository and MessageRepository the services run against.
+ *
+ * Engines are found with java.util.ServiceLoader, so an engine is added by implementing this interface with a
+ * public no-args constructor and listing the class in META-INF/services/DAO.StorageEngine. The engine used is
+ * chosen by name with socialmedia.storage.engine; see StorageEngines.
+ *
+ * The constructor should do no work: every engine on the class path is instantiated to read its name. Storage is
+ * opened by open(), before the repositories are asked for, and released by close().
+ *
+ * Every engine must pass StorageEngineConformanceTest, which runs against every engine the ServiceLoader finds.
+ */
+public interface StorageEngine {
+
+    /**
+     * @return the name the engine is selected by, eg "jdbc".
+     */
+    String getName();
+
+    /**
+     * Opens the engine's storage, loading whatever it keeps in memory.
+     */
+    void open();
+
+    /**
+     * @return the engine's account repository. Only valid after open().
+     */
+    AccountRepository getAccountRepository();
+
+    /**
+     * @return the engine's message repository. Only valid after open().
+     */
+    MessageRepository getMessageRepository();
+
+    /**
+     * Registers the engine's own gauges and counters with Util.Metrics, if it has any.
+     */
+    default void registerMetrics() {
+    }
+
+    /**
+     * Flushes and releases the engine's storage. The repositories must not be used afterwards.
+     */
+    default void close() {
+    }
+
+    /**
+     * Deletes whatever the engine stores outside the H2 database, so that it starts from the database's contents
+     * the next time it is opened. Tests call this on an unopened engine after ConnectionUtil.resetTestDatabase().
+     */
+    default void reset() {
+    }
+}
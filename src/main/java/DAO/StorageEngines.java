@@ -0,0 +1,47 @@
+package DAO;
+
+import Util.AppConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * The StorageEngines class finds StorageEngine implementations with java.util.ServiceLoader.
+ */
+public class StorageEngines {
+
+    /**
+     * @return a new, unopened instance of every engine on the class path.
+     */
+    public static List<StorageEngine> all() {
+        List<StorageEngine> engines = new ArrayList<>();
+        for (StorageEngine engine : ServiceLoader.load(StorageEngine.class))
+            engines.add(engine);
+        return engines;
+    }
+
+    /**
+     * @param name the name of an engine.
+     * @return a new, unopened instance of the engine.
+     * @throws IllegalArgumentException if there is no engine with the name.
+     */
+    public static StorageEngine get(String name) {
+        List<String> names = new ArrayList<>();
+        for (StorageEngine engine : all()) {
+            if (engine.getName().equals(name))
+                return engine;
+            names.add(engine.getName());
+        }
+        throw new IllegalArgumentException("No storage engine named " + name + ", available engines: " + names);
+    }
+
+    /**
+     * @return the engine named by socialmedia.storage.engine ("jdbc" by default), opened.
+     */
+    public static StorageEngine fromConfig() {
+        StorageEngine engine = get(AppConfig.getString("socialmedia.storage.engine", "jdbc"));
+        engine.open();
+        return engine;
+    }
+}
@@ -0,0 +1,154 @@
+package Service;
+
+import DAO.AccountRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import Util.BloomFilter;
+import Util.GrowableBitSet;
+
+/**
+ * The AccountIndex class answers "might this account exist?" from memory, so that requests naming an account that
+ * doesn't exist can be turned away without a query.
+ *
+ * Account ids are auto-incremented and dense, so they are kept exactly, one bit each, in a GrowableBitSet.
+ * Usernames are kept in a BloomFilter, which may answer "maybe" for a username that isn't taken. Either way a
+ * "no" is definite and the caller can return straight away, while a "maybe" still falls through to the DAO, which
+ * has the final say. A "maybe" that the DAO then contradicts is counted as a false positive, so the filter's real
+ * false positive rate can be watched on GET /metrics alongside the rate expected from its size.
+ *
+ * The index is warmed from the account table when it is created, and AccountService adds every account it
+ * inserts. Accounts are never deleted, so the index only goes stale if accounts are inserted into the database
+ * without going through AccountService; they would be reported as missing until the index is rebuilt.
+ */
+public class AccountIndex {
+    private final GrowableBitSet accountIds;
+    private final BloomFilter usernames;
+    private final LongAdder accountIdNegatives = new LongAdder();
+    private final LongAdder usernameNegatives = new LongAdder();
+    private final LongAdder usernamePositives = new LongAdder();
+    private final LongAdder usernameFalsePositives = new LongAdder();
+
+    /**
+     * @param expectedAccounts the number of accounts the username filter is sized for.
+     * @param falsePositiveRate the false positive rate wanted from the username filter at that number of accounts.
+     */
+    public AccountIndex(long expectedAccounts, double falsePositiveRate) {
+        this.accountIds = new GrowableBitSet((int) Math.min(Integer.MAX_VALUE, expectedAccounts + 1));
+        this.usernames = new BloomFilter(expectedAccounts, falsePositiveRate);
+    }
+
+    /**
+     * Builds an index of every account in the account table. The username filter is sized for at least twice the
+     * accounts there are now, so it can absorb new registrations before its false positive rate climbs.
+     * @param accountDAO the repository to read the accounts from.
+     * @param expectedAccounts the smallest number of accounts to size the username filter for.
+     * @param falsePositiveRate the false positive rate wanted from the username filter.
+     * @return the warmed index.
+     */
+    public static AccountIndex warm(AccountRepository accountDAO, long expectedAccounts, double falsePositiveRate) {
+        List<String> usernames = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        accountDAO.forEachAccount((username, account_id) -> {
+            usernames.add(username);
+            ids.add(account_id);
+        });
+        AccountIndex index = new AccountIndex(Math.max(expectedAccounts, 2L * usernames.size()), falsePositiveRate);
+        for (int i = 0; i < ids.size(); i++)
+            index.accountAdded(ids.get(i), usernames.get(i));
+        return index;
+    }
+
+    /**
+     * @param account_id the id of a newly inserted account.
+     * @param username the username of the account.
+     */
+    public void accountAdded(int account_id, String username) {
+        accountIds.add(account_id);
+        usernames.add(username);
+    }
+
+    /**
+     * @param account_id an account id.
+     * @return false if there is definitely no account with the id, true if the DAO should be asked.
+     */
+    public boolean mightHaveAccountId(int account_id) {
+        if (accountIds.contains(account_id))
+            return true;
+        accountIdNegatives.increment();
+        return false;
+    }
+
+    /**
+     * @param username a username.
+     * @return false if there is definitely no account with the username, true if the DAO should be asked.
+     */
+    public boolean mightHaveUsername(String username) {
+        if (username != null && usernames.mightContain(username)) {
+            usernamePositives.increment();
+            return true;
+        }
+        usernameNegatives.increment();
+        return false;
+    }
+
+    /**
+     * Records that the DAO found no account for a username that mightHaveUsername() answered true for.
+     */
+    public void usernameFalsePositive() {
+        usernameFalsePositives.increment();
+    }
+
+    /**
+     * @return the number of lookups answered "no" by the account id bitset.
+     */
+    public long getAccountIdNegativeCount() {
+        return accountIdNegatives.sum();
+    }
+
+    /**
+     * @return the number of lookups answered "no" by the username filter.
+     */
+    public long getUsernameNegativeCount() {
+        return usernameNegatives.sum();
+    }
+
+    /**
+     * @return the number of "maybe" answers from the username filter that the DAO found to be wrong.
+     */
+    public long getUsernameFalsePositiveCount() {
+        return usernameFalsePositives.sum();
+    }
+
+    /**
+     * @return the fraction of lookups of missing usernames that the filter answered "maybe", or 0 before any.
+     */
+    public double getUsernameFalsePositiveRate() {
+        long falsePositives = usernameFalsePositives.sum();
+        long lookupsOfMissing = falsePositives + usernameNegatives.sum();
+        return lookupsOfMissing == 0 ? 0 : (double) falsePositives / lookupsOfMissing;
+    }
+
+    /**
+     * @return the false positive rate expected of the username filter from its size and the usernames in it.
+     */
+    public double getUsernameExpectedFalsePositiveRate() {
+        return usernames.getExpectedFalsePositiveRate();
+    }
+
+    /**
+     * @return the number of bytes used by the account id bitset.
+     */
+    public long getAccountIdBytes() {
+        return accountIds.getSizeInBytes();
+    }
+
+    /**
+     * @return the number of bytes used by the username filter.
+     */
+    public long getUsernameBytes() {
+        return usernames.getSizeInBytes();
+    }
+}
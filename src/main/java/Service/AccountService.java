@@ -1,53 +1,150 @@
 package Service;
 
 import DAO.AccountDAO;
+import DAO.AccountRepository;
 import Model.Account;
+import Util.AppConfig;
+import Util.PasswordHasher;
 
 public class AccountService {
     
-    public AccountDAO accountDAO;
+    public AccountRepository accountDAO;
+    /**
+     * Hashes and verifies passwords off the request threads, and remembers recent successful logins.
+     * See PasswordVerifier.
+     */
+    private final PasswordVerifier passwordVerifier = new PasswordVerifier(
+            new PasswordHasher(AppConfig.getInt("socialmedia.password.iterations", 210_000)),
+            AppConfig.getInt("socialmedia.password.threads", Runtime.getRuntime().availableProcessors()),
+            AppConfig.getInt("socialmedia.password.queueCapacity", 64),
+            AppConfig.getLong("socialmedia.password.timeoutMillis", 5000),
+            AppConfig.getInt("socialmedia.password.cache.maxSize", 10000),
+            AppConfig.getLong("socialmedia.password.cache.ttlMillis", 60_000));
+    /**
+     * Turns away lookups of usernames that are definitely not taken without a query, and is told about every
+     * inserted account. <code>null</code> if every lookup should go to the DAO. See AccountIndex.
+     */
+    private final AccountIndex accountIndex;
 
     // No-args constructor for accountService which creates a AccountDAO.
     public AccountService() {
         accountDAO = new AccountDAO();
+        accountIndex = null;
     }
 
     /**
-     * Constructor for an AccountService when an AccountDAO is provided.
+     * Constructor for an AccountService when an AccountRepository is provided, such as an AccountDAO or the
+     * account repository of a StorageEngine.
      * This is used for when a mock AccountDAO that exhibits mock behavior is used in the test cases.
      * This would allow the testing of AccountService independently of AccountDAO.
      * @param accountDAO
      */
-    public AccountService(AccountDAO accountDAO) {
+    public AccountService(AccountRepository accountDAO) {
+        this(accountDAO, null);
+    }
+
+    /**
+     * Constructor for an AccountService that checks an AccountIndex before asking the AccountDAO whether a
+     * username is taken, and adds the accounts it inserts to the index.
+     * @param accountDAO
+     * @param accountIndex the index, shared with the MessageService, or <code>null</code> for none.
+     */
+    public AccountService(AccountRepository accountDAO, AccountIndex accountIndex) {
         this.accountDAO = accountDAO;
+        this.accountIndex = accountIndex;
     }
 
     /**
      * Use the AccountDAO to insert a new account into the database.
+     * Only a salted hash of the password is stored. The hash is computed on the password workers.
      * @param account an object representing a new account.
      * @return the newly added account if the insert operation was successful, including 
-     *         its account id. Return <code>null</code> if the new account failed to meet 
-     *         the account requirements or if the insert operation was unsuccessful.
+     *         its account id and the password as it was given. Return <code>null</code> if the new account
+     *         failed to meet the account requirements or if the insert operation was unsuccessful.
+     * @throws java.util.concurrent.RejectedExecutionException if the password workers are overloaded.
      */
     public Account insertAccount(Account account) {
         if (account.getUsername().isBlank())
             return null;
         else if (account.getPassword().length() < 4 || account.getPassword().isBlank())
             return null;
-        else if (accountDAO.getAccount(account.getUsername()) != null)
+        else if (usernameTaken(account.getUsername()))
             return null;
-        
-        return accountDAO.insertAccount(account);
+
+        String hash = passwordVerifier.hash(account.getPassword());
+        Account inserted = accountDAO.insertAccount(new Account(account.getUsername(), hash));
+        if (inserted == null)
+            return null;
+        if (accountIndex != null)
+            accountIndex.accountAdded(inserted.getAccount_id(), inserted.getUsername());
+        passwordVerifier.remember(inserted.getUsername(), account.getPassword(), hash);
+        return new Account(inserted.getAccount_id(), inserted.getUsername(), account.getPassword());
     }
 
     /**
      * Use the AccountDAO to retrieve an account from the database, i.e., "login" a user.
+     * The password is checked against the stored hash on the password workers, unless the same username and
+     * password were verified recently. An account that still holds a legacy plaintext password, or a hash with
+     * fewer iterations than are configured now, has it replaced by a new hash once the password has been verified.
      * @param account an object representing the account to retrieve.
      * @return the retrieved account if the login operation was successful, including 
-     *         its account id. Return <code>null</code> if the login operation was 
-     *         unsuccessful.
+     *         its account id and the password as it was given. Return <code>null</code> if the login operation
+     *         was unsuccessful.
+     * @throws java.util.concurrent.RejectedExecutionException if the password workers are overloaded.
      */
     public Account login(Account account) {
-        return accountDAO.getAccount(account.getUsername(), account.getPassword());
+        if (account.getUsername() == null || account.getPassword() == null)
+            return null;
+        Account stored = getAccount(account.getUsername());
+        if (stored == null)
+            return null;
+        if (!passwordVerifier.verify(stored.getUsername(), account.getPassword(), stored.getPassword()))
+            return null;
+
+        if (passwordVerifier.getHasher().needsRehash(stored.getPassword())) {
+            String hash = passwordVerifier.hash(account.getPassword());
+            accountDAO.updatePassword(stored.getAccount_id(), hash);
+            passwordVerifier.remember(stored.getUsername(), account.getPassword(), hash);
+        }
+        return new Account(stored.getAccount_id(), stored.getUsername(), account.getPassword());
+    }
+
+    /**
+     * The username is looked up in the AccountIndex first, and only if it might be taken is the AccountDAO asked.
+     * @param username a username.
+     * @return the account with the username, or <code>null</code> if there is none.
+     */
+    private Account getAccount(String username) {
+        if (accountIndex != null && !accountIndex.mightHaveUsername(username))
+            return null;
+        Account account = accountDAO.getAccount(username);
+        if (account == null && accountIndex != null)
+            accountIndex.usernameFalsePositive();
+        return account;
+    }
+
+    private boolean usernameTaken(String username) {
+        return getAccount(username) != null;
+    }
+
+    /**
+     * @return the account index, or <code>null</code> if there is none.
+     */
+    public AccountIndex getAccountIndex() {
+        return accountIndex;
+    }
+
+    /**
+     * @return the password workers, for reporting their queue depth and cache hit rate.
+     */
+    public PasswordVerifier getPasswordVerifier() {
+        return passwordVerifier;
+    }
+
+    /**
+     * Stops the password worker threads.
+     */
+    public void shutdown() {
+        passwordVerifier.shutdown();
     }
 }
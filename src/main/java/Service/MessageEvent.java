@@ -0,0 +1,62 @@
+package Service;
+
+import Model.Message;
+
+import java.util.function.Function;
+
+/**
+ * A change to a message, published by the MessageService on its EventRing once the change has been made and the
+ * caches are up to date. Live feeds such as GET /messages/stream read them from the ring.
+ */
+public class MessageEvent {
+    /**
+     * The kind of change, named as it is sent to clients.
+     */
+    public enum Type {
+        INSERT("insert"), UPDATE("update"), DELETE("delete");
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final Type type;
+    private final Message message;
+    private volatile byte[] json;
+
+    /**
+     * @param type the kind of change.
+     * @param message the message after an insert or update, or as it was before a delete.
+     */
+    public MessageEvent(Type type, Message message) {
+        this.type = type;
+        this.message = message;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the message as JSON, encoding it the first time it is asked for, so an event sent to many clients
+     * is only serialized once. Two threads asking at once may both encode it, which is harmless.
+     * @param encoder serializes a message.
+     * @return the JSON. The array must not be modified.
+     */
+    public byte[] getJson(Function<Message, byte[]> encoder) {
+        byte[] bytes = json;
+        if (bytes == null)
+            json = bytes = encoder.apply(message);
+        return bytes;
+    }
+}
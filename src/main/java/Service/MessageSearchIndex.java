@@ -0,0 +1,382 @@
+package Service;
+
+import DAO.MessageRepository;
+import Model.Message;
+import Util.PostingList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * The MessageSearchIndex class is an in-memory inverted index of message_text, for GET /messages/search.
+ *
+ * Each message's text is split into lower-cased terms, runs of letters and digits, and each term maps to a
+ * PostingList of the ids of the messages that contain it. The terms are kept in a sorted map so that a prefix
+ * query can walk every term starting with the prefix. Each message's time_posted_epoch is kept in an array
+ * indexed by message id, so matches can be ranked by recency without reading the messages.
+ *
+ * The index is built from the message table at startup and kept up to date by MessageService, which reports
+ * every insert, update and delete. Searches share a read lock and changes take the write lock.
+ *
+ * Query syntax: terms separated by spaces must all match (AND); "OR" between groups of terms matches messages
+ * that match any group; a term ending in "*" matches every term starting with it. Eg "coffee OR tea*".
+ */
+public class MessageSearchIndex {
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int WARM_PAGE_SIZE = 5000;
+
+    private final NavigableMap<String, PostingList> postings = new TreeMap<>();
+    private long[] times = new long[1024];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Builds an index of every message in the message table, reading it a page at a time.
+     * @param messageDAO the repository to read the messages from.
+     * @return the warmed index.
+     */
+    public static MessageSearchIndex warm(MessageRepository messageDAO) {
+        MessageSearchIndex index = new MessageSearchIndex();
+        List<Message> page;
+        int after = 0;
+        do {
+            page = messageDAO.getMessagesAfter(after, WARM_PAGE_SIZE);
+            for (Message message : page)
+                index.onInsert(message);
+            if (!page.isEmpty())
+                after = page.get(page.size() - 1).getMessage_id();
+        } while (page.size() == WARM_PAGE_SIZE);
+        return index;
+    }
+
+    /**
+     * @param message a newly inserted message, including its message id.
+     */
+    public void onInsert(Message message) {
+        lock.writeLock().lock();
+        try {
+            int message_id = message.getMessage_id();
+            if (message_id >= times.length)
+                times = Arrays.copyOf(times, Math.max(message_id + 1, times.length * 2));
+            times[message_id] = message.getTime_posted_epoch();
+            tokenize(message.getMessage_text(), term -> postings.computeIfAbsent(term, t -> new PostingList())
+                    .add(message_id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param oldMessage the message as it was before the update.
+     * @param newMessage the updated message.
+     */
+    public void onUpdate(Message oldMessage, Message newMessage) {
+        lock.writeLock().lock();
+        try {
+            removeTerms(oldMessage);
+            onInsert(newMessage);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param message the deleted message.
+     */
+    public void onDelete(Message message) {
+        lock.writeLock().lock();
+        try {
+            removeTerms(message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeTerms(Message message) {
+        int message_id = message.getMessage_id();
+        tokenize(message.getMessage_text(), term -> {
+            PostingList list = postings.get(term);
+            if (list != null) {
+                list.remove(message_id);
+                if (list.isEmpty())
+                    postings.remove(term);
+            }
+        });
+    }
+
+    /**
+     * @param query the search query.
+     * @param limit the largest number of message ids to return.
+     * @return the ids of the messages matching the query, most recent (by time_posted_epoch, then message id)
+     *         first. Empty if the query holds no terms.
+     */
+    public int[] search(String query, int limit) {
+        List<List<String>> clauses = parse(query);
+        lock.readLock().lock();
+        try {
+            int[] matches = null;
+            for (List<String> clause : clauses) {
+                int[] clauseMatches = matchAll(clause);
+                matches = matches == null ? clauseMatches : union(matches, clauseMatches);
+            }
+            return matches == null ? new int[0] : mostRecent(matches, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of distinct terms in the index.
+     */
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the approximate number of bytes used by the posting lists and the time array.
+     */
+    public long getSizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = (long) times.length * Long.BYTES;
+            for (PostingList list : postings.values())
+                bytes += list.getSizeInBytes();
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits text into lower-cased runs of letters and digits, at most MAX_TERM_LENGTH characters long.
+     * @param text the text to split.
+     * @param consumer called with each term, once per occurrence.
+     */
+    static void tokenize(String text, Consumer<String> consumer) {
+        if (text == null)
+            return;
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM_LENGTH)
+                    term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                consumer.accept(term.toString());
+                term.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Parses a query into OR-ed clauses of AND-ed terms. A term ending in "*" is a prefix.
+     */
+    static List<List<String>> parse(String query) {
+        List<List<String>> clauses = new ArrayList<>();
+        List<String> clause = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("OR")) {
+                if (!clause.isEmpty())
+                    clauses.add(clause);
+                clause = new ArrayList<>();
+                continue;
+            }
+            if (word.equals("AND"))
+                continue;
+            boolean prefix = word.endsWith("*");
+            List<String> terms = new ArrayList<>();
+            tokenize(word, terms::add);
+            for (int i = 0; i < terms.size(); i++)
+                clause.add(prefix && i == terms.size() - 1 ? terms.get(i) + "*" : terms.get(i));
+        }
+        if (!clause.isEmpty())
+            clauses.add(clause);
+        return clauses;
+    }
+
+    /**
+     * @return the ids, in ascending order, of the messages that match every term of the clause.
+     */
+    private int[] matchAll(List<String> clause) {
+        int[][] lists = new int[clause.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = match(clause.get(i));
+            if (lists[i].length == 0)
+                return lists[i];
+        }
+        // intersect the shortest lists first, so every step is bounded by the smallest result so far
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++)
+            result = intersect(result, lists[i]);
+        return result;
+    }
+
+    /**
+     * @return the ids, in ascending order, of the messages containing the term, or any term starting with it if
+     *         it ends in "*".
+     */
+    private int[] match(String term) {
+        if (!term.endsWith("*")) {
+            PostingList list = postings.get(term);
+            return list == null ? new int[0] : list.toArray();
+        }
+        String prefix = term.substring(0, term.length() - 1);
+        List<int[]> lists = new ArrayList<>();
+        for (Map.Entry<String, PostingList> entry : postings.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix))
+                break;
+            lists.add(entry.getValue().toArray());
+        }
+        if (lists.size() <= 2)
+            return lists.isEmpty() ? new int[0] : lists.size() == 1 ? lists.get(0) : union(lists.get(0), lists.get(1));
+        return unionAll(lists);
+    }
+
+    /**
+     * Unions many lists in one pass by setting a bit per id and reading the bits back in order, instead of merging
+     * the lists two at a time, which would copy the growing result once per list.
+     */
+    private static int[] unionAll(List<int[]> lists) {
+        int maxId = 0;
+        for (int[] list : lists)
+            if (list.length > 0)
+                maxId = Math.max(maxId, list[list.length - 1]);
+        long[] bits = new long[(maxId >>> 6) + 1];
+        for (int[] list : lists)
+            for (int id : list)
+                bits[id >>> 6] |= 1L << id;
+        int count = 0;
+        for (long word : bits)
+            count += Long.bitCount(word);
+        int[] result = new int[count];
+        int index = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                result[index++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0)
+            return b;
+        if (b.length == 0)
+            return a;
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Picks the limit most recent of the matches with a bounded min-heap, walking the matches from the highest
+     * id down: ids are usually assigned in time order, so after the first limit ids few others enter the heap.
+     * @return the picked ids, most recent first.
+     */
+    private int[] mostRecent(int[] matches, int limit) {
+        int size = Math.min(limit, matches.length);
+        int[] heap = new int[size];
+        int count = 0;
+        for (int i = matches.length - 1; i >= 0; i--) {
+            int id = matches[i];
+            if (count < size) {
+                heap[count] = id;
+                siftUp(heap, count++);
+            } else if (size > 0 && moreRecent(id, heap[0])) {
+                heap[0] = id;
+                siftDown(heap, count);
+            }
+        }
+        // pop the heap from least recent to most recent into the back of the result
+        int[] result = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[--count];
+            siftDown(heap, count);
+        }
+        return result;
+    }
+
+    private boolean moreRecent(int a, int b) {
+        long timeA = a < times.length ? times[a] : 0;
+        long timeB = b < times.length ? times[b] : 0;
+        return timeA != timeB ? timeA > timeB : a > b;
+    }
+
+    private void siftUp(int[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!moreRecent(heap[parent], heap[index]))
+                return;
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int count) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= count)
+                return;
+            if (child + 1 < count && moreRecent(heap[child], heap[child + 1]))
+                child++;
+            if (!moreRecent(heap[index], heap[child]))
+                return;
+            swap(heap, index, child);
+            index = child;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+}
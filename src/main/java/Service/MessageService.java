@@ -1,45 +1,292 @@
 package Service;
 
 import DAO.MessageDAO;
+import DAO.MessageRepository;
 import Model.Message;
+import Util.AppConfig;
+import Util.EventRing;
+import Util.LruCache;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 public class MessageService {
 
-    public MessageDAO messageDAO;
+    public MessageRepository messageDAO;
+    /**
+     * Read-through cache of messages by message id. It is kept up to date by insertMessage, updateMessage and
+     * deleteMessage, so it only goes stale if the database is changed without going through this service.
+     */
+    private final LruCache<Integer, Message> messageCache = new LruCache<>(
+            AppConfig.getInt("socialmedia.cache.messages.maxSize", 10000),
+            AppConfig.getLong("socialmedia.cache.messages.ttlMillis", 0));
+    /**
+     * Each account's messages in timeline order, maintained incrementally by the same write methods.
+     */
+    private final TimelineCache timelineCache = new TimelineCache(
+            AppConfig.getInt("socialmedia.cache.timelines.maxAccounts", 10000),
+            AppConfig.getInt("socialmedia.cache.timelines.maxLength", 500),
+            AppConfig.getLong("socialmedia.cache.timelines.ttlMillis", 0));
+    /**
+     * Version numbers behind the ETags of messages and timelines, bumped by the same write methods once the caches
+     * are up to date.
+     */
+    private final MessageVersions versions = new MessageVersions(
+            AppConfig.getInt("socialmedia.etag.slots", 65536));
+    /**
+     * Every insert, update and delete, in the order they were made, for the live feeds; see EventRing.
+     */
+    private final EventRing<MessageEvent> events = new EventRing<>(
+            AppConfig.getInt("socialmedia.events.ringSize", 4096));
+    /**
+     * When write-behind is enabled, validated messages are inserted by a background writer in group commits
+     * instead of on the request thread. <code>null</code> when write-behind is disabled (the default).
+     */
+    private final MessageWriteBehind writeBehind = AppConfig.getBoolean("socialmedia.writeBehind.enabled", false)
+            ? new MessageWriteBehind(
+                    AppConfig.getInt("socialmedia.writeBehind.queueCapacity", 10000),
+                    AppConfig.getInt("socialmedia.writeBehind.maxBatchSize", 500),
+                    AppConfig.getLong("socialmedia.writeBehind.maxLingerMillis", 5),
+                    messages -> messageDAO.insertMessages(messages),
+                    message -> messageDAO.insertMessage(message))
+            : null;
+    /**
+     * With a durable acknowledgment, insertMessage waits for the background writer to commit the message.
+     * Without one, it returns as soon as the message is queued.
+     */
+    private final boolean writeBehindDurableAck = AppConfig.getBoolean("socialmedia.writeBehind.durableAck", true);
+    /**
+     * Turns away messages from account ids that definitely don't exist without a query. Shared with the
+     * AccountService, which adds every account it inserts. <code>null</code> if every check should go to the DAO.
+     */
+    private final AccountIndex accountIndex;
+    /**
+     * The inverted index of message_text behind searchMessages, kept up to date by the write methods.
+     * <code>null</code> if this service doesn't support search.
+     */
+    private final MessageSearchIndex searchIndex;
+    /**
+     * A time window at least rangeScanMinSpan wide (in the units of time_posted_epoch) is split into
+     * rangeScanParallelism sub-windows that are read at once, each on its own pooled connection, by the
+     * rangeScanWorkers. <code>null</code> when the parallelism is 1 (the default), so every window is read with
+     * one query.
+     */
+    private final int rangeScanParallelism = Math.max(1, AppConfig.getInt("socialmedia.timeRange.parallelism", 1));
+    private final long rangeScanMinSpan = AppConfig.getLong("socialmedia.timeRange.parallelMinSpan", 30L * 24 * 3600);
+    private final ExecutorService rangeScanWorkers = rangeScanParallelism > 1
+            ? Executors.newFixedThreadPool(rangeScanParallelism - 1, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "range-scan-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            })
+            : null;
+    /**
+     * Updates and deletes of one message hold the same lock, see changeLockFor.
+     */
+    private final ReentrantLock[] changeLocks = Stream.generate(ReentrantLock::new).limit(64)
+            .toArray(ReentrantLock[]::new);
 
     // No-args constructor for messageService which creates a MessageDAO.
     public MessageService() {
         messageDAO = new MessageDAO();
+        accountIndex = null;
+        searchIndex = null;
     }
 
     /**
-     * Constructor for a MessageService when a MessageDAO is provided.
+     * Constructor for a MessageService when a MessageRepository is provided, such as a MessageDAO or a
+     * ColumnarMessageDAO.
      * This is used for when a mock MessageDAO that exhibits mock behavior is used in the test cases.
      * This would allow the testing of MessageService independently of MessageDAO.
      * @param messageDAO
      */
-    public MessageService(MessageDAO messageDAO) {
+    public MessageService(MessageRepository messageDAO) {
+        this(messageDAO, null);
+    }
+
+    /**
+     * Constructor for a MessageService that checks an AccountIndex before asking the MessageDAO whether the
+     * posting accounts exist.
+     * @param messageDAO
+     * @param accountIndex the index, shared with the AccountService, or <code>null</code> for none.
+     */
+    public MessageService(MessageRepository messageDAO, AccountIndex accountIndex) {
+        this(messageDAO, accountIndex, null);
+    }
+
+    /**
+     * Constructor for a MessageService that also answers searches from a MessageSearchIndex, which it keeps up
+     * to date as messages are inserted, updated and deleted.
+     * @param messageDAO
+     * @param accountIndex the account index, or <code>null</code> for none.
+     * @param searchIndex the search index, warmed from the same database, or <code>null</code> for none.
+     */
+    public MessageService(MessageRepository messageDAO, AccountIndex accountIndex, MessageSearchIndex searchIndex) {
         this.messageDAO = messageDAO;
+        this.accountIndex = accountIndex;
+        this.searchIndex = searchIndex;
     }
 
     /**
      * Use the MessageDAO to insert a new message into the database.
+     * If write-behind is enabled, the message is queued for the background writer instead. With a durable
+     * acknowledgment this waits for the message to be committed; otherwise it returns the accepted message
+     * straight away, with a message_id of 0 as its id has not been generated yet.
      * @param message an object representing a new message.
      * @return the newly added message if the insert operation was successful, including 
      *         its message_id. Return <code>null</code> if the message failed to meet the 
      *         message requirements or if the insert operation was unsuccessful.
+     * @throws RejectedExecutionException if write-behind is enabled and its queue is full.
      */
     public Message insertMessage(Message message) {
-        if (message.getMessage_text().isBlank())
-            return null;
-        else if (message.getMessage_text().length() >= 255)
+        return insertMessage(message, false);
+    }
+
+    /**
+     * Use the MessageDAO to insert a new message into the database, as insertMessage(message) does.
+     * @param message an object representing a new message.
+     * @param posted_by_verified true if the caller has already established that the posted_by account exists,
+     *                           eg from a session token issued at login, so the account lookup is skipped.
+     *                           The foreign key on posted_by still rejects a message from a missing account.
+     * @return the newly added message, or <code>null</code>, as for insertMessage(message).
+     * @throws RejectedExecutionException if write-behind is enabled and its queue is full.
+     */
+    public Message insertMessage(Message message, boolean posted_by_verified) {
+        if (!isValidMessageText(message.getMessage_text()))
             return null;
-        else if (messageDAO.getPostedBy(message.getPosted_by()) < 0)
+        else if (!posted_by_verified && !accountExists(message.getPosted_by()))
             return null;
         
-        return messageDAO.insertMessage(message);
+        if (writeBehind != null)
+            return insertWriteBehind(message);
+
+        Message newMessage = messageDAO.insertMessage(message);
+        if (newMessage != null)
+            messageInserted(newMessage);
+        return newMessage;
+    }
+
+    /**
+     * Queues a validated message for the background writer.
+     * @param message the message to insert.
+     * @return the inserted message once it is committed if acknowledgments are durable, otherwise a copy of the
+     *         accepted message without a message id.
+     * @throws RejectedExecutionException if the write-behind queue is full.
+     */
+    private Message insertWriteBehind(Message message) {
+        CompletableFuture<Message> inserted = writeBehind.submit(message).thenApply(newMessage -> {
+            if (newMessage != null)
+                messageInserted(newMessage);
+            return newMessage;
+        });
+        if (!writeBehindDurableAck)
+            return new Message(message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+        return inserted.join();
+    }
+
+    /**
+     * Use the MessageDAO to insert many new messages into the database in one transaction.
+     * Every message must meet the message requirements; the existence of all of the posting accounts is
+     * checked with a single query.
+     * @param messages objects representing the new messages.
+     * @return the newly added messages, including their message ids, in the order they were given. Return
+     *         <code>null</code> if any message failed to meet the message requirements or if the insert
+     *         operation was unsuccessful, in which case no message was added.
+     */
+    public List<Message> insertMessages(List<Message> messages) {
+        return insertMessages(messages, false);
+    }
+
+    /**
+     * Use the MessageDAO to insert many new messages into the database in one transaction, as
+     * insertMessages(messages) does.
+     * @param messages objects representing the new messages.
+     * @param posted_by_verified true if the caller has already established that every posted_by account exists,
+     *                           so the account query is skipped.
+     * @return the newly added messages, or <code>null</code>, as for insertMessages(messages).
+     */
+    public List<Message> insertMessages(List<Message> messages, boolean posted_by_verified) {
+        if (messages.isEmpty())
+            return null;
+        Set<Integer> posted_by_ids = new HashSet<>();
+        for (Message message : messages) {
+            if (message == null || !isValidMessageText(message.getMessage_text()))
+                return null;
+            posted_by_ids.add(message.getPosted_by());
+        }
+        if (!posted_by_verified && !accountsExist(posted_by_ids))
+            return null;
+
+        List<Message> newMessages = messageDAO.insertMessages(messages);
+        if (newMessages != null)
+            for (Message newMessage : newMessages)
+                messageInserted(newMessage);
+        return newMessages;
+    }
+
+    /**
+     * @param message_text the text of a new or updated message.
+     * @return true if the text is not blank and is under 255 characters.
+     */
+    private boolean isValidMessageText(String message_text) {
+        return message_text != null && !message_text.isBlank() && message_text.length() < 255;
+    }
+
+    /**
+     * Checks the AccountIndex first, and only if the account might exist asks the MessageDAO.
+     * @param account_id an account id.
+     * @return true if there is an account with the id.
+     */
+    private boolean accountExists(int account_id) {
+        if (accountIndex != null && !accountIndex.mightHaveAccountId(account_id))
+            return false;
+        return messageDAO.getPostedBy(account_id) >= 0;
+    }
+
+    /**
+     * Checks every id against the AccountIndex first, and only if all of them might exist asks the MessageDAO,
+     * with one query.
+     * @param account_ids account ids.
+     * @return true if there is an account with each id.
+     */
+    private boolean accountsExist(Set<Integer> account_ids) {
+        if (accountIndex != null)
+            for (int account_id : account_ids)
+                if (!accountIndex.mightHaveAccountId(account_id))
+                    return false;
+        return messageDAO.getExistingAccountIds(account_ids).containsAll(account_ids);
+    }
+
+    /**
+     * Brings the caches up to date with a message that was just inserted, and publishes its event.
+     * @param newMessage the inserted message, including its message id.
+     */
+    private void messageInserted(Message newMessage) {
+        messageCache.put(newMessage.getMessage_id(), newMessage);
+        timelineCache.onInsert(newMessage);
+        if (searchIndex != null)
+            searchIndex.onInsert(newMessage);
+        versions.onChange(newMessage);
+        events.publish(new MessageEvent(MessageEvent.Type.INSERT, newMessage));
     }
 
     /**
@@ -51,30 +298,101 @@ public class MessageService {
     }
 
     /**
-     * Use the MessageDAO to retrieve a message from the database.
+     * Use the MessageDAO to retrieve one page of messages from the database, in message id order.
+     * @param message_id the id of the last message of the previous page, or 0 for the first page.
+     * @param limit the maximum number of messages in the page.
+     * @return the messages with ids greater than message_id, at most limit of them.
+     */
+    public List<Message> getMessagesAfter(int message_id, int limit) {
+        return messageDAO.getMessagesAfter(message_id, limit);
+    }
+
+    /**
+     * Use the MessageDAO to retrieve the messages posted in a time window from the database.
+     * When range scans are parallel, the window is first narrowed to the times that messages were actually posted
+     * at, and, if it is still at least as wide as the configured minimum span, split into equal sub-windows that are read in parallel on
+     * separate connections: one on the calling thread and the rest on the range scan workers.
+     * @param since the start of the window, inclusive.
+     * @param until the end of the window, exclusive.
+     * @return the messages with since <= time_posted_epoch < until, ordered by time posted, then message id.
+     */
+    public List<Message> getMessagesBetween(long since, long until) {
+        if (since >= until)
+            return new ArrayList<>();
+        if (rangeScanWorkers == null)
+            return messageDAO.getMessagesBetween(since, until);
+
+        long[] bounds = messageDAO.getTimeBounds();
+        if (bounds == null)
+            return new ArrayList<>();
+        long from = Math.max(since, bounds[0]);
+        long to = bounds[1] == Long.MAX_VALUE ? until : Math.min(until, bounds[1] + 1);
+        if (from >= to)
+            return new ArrayList<>();
+        if (to - from < rangeScanMinSpan)
+            return messageDAO.getMessagesBetween(from, to);
+
+        long step = (to - from + rangeScanParallelism - 1) / rangeScanParallelism;
+        List<Future<List<Message>>> parts = new ArrayList<>();
+        for (long start = from + step; start < to; start += step) {
+            long partStart = start;
+            long partEnd = Math.min(to, start + step);
+            parts.add(rangeScanWorkers.submit(() -> messageDAO.getMessagesBetween(partStart, partEnd)));
+        }
+        List<Message> messages = messageDAO.getMessagesBetween(from, Math.min(to, from + step));
+        try {
+            for (Future<List<Message>> part : parts)
+                messages.addAll(part.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading a time window", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return messages;
+    }
+
+    /**
+     * Use the MessageDAO to retrieve a message from the database, unless it is already cached.
      * @param message_id the id of the message to be retrieved
      * @return the message if the get operation was successful. Return <code>null</code> 
      *         if the get operation was unsuccessful.
      */
     public Message getMessageById(int message_id) {
-        return messageDAO.getMessageById(message_id);
+        return messageCache.getOrLoad(message_id, messageDAO::getMessageById);
     }
 
     /**
-     * Use the MessageDAO to delete a message from the database.
+     * Use the MessageDAO to delete a message from the database. The DAO deletes the message and returns it in one
+     * atomic operation, so when the same message is deleted by several requests at once only one of them gets it.
      * @param message_id the id of the message to be deleted
      * @return the now deleted message if the message was found in the database.
      *         Return <code>null</code> if a message was not found with the given 
      *         message id.
      */
     public Message deleteMessage(int message_id) {
-        Message deletedMessage = messageDAO.getMessageById(message_id);
-        messageDAO.deleteMessage(message_id);
-        return deletedMessage;
+        ReentrantLock changeLock = changeLockFor(message_id);
+        changeLock.lock();
+        try {
+            Message deletedMessage = messageDAO.deleteMessage(message_id);
+            messageCache.invalidate(message_id);
+            if (deletedMessage != null) {
+                timelineCache.onDelete(deletedMessage);
+                if (searchIndex != null)
+                    searchIndex.onDelete(deletedMessage);
+                versions.onChange(deletedMessage);
+                events.publish(new MessageEvent(MessageEvent.Type.DELETE, deletedMessage));
+            }
+            return deletedMessage;
+        } finally {
+            changeLock.unlock();
+        }
     }
 
     /**
-     * Use the MessageDAO to update a message from the database.
+     * Use the MessageDAO to update a message from the database. The message text is checked before the database
+     * is touched, and the DAO updates the message and returns its previous state in one atomic operation, so
+     * concurrent updates of the same message are applied one after the other and none is lost.
      * @param message_id the id of the message to be updated.
      * @param message_text the text string containing all the data that should replace
      *         the text string contained by the existing message.
@@ -83,24 +401,163 @@ public class MessageService {
      *         for a message text or a message was not found with the given message id.
      */
     public Message updateMessage(int message_id, String message_text) {
-        if (messageDAO.getMessageById(message_id) == null)
-            return null;
-        else if (message_text.isBlank())
+        if (message_text == null || message_text.isBlank())
             return null;
         else if (message_text.length() >= 255)
             return null;
-        
-        messageDAO.updateMessage(message_id, message_text);
-        return messageDAO.getMessageById(message_id);
+
+        ReentrantLock changeLock = changeLockFor(message_id);
+        changeLock.lock();
+        try {
+            Message oldMessage = messageDAO.updateMessage(message_id, message_text);
+            if (oldMessage == null) {
+                messageCache.invalidate(message_id);
+                return null;
+            }
+            Message updatedMessage = new Message(message_id, oldMessage.getPosted_by(), message_text,
+                    oldMessage.getTime_posted_epoch());
+            messageCache.put(message_id, updatedMessage);
+            timelineCache.onUpdate(updatedMessage);
+            if (searchIndex != null)
+                searchIndex.onUpdate(oldMessage, updatedMessage);
+            versions.onChange(updatedMessage);
+            events.publish(new MessageEvent(MessageEvent.Type.UPDATE, updatedMessage));
+            return updatedMessage;
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    /**
+     * The caches and the search index are brought up to date after the DAO returns, so changes to one message
+     * are made one at a time to keep them in the order the database applied them. Messages are spread over a
+     * fixed set of locks, so changes to different messages rarely wait for each other. The locks are held across the
+     * DAO call, which may wait for a pooled connection and for the database, so they are ReentrantLocks rather than
+     * monitors: a virtual thread blocked inside a synchronized block pins its carrier thread.
+     */
+    private ReentrantLock changeLockFor(int message_id) {
+        return changeLocks[message_id & (changeLocks.length - 1)];
+    }
+
+    /**
+     * Searches message_text with the MessageSearchIndex, then reads the matching messages from the cache, and
+     * those that aren't cached from the database with one query. See MessageSearchIndex for the query syntax.
+     * @param query the search query.
+     * @param limit the largest number of messages to return.
+     * @return the matching messages, most recent first by time_posted_epoch. Return <code>null</code> if this
+     *         service has no search index.
+     */
+    public List<Message> searchMessages(String query, int limit) {
+        if (searchIndex == null)
+            return null;
+        int[] message_ids = searchIndex.search(query, limit);
+        Message[] found = new Message[message_ids.length];
+        Map<Integer, Integer> missing = new HashMap<>();
+        Map<Integer, Long> stamps = new HashMap<>();
+        for (int i = 0; i < message_ids.length; i++) {
+            found[i] = messageCache.get(message_ids[i]);
+            if (found[i] == null) {
+                missing.put(message_ids[i], i);
+                stamps.put(message_ids[i], messageCache.getWriteStamp(message_ids[i]));
+            }
+        }
+        if (!missing.isEmpty()) {
+            // a message updated or deleted while it was being read is returned but not cached, like in getOrLoad
+            for (Message message : messageDAO.getMessagesByIds(missing.keySet())) {
+                found[missing.get(message.getMessage_id())] = message;
+                messageCache.putIfUnchanged(message.getMessage_id(), message, stamps.get(message.getMessage_id()));
+            }
+        }
+        // a message deleted from the database without going through this service is left out
+        List<Message> messages = new ArrayList<>(found.length);
+        for (Message message : found)
+            if (message != null)
+                messages.add(message);
+        return messages;
+    }
+
+    /**
+     * @return the search index, or <code>null</code> if there is none.
+     */
+    public MessageSearchIndex getSearchIndex() {
+        return searchIndex;
     }
 
     /**
      * Use the MessageDAO to retrieve a List containing all messages posted by a 
-     * given account from the database.
+     * given account from the database, unless the account's timeline is already cached or the AccountIndex
+     * shows there is no such account.
      * @param account_id the id of the account having its messages retrieved.
-     * @return all messages posted by the account in the database.
+     * @return all messages posted by the account in the database, ordered by time posted.
+     *         The list must not be modified.
      */
     public List<Message> getUserMessages(int account_id) {
-        return messageDAO.getMessagesByAccountId(account_id);
+        if (accountIndex != null && !accountIndex.mightHaveAccountId(account_id))
+            return List.of();
+        return timelineCache.getTimeline(account_id, messageDAO::getMessagesByAccountId);
+    }
+
+    /**
+     * Retrieves the messages posted by a given account in a time window, from the account's cached timeline if it
+     * is cached and otherwise from the database.
+     * @param account_id the id of the account having its messages retrieved.
+     * @param since the start of the window, inclusive.
+     * @param until the end of the window, exclusive.
+     * @return the account's messages with since <= time_posted_epoch < until, ordered by time posted.
+     *         The list must not be modified.
+     */
+    public List<Message> getUserMessagesBetween(int account_id, long since, long until) {
+        if (since >= until || accountIndex != null && !accountIndex.mightHaveAccountId(account_id))
+            return List.of();
+        List<Message> timeline = timelineCache.getCachedTimeline(account_id);
+        if (timeline != null)
+            return TimelineCache.between(timeline, since, until);
+        return messageDAO.getMessagesByAccountIdBetween(account_id, since, until);
+    }
+
+    /**
+     * Writes any messages still queued for the background writer and stops it, and stops the range scan
+     * workers. Does nothing if write-behind is disabled and range scans aren't parallel.
+     */
+    public void shutdown() {
+        if (writeBehind != null)
+            writeBehind.shutdown();
+        if (rangeScanWorkers != null)
+            rangeScanWorkers.shutdown();
+    }
+
+    /**
+     * @return the number of messages waiting for the background writer, or 0 if write-behind is disabled.
+     */
+    public int getWriteBehindQueueDepth() {
+        return writeBehind == null ? 0 : writeBehind.getQueueDepth();
+    }
+
+    /**
+     * @return the message-by-id cache, for reporting its hit rate and evictions.
+     */
+    public LruCache<Integer, Message> getMessageCache() {
+        return messageCache;
+    }
+
+    /**
+     * @return the per-account timeline cache, for reporting its hit rate and evictions.
+     */
+    public TimelineCache getTimelineCache() {
+        return timelineCache;
+    }
+
+    /**
+     * @return the version numbers behind the ETags of messages and timelines.
+     */
+    public MessageVersions getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return the ring of message events, published after every insert, update and delete.
+     */
+    public EventRing<MessageEvent> getEvents() {
+        return events;
     }
 }
@@ -0,0 +1,94 @@
+package Service;
+
+import Model.Message;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The MessageVersions class keeps version numbers that change whenever a message changes, from which the API
+ * derives the ETags of GET /messages/{message_id} and GET /accounts/{account_id}/messages. A client that sends
+ * back a tag that still matches gets a 304 (not modified) without the message being read or serialized.
+ *
+ * Every change takes the next number of one global sequence and stores it in the slot of the message's id and in
+ * the slot of its account's id. Ids share a fixed number of slots, so a change also changes the tags of the other
+ * ids in its slot; that costs those clients a full response, but a tag can never stay the same while the
+ * message or timeline behind it changes. Tags start with a number chosen at startup, so a tag issued before a
+ * restart never matches.
+ *
+ * Like the caches, the versions only see changes made through the MessageService. A change must be recorded
+ * after it is visible to readers, and a tag must be taken before the data it describes is read: at worst a
+ * response then carries an older tag than its body, and the next request gets the body again.
+ */
+public class MessageVersions {
+    private final String instance = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLongArray messageSlots;
+    private final AtomicLongArray accountSlots;
+
+    /**
+     * @param slots the number of slots for each of message ids and account ids, rounded up to a power of two.
+     */
+    public MessageVersions(int slots) {
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.messageSlots = new AtomicLongArray(size);
+        this.accountSlots = new AtomicLongArray(size);
+    }
+
+    /**
+     * Records an insert, update or delete of a message.
+     * @param message the message that changed.
+     */
+    public void onChange(Message message) {
+        long version = sequence.incrementAndGet();
+        messageSlots.set(message.getMessage_id() & (messageSlots.length() - 1), version);
+        accountSlots.set(message.getPosted_by() & (accountSlots.length() - 1), version);
+    }
+
+    /**
+     * @param message_id a message id.
+     * @return the ETag of the message with the id, or of its absence.
+     */
+    public String messageTag(int message_id) {
+        return tag('m', messageSlots.get(message_id & (messageSlots.length() - 1)));
+    }
+
+    /**
+     * @param account_id an account id.
+     * @return the ETag of the account's messages.
+     */
+    public String accountTag(int account_id) {
+        return tag('a', accountSlots.get(account_id & (accountSlots.length() - 1)));
+    }
+
+    /**
+     * @return the number of changes recorded, which changes whenever any message changes.
+     */
+    public long getVersion() {
+        return sequence.get();
+    }
+
+    private String tag(char kind, long version) {
+        return "\"" + kind + instance + "-" + Long.toHexString(version) + "\"";
+    }
+
+    /**
+     * Compares a tag with an If-None-Match header, using the weak comparison that applies to GET requests.
+     * @param ifNoneMatch the header value, a list of tags or "*", or <code>null</code> if it wasn't sent.
+     * @param etag the current tag.
+     * @return true if the header lists the tag (ignoring a W/ prefix) or is "*".
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals("*") || candidate.equals(etag))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,180 @@
+package Service;
+
+import Model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * The MessageWriteBehind class takes validated messages off the request threads and inserts them from a single
+ * writer thread, many at a time.
+ *
+ * Submitted messages go into a bounded queue. The writer thread takes the first waiting message, then keeps
+ * collecting messages until it has maxBatchSize of them or maxLingerMillis has passed, and inserts the whole
+ * group in one transaction (a group commit). If the queue is full, submit() rejects the message straight away,
+ * so a write burst produces back pressure instead of an ever-growing backlog.
+ *
+ * Each submitted message gets a future that completes once its group has been committed, with the inserted
+ * message (including its message id), or with <code>null</code> if the insert failed.
+ */
+public class MessageWriteBehind {
+    private final BlockingQueue<PendingInsert> queue;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    /**
+     * Inserts a group of messages in one transaction, returning the inserted messages in order, or
+     * <code>null</code> if the transaction failed.
+     */
+    private final Function<List<Message>, List<Message>> batchWriter;
+    /**
+     * Inserts a single message, used to find out which messages of a failed group can still be inserted.
+     */
+    private final Function<Message, Message> singleWriter;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    /**
+     * submit() holds the read lock while it checks running and queues the message, and shutdown() holds the write
+     * lock to clear running, so no message can be queued after the writer has been told to finish the queue and
+     * stop, where its future would never complete.
+     */
+    private final ReadWriteLock submitLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param queueCapacity the number of messages that may be waiting to be written.
+     * @param maxBatchSize the largest number of messages written in one transaction.
+     * @param maxLingerMillis how long the writer waits for more messages before writing a group that isn't full.
+     * @param batchWriter inserts a group of messages in one transaction.
+     * @param singleWriter inserts a single message.
+     */
+    public MessageWriteBehind(int queueCapacity, int maxBatchSize, long maxLingerMillis,
+                              Function<List<Message>, List<Message>> batchWriter,
+                              Function<Message, Message> singleWriter) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        this.batchWriter = batchWriter;
+        this.singleWriter = singleWriter;
+        this.writerThread = new Thread(this::writeLoop, "message-write-behind");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a validated message to be inserted.
+     * @param message the message to insert.
+     * @return a future completed with the inserted message once it has been committed, or with <code>null</code>
+     *         if the insert failed.
+     * @throws RejectedExecutionException if the queue is full or the writer has been shut down.
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        PendingInsert pending = new PendingInsert(message);
+        submitLock.readLock().lock();
+        try {
+            if (!running)
+                throw new RejectedExecutionException("The message writer has been shut down");
+            if (!queue.offer(pending))
+                throw new RejectedExecutionException("The message write queue is full");
+        } finally {
+            submitLock.readLock().unlock();
+        }
+        return pending.result;
+    }
+
+    /**
+     * @return the number of messages waiting to be written.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting messages, writes the messages already queued and stops the writer thread.
+     */
+    public void shutdown() {
+        submitLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            submitLock.writeLock().unlock();
+        }
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingInsert> group = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collectGroup(group);
+            } catch (InterruptedException e) {
+                // shutdown() interrupts a waiting writer; whatever was collected is still written below
+                queue.drainTo(group, maxBatchSize - group.size());
+            }
+            if (!group.isEmpty()) {
+                writeGroup(group);
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Blocks until a message is waiting, then collects more until the group is full or the linger time is up.
+     */
+    private void collectGroup(List<PendingInsert> group) throws InterruptedException {
+        group.add(queue.take());
+        long deadline = System.nanoTime() + maxLingerNanos;
+        while (group.size() < maxBatchSize) {
+            queue.drainTo(group, maxBatchSize - group.size());
+            long remaining = deadline - System.nanoTime();
+            if (group.size() >= maxBatchSize || remaining <= 0)
+                return;
+            PendingInsert next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+                return;
+            group.add(next);
+        }
+    }
+
+    private void writeGroup(List<PendingInsert> group) {
+        List<Message> messages = new ArrayList<>(group.size());
+        for (PendingInsert pending : group)
+            messages.add(pending.message);
+
+        try {
+            List<Message> inserted = batchWriter.apply(messages);
+            if (inserted != null) {
+                for (int i = 0; i < group.size(); i++)
+                    group.get(i).result.complete(inserted.get(i));
+                return;
+            }
+            // the whole transaction was rolled back; insert one at a time so one bad message doesn't fail the rest
+            for (PendingInsert pending : group)
+                pending.result.complete(singleWriter.apply(pending.message));
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+            for (PendingInsert pending : group)
+                pending.result.complete(null);
+        }
+    }
+
+    private static class PendingInsert {
+        final Message message;
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        PendingInsert(Message message) {
+            this.message = message;
+        }
+    }
+}
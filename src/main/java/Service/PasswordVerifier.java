@@ -0,0 +1,196 @@
+package Service;
+
+import Util.LruCache;
+import Util.PasswordHasher;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The PasswordVerifier class runs the slow password hashing of registration and login on its own bounded pool of
+ * worker threads, so that a burst of logins can't take every request thread away from the rest of the API.
+ *
+ * The pool has one thread per core and a queue of at most queueCapacity waiting hashes. A hash that can't be
+ * queued, or that doesn't finish within timeoutMillis, fails with a RejectedExecutionException, which the
+ * controller reports as 503 (service unavailable).
+ *
+ * Successful verifications are remembered for cacheTtlMillis, keyed by username, so that a client logging in again
+ * and again with the same password is checked with one HMAC instead of a full hash. The cache never holds the
+ * password itself: it holds an HMAC of the password under a random key that only lives in this process, along
+ * with the stored hash it was verified against, so an entry stops matching as soon as the stored hash changes.
+ */
+public class PasswordVerifier {
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor workers;
+    private final long timeoutMillis;
+    private final LruCache<String, CachedVerification> verified;
+    private final SecretKeySpec cacheKey;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param hasher hashes and verifies passwords.
+     * @param threads the number of worker threads.
+     * @param queueCapacity the number of hashes that may wait for a worker thread.
+     * @param timeoutMillis how long a caller waits for its hash, including time spent in the queue.
+     * @param cacheSize the number of successful verifications to remember. 0 disables the cache.
+     * @param cacheTtlMillis how long a successful verification is remembered.
+     */
+    public PasswordVerifier(PasswordHasher hasher, int threads, int queueCapacity, long timeoutMillis,
+                            int cacheSize, long cacheTtlMillis) {
+        this.hasher = hasher;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+        this.verified = new LruCache<>(cacheSize, cacheTtlMillis);
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.cacheKey = new SecretKeySpec(key, "HmacSHA256");
+    }
+
+    /**
+     * Hashes a password on a worker thread.
+     * @param password the password to hash.
+     * @return the salted hash of the password.
+     * @throws RejectedExecutionException if the workers are overloaded or the hash timed out.
+     */
+    public String hash(String password) {
+        return runOnWorker(() -> hasher.hash(password));
+    }
+
+    /**
+     * Checks a password against an account's stored password, from the cache if it was verified recently and on a
+     * worker thread otherwise.
+     * @param username the account's username, which the cache is keyed by.
+     * @param password the password to check.
+     * @param stored the account's stored password hash (or legacy plaintext password).
+     * @return true if the password matches.
+     * @throws RejectedExecutionException if the workers are overloaded or the verification timed out.
+     */
+    public boolean verify(String username, String password, String stored) {
+        if (password == null || stored == null)
+            return false;
+        byte[] digest = cacheDigest(password);
+        CachedVerification cached = verified.get(username);
+        if (cached != null && cached.stored.equals(stored) && MessageDigest.isEqual(cached.digest, digest))
+            return true;
+
+        boolean matches = runOnWorker(() -> hasher.verify(password, stored));
+        if (matches)
+            verified.put(username, new CachedVerification(stored, digest));
+        return matches;
+    }
+
+    /**
+     * Remembers that a password matches a newly stored hash, so the login after a registration or a rehash doesn't
+     * pay for a full hash.
+     * @param username the account's username.
+     * @param password the password.
+     * @param stored the hash now stored for the account.
+     */
+    public void remember(String username, String password, String stored) {
+        verified.put(username, new CachedVerification(stored, cacheDigest(password)));
+    }
+
+    /**
+     * @return the hasher, for checking whether a stored password needs to be rehashed.
+     */
+    public PasswordHasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * @return the number of hashes waiting for a worker thread.
+     */
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * @return the number of hashes rejected because the workers were overloaded or the hash timed out.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return the cache of recent successful verifications, for reporting its hit rate.
+     */
+    public LruCache<String, CachedVerification> getCache() {
+        return verified;
+    }
+
+    /**
+     * Stops the worker threads. Hashes already running are allowed to finish.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private <T> T runOnWorker(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = workers.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("The password workers are overloaded");
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Timed out after " + timeoutMillis + "ms waiting for a password hash");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a password hash", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private byte[] cacheDigest(String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(cacheKey);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /**
+     * A remembered successful verification: the stored hash it was checked against and an HMAC of the password.
+     */
+    public static class CachedVerification {
+        final String stored;
+        final byte[] digest;
+
+        CachedVerification(String stored, byte[] digest) {
+            this.stored = stored;
+            this.digest = digest;
+        }
+    }
+}
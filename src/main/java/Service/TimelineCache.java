@@ -0,0 +1,147 @@
+package Service;
+
+import Model.Message;
+import Util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * The TimelineCache class caches each account's messages, ordered by time_posted_epoch (then message_id), for
+ * GET /accounts/{account_id}/messages.
+ *
+ * A timeline is loaded from the database the first time it is requested and is then maintained incrementally:
+ * a new, updated or deleted message is applied to the cached timeline of its account instead of throwing the
+ * timeline away. Cached timelines are immutable lists; every change swaps in a new list, so a list handed to a
+ * caller never changes underneath it.
+ *
+ * Only timelines of at most maxLength messages are kept. Accounts with longer timelines are always read from
+ * the database, which answers them from the message(posted_by, time_posted_epoch) index.
+ */
+public class TimelineCache {
+    /**
+     * The order of messages in a timeline, which matches the ORDER BY of MessageDAO.getMessagesByAccountId.
+     */
+    public static final Comparator<Message> TIMELINE_ORDER = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id);
+
+    private final LruCache<Integer, List<Message>> timelines;
+    private final int maxLength;
+
+    /**
+     * @param maxAccounts the number of account timelines to cache.
+     * @param maxLength the longest timeline that will be cached.
+     * @param ttlMillis how long a timeline stays cached after it last changed. A value of 0 means forever.
+     */
+    public TimelineCache(int maxAccounts, int maxLength, long ttlMillis) {
+        this.timelines = new LruCache<>(maxAccounts, ttlMillis);
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @param account_id the account whose timeline is requested.
+     * @param loader loads the account's timeline, in timeline order, from the database.
+     * @return the account's messages in timeline order. The list must not be modified.
+     */
+    public List<Message> getTimeline(int account_id, IntFunction<List<Message>> loader) {
+        List<Message> cached = timelines.get(account_id);
+        if (cached != null)
+            return cached;
+        // A timeline over maxLength is never stored, rather than stored and invalidated: invalidating would bump
+        // the segment's write stamp and stop timelines of other accounts loading at the same time from being cached.
+        long stamp = timelines.getWriteStamp(account_id);
+        List<Message> timeline = Collections.unmodifiableList(loader.apply(account_id));
+        if (timeline.size() <= maxLength)
+            timelines.putIfUnchanged(account_id, timeline, stamp);
+        return timeline;
+    }
+
+    /**
+     * @param account_id the account whose timeline is requested.
+     * @return the account's cached timeline, or <code>null</code> if it isn't cached. The list must not be
+     *         modified.
+     */
+    public List<Message> getCachedTimeline(int account_id) {
+        return timelines.get(account_id);
+    }
+
+    /**
+     * @param timeline a timeline, in timeline order.
+     * @param since the start of a time window, inclusive.
+     * @param until the end of the time window, exclusive.
+     * @return the part of the timeline with since <= time_posted_epoch < until, found by binary search.
+     */
+    public static List<Message> between(List<Message> timeline, long since, long until) {
+        int from = firstAtOrAfter(timeline, since);
+        int to = Math.max(from, firstAtOrAfter(timeline, until));
+        return timeline.subList(from, to);
+    }
+
+    private static int firstAtOrAfter(List<Message> timeline, long time) {
+        int low = 0;
+        int high = timeline.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timeline.get(mid).getTime_posted_epoch() < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Adds a new message to its account's cached timeline, if that timeline is cached.
+     * @param message the newly inserted message.
+     */
+    public void onInsert(Message message) {
+        timelines.computeIfPresent(message.getPosted_by(), timeline -> {
+            if (timeline.size() >= maxLength)
+                return null;
+            List<Message> updated = new ArrayList<>(timeline.size() + 1);
+            updated.addAll(timeline);
+            int index = Collections.binarySearch(updated, message, TIMELINE_ORDER);
+            updated.add(index < 0 ? -index - 1 : index, message);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    /**
+     * Replaces a message in its account's cached timeline, if that timeline is cached.
+     * @param message the message as it is now stored in the database.
+     */
+    public void onUpdate(Message message) {
+        timelines.computeIfPresent(message.getPosted_by(), timeline -> {
+            List<Message> updated = new ArrayList<>(timeline.size());
+            for (Message existing : timeline)
+                updated.add(existing.getMessage_id() == message.getMessage_id() ? message : existing);
+            updated.sort(TIMELINE_ORDER);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    /**
+     * Removes a message from its account's cached timeline, if that timeline is cached.
+     * @param message the deleted message.
+     */
+    public void onDelete(Message message) {
+        timelines.computeIfPresent(message.getPosted_by(), timeline -> {
+            List<Message> updated = new ArrayList<>(timeline.size());
+            for (Message existing : timeline)
+                if (existing.getMessage_id() != message.getMessage_id())
+                    updated.add(existing);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    /**
+     * @return the cache of timelines, for reporting its hit rate and evictions.
+     */
+    public LruCache<Integer, List<Message>> getCache() {
+        return timelines;
+    }
+}
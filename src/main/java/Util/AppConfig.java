@@ -0,0 +1,75 @@
+package Util;
+
+/**
+ * The AppConfig class reads the tunable settings of the application.
+ * A setting is looked up first as a JVM system property (eg -Dsocialmedia.pool.maxSize=20), then as an
+ * environment variable with the dots replaced by underscores and upper-cased (eg SOCIALMEDIA_POOL_MAXSIZE=20).
+ * If neither is present, the provided default value is used.
+ */
+public class AppConfig {
+
+    /**
+     * @param key the name of the setting, eg "socialmedia.pool.maxSize".
+     * @param defaultValue the value to use when the setting is not present.
+     * @return the configured string value of the setting, or the default value.
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null)
+            value = System.getenv(key.replace('.', '_').toUpperCase());
+        if (value == null || value.isBlank())
+            return defaultValue;
+        return value.trim();
+    }
+
+    /**
+     * @param key the name of the setting.
+     * @param defaultValue the value to use when the setting is not present or is not a number.
+     * @return the configured int value of the setting, or the default value.
+     */
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, Integer.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key the name of the setting.
+     * @param defaultValue the value to use when the setting is not present or is not a number.
+     * @return the configured long value of the setting, or the default value.
+     */
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getString(key, Long.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key the name of the setting.
+     * @param defaultValue the value to use when the setting is not present or is not a number.
+     * @return the configured double value of the setting, or the default value.
+     */
+    public static double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(getString(key, Double.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key the name of the setting.
+     * @param defaultValue the value to use when the setting is not present.
+     * @return the configured boolean value of the setting, or the default value.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, Boolean.toString(defaultValue)));
+    }
+}
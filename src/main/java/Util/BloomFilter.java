@@ -0,0 +1,108 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The BloomFilter class is a compact, probabilistic set of strings. mightContain() never answers false for a
+ * string that was added, but may answer true for one that wasn't, with a probability that depends on how full the
+ * filter is: sized for expectedInsertions strings at falsePositiveRate, it stays close to that rate until about
+ * that many strings have been added, and degrades gradually after.
+ *
+ * Each string sets numHashes bits chosen by double hashing a 64-bit hash of its characters. The bits are kept in
+ * an AtomicLongArray, so adds and lookups can run concurrently without locking.
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int numHashes;
+    private final LongAdder insertions = new LongAdder();
+
+    /**
+     * @param expectedInsertions the number of strings the filter is sized for.
+     * @param falsePositiveRate the false positive rate wanted at that number of strings, eg 0.01.
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) >>> 6));
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.numHashes = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    /**
+     * @param value the string to add.
+     */
+    public void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask))
+                current = bits.get(word);
+        }
+        insertions.increment();
+    }
+
+    /**
+     * @param value a string.
+     * @return false if the string was definitely never added, true if it might have been.
+     */
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the false positive rate expected from the number of strings added so far.
+     */
+    public double getExpectedFalsePositiveRate() {
+        double fractionSet = 1 - Math.exp(-(double) numHashes * insertions.sum() / bitCount);
+        return Math.pow(fractionSet, numHashes);
+    }
+
+    /**
+     * @return the number of strings added.
+     */
+    public long getInsertionCount() {
+        return insertions.sum();
+    }
+
+    /**
+     * @return the number of bytes used by the bits.
+     */
+    public long getSizeInBytes() {
+        return bitCount / 8;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the string's characters, finished with the MurmurHash3 mixer so that every bit of
+     * the result depends on every character.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,95 @@
+package Util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConcurrencyLimiter class bounds how many requests may work against the database at once.
+ *
+ * With virtual threads the server will accept as many concurrent requests as there are connections, so without a
+ * limit thousands of requests would pile up on the connection pool and fail one by one as their borrow timed out.
+ * Instead, a request takes a permit before its handler runs. If none is free it waits up to waitTimeoutMillis, but
+ * only while fewer than maxWaiting requests are already waiting; otherwise it is rejected straight away, so an
+ * overloaded server sheds load quickly instead of building a backlog it can never work off.
+ *
+ * A maxConcurrent of 0 disables the limiter.
+ */
+public class ConcurrencyLimiter {
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final long waitTimeoutNanos;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param maxConcurrent the number of requests that may run at once.
+     * @param maxWaiting the number of requests that may wait for a permit at once.
+     * @param waitTimeoutMillis how long a request waits for a permit before it is rejected.
+     */
+    public ConcurrencyLimiter(int maxConcurrent, int maxWaiting, long waitTimeoutMillis) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+        this.permits = new Semaphore(Math.max(0, maxConcurrent), true);
+    }
+
+    /**
+     * Takes a permit, waiting for one if needed. Every successful call must be followed by a call to release().
+     * @return true if a permit was taken, false if the request should be rejected.
+     */
+    public boolean acquire() {
+        if (maxConcurrent <= 0 || permits.tryAcquire())
+            return true;
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(waitTimeoutNanos, TimeUnit.NANOSECONDS))
+                return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gives back a permit taken by acquire().
+     */
+    public void release() {
+        if (maxConcurrent > 0)
+            permits.release();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return the number of requests currently holding a permit.
+     */
+    public int getActiveCount() {
+        return maxConcurrent <= 0 ? 0 : maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * @return the number of requests currently waiting for a permit.
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the number of requests rejected since the limiter was created.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
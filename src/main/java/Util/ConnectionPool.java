@@ -0,0 +1,690 @@
+package Util;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * The ConnectionPool class is a bounded pool of JDBC connections to our database. DAOs borrow a connection with
+ * getConnection() and give it back by calling close() on it, so a try-with-resources block should be used.
+ *
+ * The pool never holds more than maxSize connections. A borrower waits up to borrowTimeoutMillis for a connection
+ * to become free before a SQLTransientConnectionException is thrown. Connections that have been idle for a while
+ * are validated before being handed out, and connections idle for longer than idleTimeoutMillis are closed by a
+ * background housekeeper (down to minIdle connections). If a connection is held for longer than
+ * leakDetectionMillis, the stack trace of the code that borrowed it is printed so the leak can be found.
+ *
+ * Each pooled connection also keeps an LRU cache of up to statementCacheSize prepared statements, keyed by their
+ * sql. Calling prepareStatement() with sql that was prepared before on the same connection hands back the already
+ * parsed statement, and closing it clears its parameters and open result sets instead of closing it.
+ */
+public class ConnectionPool implements DataSource {
+    /**
+     * A connection returned to the pool less than this long ago is handed out again without validation.
+     */
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionMillis;
+    private final int statementCacheSize;
+
+    /**
+     * One permit per connection that may be borrowed; this is what bounds the pool.
+     */
+    private final Semaphore permits;
+    /**
+     * Idle connections, most recently returned first so that hot connections are reused and cold ones age out.
+     */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeoutCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private volatile boolean closed = false;
+    private PrintWriter logWriter;
+
+    /**
+     * @param url the JDBC connection string.
+     * @param username the database username.
+     * @param password the database password.
+     * @param maxSize the maximum number of connections the pool will open.
+     * @param minIdle the number of idle connections the housekeeper will keep open.
+     * @param borrowTimeoutMillis how long getConnection() waits for a free connection.
+     * @param idleTimeoutMillis how long a connection may sit idle before it is closed.
+     * @param leakDetectionMillis how long a connection may be borrowed before it is reported as a possible leak.
+     *                            A value of 0 disables leak detection (and the stack capture it needs).
+     * @param statementCacheSize the number of prepared statements cached per connection. A value of 0 disables
+     *                           statement caching.
+     */
+    public ConnectionPool(String url, String username, String password, int maxSize, int minIdle,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long leakDetectionMillis,
+                          int statementCacheSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = Math.max(0, Math.min(minIdle, maxSize));
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakDetectionMillis > 0 ? leakDetectionMillis : Long.MAX_VALUE) / 2);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if no idle connection is available and the pool is
+     * not yet full. The connection must be closed to return it to the pool.
+     * @return a pooled connection.
+     * @throws SQLException if no connection became available within the borrow timeout, or a new connection
+     *                      could not be opened.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed)
+            throw new SQLException("Connection pool is closed");
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                borrowTimeoutCount.incrementAndGet();
+                throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutMillis
+                        + "ms waiting for a connection (" + borrowed.size() + " of " + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledConnection pooled = null;
+            PooledConnection candidate;
+            while (pooled == null && (candidate = idle.pollFirst()) != null) {
+                if (isUsable(candidate))
+                    pooled = candidate;
+                else
+                    candidate.closePhysical();
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, username, password));
+                createdCount.incrementAndGet();
+            }
+
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowStack = leakDetectionMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+
+            borrowCount.incrementAndGet();
+            long waited = System.nanoTime() - start;
+            borrowWaitNanos.addAndGet(waited);
+            borrowWait.record(waited);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Validation on borrow. Connections that were just returned are trusted; all others are checked with
+     * Connection.isValid().
+     */
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            if (pooled.physical.isClosed())
+                return false;
+            if (System.currentTimeMillis() - pooled.lastReturnedAt < VALIDATION_BYPASS_MILLIS)
+                return true;
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Called when a borrower closes its connection handle. The connection is reset to auto-commit, any open
+     * transaction is rolled back, and the connection is put back at the front of the idle queue.
+     */
+    private void release(PooledConnection pooled) {
+        if (!borrowed.remove(pooled))
+            return;
+        try {
+            pooled.releaseStatements();
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.physical.clearWarnings();
+            pooled.lastReturnedAt = System.currentTimeMillis();
+            pooled.borrowStack = null;
+            if (closed)
+                pooled.closePhysical();
+            else
+                idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            pooled.closePhysical();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Periodic maintenance: closes connections that have been idle for too long and reports possible leaks.
+     */
+    private void houseKeep() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : idle) {
+            if (idle.size() <= minIdle)
+                break;
+            if (now - pooled.lastReturnedAt > idleTimeoutMillis && idle.remove(pooled))
+                pooled.closePhysical();
+        }
+
+        if (leakDetectionMillis > 0) {
+            for (PooledConnection pooled : borrowed) {
+                Throwable stack = pooled.borrowStack;
+                if (!pooled.leakReported && stack != null && now - pooled.borrowedAt > leakDetectionMillis) {
+                    pooled.leakReported = true;
+                    System.out.println("Possible connection leak: a connection has been borrowed for "
+                            + (now - pooled.borrowedAt) + "ms");
+                    stack.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops the housekeeper. Borrowed connections are closed as they are returned.
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null)
+            pooled.closePhysical();
+    }
+
+    /**
+     * @return the number of connections currently borrowed.
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return the number of open connections currently waiting in the pool.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the maximum number of connections this pool will open.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of successful getConnection() calls.
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return the number of getConnection() calls that timed out waiting for a connection.
+     */
+    public long getBorrowTimeoutCount() {
+        return borrowTimeoutCount.get();
+    }
+
+    /**
+     * @return the total time, in nanoseconds, that borrowers have spent inside getConnection().
+     */
+    public long getBorrowWaitNanos() {
+        return borrowWaitNanos.get();
+    }
+
+    /**
+     * @return the distribution of the time successful borrowers spent inside getConnection().
+     */
+    public LatencyHistogram getBorrowWaitHistogram() {
+        return borrowWait;
+    }
+
+    /**
+     * @return the number of physical connections that have been opened.
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return the number of prepareStatement() calls answered from a connection's statement cache.
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * @return the number of prepareStatement() calls that had to prepare a new statement.
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The pool only hands out connections for its configured user");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this))
+            return iface.cast(this);
+        throw new SQLException("ConnectionPool is not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A physical connection owned by the pool, along with the bookkeeping needed for eviction and leak detection.
+     */
+    private class PooledConnection {
+        final Connection physical;
+        volatile long borrowedAt;
+        volatile long lastReturnedAt;
+        volatile Throwable borrowStack;
+        volatile boolean leakReported;
+        /**
+         * Prepared statements in least-recently-used order. A connection is only used by one borrower at a time,
+         * so the cache itself needs no locking.
+         */
+        final LinkedHashMap<StatementKey, CachedStatement> statements;
+        int statementsInUse = 0;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<StatementKey, CachedStatement> eldest) {
+                    if (size() <= statementCacheSize)
+                        return false;
+                    eldest.getValue().evict();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Hands out the cached statement for this sql if there is one that isn't already being used, otherwise
+         * prepares a new one (and caches it, if the sql isn't already cached).
+         */
+        PreparedStatement prepare(Connection handle, String sql, int autoGeneratedKeys) throws SQLException {
+            if (statementCacheSize == 0)
+                return physical.prepareStatement(sql, autoGeneratedKeys);
+
+            StatementKey key = new StatementKey(sql, autoGeneratedKeys);
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                statementCacheHits.incrementAndGet();
+                return cached.checkOut(handle);
+            }
+
+            statementCacheMisses.incrementAndGet();
+            PreparedStatement statement = physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null)
+                return statement;
+            cached = new CachedStatement(this, key, statement);
+            statements.put(key, cached);
+            return cached.checkOut(handle);
+        }
+
+        /**
+         * Puts back any statements the borrower forgot to close, so they can be reused by the next borrower.
+         */
+        void releaseStatements() {
+            if (statementsInUse == 0)
+                return;
+            Iterator<CachedStatement> iterator = statements.values().iterator();
+            while (iterator.hasNext()) {
+                CachedStatement cached = iterator.next();
+                if (cached.inUse && !cached.checkIn())
+                    iterator.remove();
+            }
+        }
+
+        /**
+         * Each borrow gets its own handle, so a handle that was closed can't be used to reach a connection that
+         * has since been handed to somebody else.
+         */
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle(this));
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The borrower's view of a pooled connection: close() returns the connection to the pool instead of closing it.
+     */
+    private class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean handleClosed = false;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!handleClosed) {
+                        handleClosed = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return handleClosed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy))
+                        return proxy;
+                    break;
+                case "isWrapperFor":
+                    if (((Class<?>) args[0]).isInstance(proxy))
+                        return true;
+                    break;
+                case "prepareStatement":
+                    if (handleClosed)
+                        break;
+                    if (args.length == 1)
+                        return pooled.prepare((Connection) proxy, (String) args[0], Statement.NO_GENERATED_KEYS);
+                    if (args.length == 2 && method.getParameterTypes()[1] == int.class)
+                        return pooled.prepare((Connection) proxy, (String) args[0], (Integer) args[1]);
+                    break;
+                default:
+                    break;
+            }
+            if (handleClosed)
+                throw new SQLException("Connection has already been returned to the pool");
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Identifies a cached statement: the same sql prepared with and without generated keys is two statements.
+     */
+    private static class StatementKey {
+        final String sql;
+        final int autoGeneratedKeys;
+
+        StatementKey(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StatementKey)) return false;
+            StatementKey other = (StatementKey) o;
+            return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, autoGeneratedKeys);
+        }
+    }
+
+    /**
+     * A physical prepared statement that stays open for as long as it is in its connection's cache.
+     */
+    private static class CachedStatement {
+        final PooledConnection owner;
+        final StatementKey key;
+        final PreparedStatement physical;
+        /**
+         * Result sets opened through the current handle, closed when the handle is closed.
+         */
+        final List<ResultSet> openResultSets = new ArrayList<>(2);
+        boolean inUse = false;
+        boolean evicted = false;
+        /**
+         * Set when a borrower changes one of the statement's settings, so checkIn puts back the ones it was
+         * prepared with.
+         */
+        boolean settingsChanged = false;
+        StatementHandle handle;
+        private final int fetchSize;
+        private final int fetchDirection;
+        private final int maxRows;
+        private final int maxFieldSize;
+        private final int queryTimeout;
+
+        CachedStatement(PooledConnection owner, StatementKey key, PreparedStatement physical) throws SQLException {
+            this.owner = owner;
+            this.key = key;
+            this.physical = physical;
+            this.fetchSize = physical.getFetchSize();
+            this.fetchDirection = physical.getFetchDirection();
+            this.maxRows = physical.getMaxRows();
+            this.maxFieldSize = physical.getMaxFieldSize();
+            this.queryTimeout = physical.getQueryTimeout();
+        }
+
+        PreparedStatement checkOut(Connection connectionHandle) {
+            inUse = true;
+            owner.statementsInUse++;
+            handle = new StatementHandle(this, connectionHandle);
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, handle);
+        }
+
+        /**
+         * Resets the statement so the next borrower sees it as freshly prepared.
+         * @return false if the statement could not be reset and has been closed instead.
+         */
+        boolean checkIn() {
+            if (handle != null)
+                handle.closed = true;
+            handle = null;
+            inUse = false;
+            owner.statementsInUse--;
+            try {
+                for (ResultSet rs : openResultSets)
+                    rs.close();
+                openResultSets.clear();
+                physical.clearParameters();
+                physical.clearBatch();
+                physical.clearWarnings();
+                if (settingsChanged) {
+                    // max rows first: drivers may reject a fetch size larger than the max rows still set
+                    physical.setMaxRows(maxRows);
+                    physical.setFetchSize(fetchSize);
+                    physical.setFetchDirection(fetchDirection);
+                    physical.setMaxFieldSize(maxFieldSize);
+                    physical.setQueryTimeout(queryTimeout);
+                    settingsChanged = false;
+                }
+                if (!evicted)
+                    return true;
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+            closePhysical();
+            return false;
+        }
+
+        /**
+         * Called when the statement falls out of the cache. A statement still in use is closed when it is checked in.
+         */
+        void evict() {
+            evicted = true;
+            if (!inUse)
+                closePhysical();
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The borrower's view of a cached statement: close() resets the statement and returns it to the cache.
+     */
+    private static class StatementHandle implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Connection connectionHandle;
+        private boolean closed = false;
+
+        StatementHandle(CachedStatement cached, Connection connectionHandle) {
+            this.cached = cached;
+            this.connectionHandle = connectionHandle;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed && !cached.checkIn())
+                        cached.owner.statements.remove(cached.key, cached);
+                    return null;
+                case "setFetchSize":
+                case "setFetchDirection":
+                case "setMaxRows":
+                case "setLargeMaxRows":
+                case "setMaxFieldSize":
+                case "setQueryTimeout":
+                    cached.settingsChanged = true;
+                    break;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return connectionHandle;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + cached.physical;
+                default:
+                    break;
+            }
+            if (closed)
+                throw new SQLException("Statement has already been closed");
+            Object result;
+            try {
+                result = method.invoke(cached.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof ResultSet)
+                cached.openResultSets.add((ResultSet) result);
+            return result;
+        }
+    }
+}
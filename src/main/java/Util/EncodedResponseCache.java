@@ -0,0 +1,169 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The EncodedResponseCache class caches response bodies as ready-to-send bytes, so a hot list endpoint can answer
+ * repeated requests for the same data without serializing (or compressing) it again.
+ *
+ * Each body is stored under a key, eg the path of the request, along with the version of the data it was encoded
+ * from, such as one of the MessageVersions tags. A lookup with a different version is a miss and the body is
+ * encoded again, so writes never need to reach into the cache: an entry simply stops being used once its data
+ * changes. The version must be taken before the data is read, as for an ETag.
+ *
+ * The gzip and deflate forms of a body are compressed the first time a client asks for them and then kept with
+ * the body. Bodies larger than maxBodyBytes are encoded for the request but not cached, which bounds the memory
+ * used to about maxEntries * maxBodyBytes, plus the compressed forms.
+ */
+public class EncodedResponseCache {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private final LruCache<String, EncodedBody> bodies;
+    private final int maxBodyBytes;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong compressionCount = new AtomicLong();
+
+    /**
+     * Writes the data of a response to a stream, eg with the JsonCodec.
+     */
+    public interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    /**
+     * @param maxEntries the number of bodies the cache holds. A value of 0 disables the cache.
+     * @param maxBodyBytes the largest uncompressed body that is cached.
+     */
+    public EncodedResponseCache(int maxEntries, int maxBodyBytes) {
+        this.bodies = new LruCache<>(maxEntries, 0);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * @param key the key of the response, eg its path.
+     * @param version the version of the data behind the response, taken before the encoder reads it.
+     * @param encoder writes the body, called only if the cache doesn't hold it at this version.
+     * @return the body.
+     * @throws IOException if the encoder fails.
+     */
+    public EncodedBody get(String key, String version, Encoder encoder) throws IOException {
+        EncodedBody body = bodies.get(key);
+        if (body != null && body.version.equals(version)) {
+            hitCount.incrementAndGet();
+            return body;
+        }
+        missCount.incrementAndGet();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(out);
+        body = new EncodedBody(version, out.toByteArray());
+        if (body.identity.length <= maxBodyBytes)
+            bodies.put(key, body);
+        return body;
+    }
+
+    /**
+     * Chooses the content coding of a response from an Accept-Encoding header: gzip if it is accepted, otherwise
+     * deflate, otherwise none. A coding listed with q=0 is not accepted.
+     * @param acceptEncoding the header value, or <code>null</code> if it wasn't sent.
+     * @return GZIP, DEFLATE or <code>null</code> for the uncompressed body.
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+        boolean deflate = false;
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?"))
+                continue;
+            if (name.equals(GZIP) || name.equals("x-gzip"))
+                return GZIP;
+            if (name.equals(DEFLATE))
+                deflate = true;
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups that encoded the body.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of times a body was compressed.
+     */
+    public long getCompressionCount() {
+        return compressionCount.get();
+    }
+
+    /**
+     * @return the number of bodies cached.
+     */
+    public int size() {
+        return bodies.size();
+    }
+
+    /**
+     * A response body, uncompressed and in the content codings asked for so far. The arrays must not be modified.
+     */
+    public class EncodedBody {
+        private final String version;
+        private final byte[] identity;
+        private volatile byte[] gzip;
+        private volatile byte[] deflate;
+
+        EncodedBody(String version, byte[] identity) {
+            this.version = version;
+            this.identity = identity;
+        }
+
+        /**
+         * @param coding GZIP, DEFLATE or <code>null</code>, as returned by negotiate.
+         * @return the body in that content coding, compressing it if this is the first time it was asked for.
+         */
+        public byte[] get(String coding) {
+            if (GZIP.equals(coding)) {
+                byte[] bytes = gzip;
+                if (bytes == null)
+                    gzip = bytes = compress(true);
+                return bytes;
+            }
+            if (DEFLATE.equals(coding)) {
+                byte[] bytes = deflate;
+                if (bytes == null)
+                    deflate = bytes = compress(false);
+                return bytes;
+            }
+            return identity;
+        }
+
+        private byte[] compress(boolean gzip) {
+            compressionCount.incrementAndGet();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(identity.length / 4 + 64);
+            try (OutputStream compressed = gzip ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+                compressed.write(identity);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package Util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The EventRing class is a fixed-size ring buffer of events written by one publisher at a time and read by any
+ * number of consumers, each keeping its own cursor: the sequence number of the next event it wants.
+ *
+ * Events are numbered from 0 in the order they are published. The ring keeps the last capacity of them, and
+ * publishing never waits for consumers, so a consumer that falls more than capacity events behind finds its next
+ * event gone. It can tell from getOldestSequence and decide what to do: skip ahead, or give up.
+ *
+ * Reading is lock-free. Each slot holds its event with its sequence number, so a consumer that races with the
+ * publisher overwriting the slot it is reading sees the wrong number rather than the wrong event. Listeners are
+ * told after every publish, eg to wake the threads that deliver the events; they must not block.
+ * @param <T> the type of the events. Events are shared with every consumer, so they must be immutable.
+ */
+public class EventRing<T> {
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final int mask;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile long published;
+
+    /**
+     * @param capacity the number of events kept, rounded up to a power of two.
+     */
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an event to the ring, overwriting the oldest one if the ring is full, and then tells the listeners.
+     * @param event the event.
+     * @return the sequence number of the event.
+     */
+    public long publish(T event) {
+        long sequence;
+        synchronized (this) {
+            sequence = published;
+            slots.set((int) (sequence & mask), new Slot<>(sequence, event));
+            published = sequence + 1;
+        }
+        for (Runnable listener : listeners)
+            listener.run();
+        return sequence;
+    }
+
+    /**
+     * @param sequence the sequence number of an event.
+     * @return the event, or <code>null</code> if it hasn't been published yet or has already been overwritten.
+     */
+    public T get(long sequence) {
+        if (sequence < 0 || sequence >= published)
+            return null;
+        Slot<T> slot = slots.get((int) (sequence & mask));
+        return slot != null && slot.sequence == sequence ? slot.event : null;
+    }
+
+    /**
+     * @return the sequence number the next event will get, which is also the number of events published.
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return the sequence number of the oldest event still in the ring.
+     */
+    public long getOldestSequence() {
+        return Math.max(0, published - slots.length());
+    }
+
+    /**
+     * @return the number of events the ring keeps.
+     */
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * @param listener called after every publish, on the publishing thread.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener added with addListener.
+     */
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private static class Slot<T> {
+        final long sequence;
+        final T event;
+
+        Slot(long sequence, T event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package Util;
+
+/**
+ * The GrowableBitSet class is a set of non-negative ints stored one bit each, for dense ids such as the
+ * auto-increment account ids. A million ids take 125 KB.
+ *
+ * Lookups take no lock: adds are serialized and publish their change by writing the volatile words reference,
+ * which a lookup reads first, so a lookup always sees every add that finished before it started. The set only
+ * grows; bits are never cleared.
+ */
+public class GrowableBitSet {
+    private volatile long[] words;
+
+    /**
+     * @param initialBits the number of bits to allocate up front.
+     */
+    public GrowableBitSet(int initialBits) {
+        this.words = new long[Math.max(1, (initialBits + 63) >>> 6)];
+    }
+
+    /**
+     * @param value a non-negative int to add.
+     */
+    public synchronized void add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value " + value);
+        long[] current = words;
+        int index = value >>> 6;
+        if (index >= current.length) {
+            long[] grown = new long[Math.max(index + 1, current.length * 2)];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        current[index] |= 1L << value;
+        words = current;
+    }
+
+    /**
+     * @param value an int.
+     * @return true if the value has been added.
+     */
+    public boolean contains(int value) {
+        if (value < 0)
+            return false;
+        long[] current = words;
+        int index = value >>> 6;
+        return index < current.length && (current[index] & (1L << value)) != 0;
+    }
+
+    /**
+     * @return the number of bytes used by the bits.
+     */
+    public long getSizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+}
@@ -0,0 +1,163 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+import Model.Account;
+import Model.Message;
+import io.javalin.json.JsonMapper;
+
+/**
+ * The JsonCodec class converts our models to and from JSON. One instance is meant to be shared by every handler
+ * (and registered as Javalin's JsonMapper, so ctx.json() uses it too): Jackson caches the serializers and
+ * deserializers it builds inside the ObjectMapper, so creating an ObjectMapper per request throws that work away.
+ *
+ * The ObjectReader and ObjectWriter instances for our models are created once, which also skips the per-call
+ * type lookup, and the write methods serialize straight to an OutputStream instead of building a String first.
+ * ObjectMapper, ObjectReader and ObjectWriter are all thread-safe once configured.
+ */
+public class JsonCodec implements JsonMapper {
+    private final ObjectMapper mapper;
+    private final ObjectReader accountReader;
+    private final ObjectReader messageReader;
+    private final ObjectReader messageListReader;
+    private final ObjectWriter accountWriter;
+    private final ObjectWriter messageWriter;
+    private final ObjectWriter messageListWriter;
+
+    public JsonCodec() {
+        // the request and response streams belong to the server, so reading or writing a value must never close them
+        this.mapper = new ObjectMapper(JsonFactory.builder()
+                .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+                .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+                .build());
+
+        this.accountReader = mapper.readerFor(Account.class);
+        this.messageReader = mapper.readerFor(Message.class);
+        this.messageListReader = mapper.readerFor(new TypeReference<List<Message>>() {});
+        this.accountWriter = mapper.writerFor(Account.class);
+        this.messageWriter = mapper.writerFor(Message.class);
+        this.messageListWriter = mapper.writerFor(new TypeReference<List<Message>>() {});
+    }
+
+    /**
+     * @return the shared, configured ObjectMapper, for types that don't have a cached reader or writer.
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * @param in a stream containing a JSON representation of an Account.
+     * @return the Account.
+     * @throws IOException will be thrown if there is an issue reading the stream or converting JSON into an object.
+     */
+    public Account readAccount(InputStream in) throws IOException {
+        return accountReader.readValue(in);
+    }
+
+    /**
+     * @param in a stream containing a JSON representation of a Message.
+     * @return the Message.
+     * @throws IOException will be thrown if there is an issue reading the stream or converting JSON into an object.
+     */
+    public Message readMessage(InputStream in) throws IOException {
+        return messageReader.readValue(in);
+    }
+
+    /**
+     * @param in a stream containing a JSON array of Messages.
+     * @return the Messages.
+     * @throws IOException will be thrown if there is an issue reading the stream or converting JSON into an object.
+     */
+    public List<Message> readMessages(InputStream in) throws IOException {
+        return messageListReader.readValue(in);
+    }
+
+    /**
+     * @param out the stream to write the JSON representation of the account to. The stream is not closed.
+     * @param account the account to write.
+     * @throws IOException will be thrown if there is an issue writing to the stream.
+     */
+    public void writeAccount(OutputStream out, Account account) throws IOException {
+        accountWriter.writeValue(out, account);
+    }
+
+    /**
+     * @param out the stream to write the JSON representation of the message to. The stream is not closed.
+     * @param message the message to write.
+     * @throws IOException will be thrown if there is an issue writing to the stream.
+     */
+    public void writeMessage(OutputStream out, Message message) throws IOException {
+        messageWriter.writeValue(out, message);
+    }
+
+    /**
+     * @param out the stream to write the JSON array of messages to. The stream is not closed.
+     * @param messages the messages to write.
+     * @throws IOException will be thrown if there is an issue writing to the stream.
+     */
+    public void writeMessages(OutputStream out, List<Message> messages) throws IOException {
+        messageListWriter.writeValue(out, messages);
+    }
+
+    /**
+     * Starts a JSON array of messages that can be written one element at a time. Closing the returned writer ends
+     * the array, but does not close the stream.
+     * @param out the stream to write the JSON array to.
+     * @return a writer for the elements of the array.
+     * @throws IOException will be thrown if there is an issue writing to the stream.
+     */
+    public SequenceWriter startMessageArray(OutputStream out) throws IOException {
+        return messageWriter.writeValuesAsArray(out);
+    }
+
+    /**
+     * Used by ctx.json(). As with Javalin's default mapper, a String is assumed to already be JSON and is passed
+     * through as-is.
+     */
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        if (obj instanceof String)
+            return (String) obj;
+        try {
+            if (obj instanceof Message)
+                return messageWriter.writeValueAsString(obj);
+            if (obj instanceof Account)
+                return accountWriter.writeValueAsString(obj);
+            return mapper.writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type type) {
+        try {
+            return mapper.readValue(json, mapper.constructType(type));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type type) {
+        try {
+            return mapper.readValue(json, mapper.constructType(type));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
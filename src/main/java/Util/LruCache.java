@@ -0,0 +1,289 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * The LruCache class is a bounded, thread-safe, in-memory cache that evicts the least recently used entry when it
+ * is full, and optionally expires entries a fixed time after they were written.
+ *
+ * The cache is split into segments, each an access-ordered LinkedHashMap guarded by its own lock, so threads
+ * working on different keys rarely wait for each other. Each segment holds an equal share of maxSize entries, so
+ * eviction is LRU within a segment rather than exactly LRU across the whole cache.
+ *
+ * Values are shared with every caller that reads them, so they must not be modified after being cached.
+ * <code>null</code> values are never cached.
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+public class LruCache<K, V> {
+    private final Segment<K, V>[] segments;
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of entries the cache holds. A value of 0 disables the cache: every lookup
+     *                is a miss and nothing is stored.
+     * @param ttlMillis how long an entry stays valid after it was written. A value of 0 means entries don't expire.
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(int maxSize, long ttlMillis) {
+        int segmentCount = maxSize < 64 ? 1 : Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2));
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        int perSegment = maxSize / segmentCount + (maxSize % segmentCount == 0 ? 0 : 1);
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new Segment<>(Math.max(0, perSegment), evictionCount);
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return the cached value, or <code>null</code> if the key is not cached or its entry has expired.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.getLive(key, System.nanoTime());
+        }
+        if (value != null)
+            hitCount.incrementAndGet();
+        else
+            missCount.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Read-through lookup: returns the cached value, or calls the loader and caches what it returns.
+     * The loader runs outside of any lock. If the key is written or invalidated while the loader is running, the
+     * loaded value is returned but not cached, since it may already be out of date.
+     * @param key the key to look up.
+     * @param loader computes the value for a key that isn't cached, or returns <code>null</code> if there is none.
+     * @return the cached or loaded value, or <code>null</code> if the loader found nothing.
+     */
+    public V getOrLoad(K key, Function<? super K, ? extends V> loader) {
+        Segment<K, V> segment = segmentFor(key);
+        long stamp;
+        synchronized (segment) {
+            V value = segment.getLive(key, System.nanoTime());
+            if (value != null) {
+                hitCount.incrementAndGet();
+                return value;
+            }
+            stamp = segment.writeStamp;
+        }
+        missCount.incrementAndGet();
+
+        V loaded = loader.apply(key);
+        if (loaded != null && maxSize > 0) {
+            synchronized (segment) {
+                if (segment.writeStamp == stamp)
+                    segment.store(key, loaded, expiryFromNow());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the write stamp of the key's segment, to be taken before reading a value from its source and passed to
+     * putIfUnchanged afterwards. getOrLoad does the same for a single key.
+     * @param key the key.
+     * @return the stamp.
+     */
+    public long getWriteStamp(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.writeStamp;
+        }
+    }
+
+    /**
+     * Caches a value read from its source, unless the key's segment has been written or invalidated since the stamp
+     * was taken, in which case the value may already be out of date and is not cached.
+     * @param key the key.
+     * @param value the value.
+     * @param stamp the stamp returned by getWriteStamp before the value was read.
+     * @return true if the value was cached.
+     */
+    public boolean putIfUnchanged(K key, V value, long stamp) {
+        if (value == null || maxSize == 0)
+            return false;
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.writeStamp != stamp)
+                return false;
+            segment.store(key, value, expiryFromNow());
+            return true;
+        }
+    }
+
+    /**
+     * Caches a value, replacing any value already cached for the key.
+     * @param key the key.
+     * @param value the value. A <code>null</code> value invalidates the key instead.
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            invalidate(key);
+            return;
+        }
+        if (maxSize == 0)
+            return;
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.writeStamp++;
+            segment.store(key, value, expiryFromNow());
+        }
+    }
+
+    /**
+     * Atomically replaces the value cached for a key with a value computed from it. Nothing happens if the key is
+     * not cached. If the function returns <code>null</code>, the key is removed.
+     * @param key the key.
+     * @param remapping computes the new value from the currently cached value.
+     */
+    public void computeIfPresent(K key, UnaryOperator<V> remapping) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.writeStamp++;
+            V current = segment.getLive(key, System.nanoTime());
+            if (current == null)
+                return;
+            V updated = remapping.apply(current);
+            if (updated == null)
+                segment.map.remove(key);
+            else
+                segment.store(key, updated, expiryFromNow());
+        }
+    }
+
+    /**
+     * Removes a key from the cache.
+     * @param key the key.
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.writeStamp++;
+            segment.map.remove(key);
+        }
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.writeStamp++;
+                segment.map.clear();
+            }
+        }
+    }
+
+    private long expiryFromNow() {
+        return ttlNanos == 0 ? 0 : System.nanoTime() + ttlNanos;
+    }
+
+    /**
+     * @return the number of entries currently cached, including any that have expired but not been removed yet.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of lookups that found a cached value.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups that did not find a cached value.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of entries removed because the cache was full.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the fraction of lookups that found a cached value, or 0 if there have been no lookups.
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static class CacheEntry<V> {
+        final V value;
+        final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Segment<K, V> {
+        final LinkedHashMap<K, CacheEntry<V>> map;
+        /**
+         * Incremented on every put and invalidation, so a read-through load can tell if it raced with a write.
+         */
+        long writeStamp = 0;
+
+        Segment(int maxSize, AtomicLong evictionCount) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                    if (size() <= maxSize)
+                        return false;
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+            };
+        }
+
+        V getLive(Object key, long now) {
+            CacheEntry<V> entry = map.get(key);
+            if (entry == null)
+                return null;
+            if (entry.expiresAt != 0 && now - entry.expiresAt > 0) {
+                map.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+
+        void store(K key, V value, long expiresAt) {
+            map.put(key, new CacheEntry<>(value, expiresAt));
+        }
+    }
+}
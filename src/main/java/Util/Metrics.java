@@ -0,0 +1,221 @@
+package Util;
+
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The Metrics class is the registry of the application's metrics, and writes them out in the Prometheus text
+ * exposition format for GET /metrics.
+ *
+ * There are three kinds of metric:
+ * <ul>
+ *     <li>routes, one per HTTP route, counting requests by status code and recording their latency;</li>
+ *     <li>timers, latency histograms for other operations, such as each DAO method or borrowing a connection;</li>
+ *     <li>gauges and counters read from a supplier when the metrics are scraped, such as the number of active
+ *     connections in the pool.</li>
+ * </ul>
+ * Routes and timers are looked up once, when the code that records into them is set up, and then kept in a field,
+ * so recording a request or a query is only a few atomic increments.
+ */
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final ConcurrentMap<String, Route> routes = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Sampled> sampled = new ConcurrentHashMap<>();
+
+    /**
+     * @param method the HTTP method of the route, eg "GET".
+     * @param path the path of the route as registered, eg "/messages/{message_id}".
+     * @return the metrics of the route, created the first time they are asked for.
+     */
+    public static Route route(String method, String path) {
+        return routes.computeIfAbsent(method + " " + path, key -> new Route(method, path));
+    }
+
+    /**
+     * @param name the name of the metric family the timer belongs to, eg "socialmedia_dao_query_duration_seconds".
+     * @param labels the labels of the timer, in Prometheus syntax, eg "dao=\"MessageDAO\",method=\"getAllMessages\"".
+     * @return the timer's histogram, created the first time it is asked for.
+     */
+    public static LatencyHistogram timer(String name, String labels) {
+        return timers.computeIfAbsent(key(name, labels), key -> new Timer(name, labels, new LatencyHistogram()))
+                .histogram;
+    }
+
+    /**
+     * Registers a histogram that is owned and recorded into by another class, such as the connection pool.
+     * Registering a histogram with the same name and labels again replaces the earlier one.
+     * @param name the name of the metric family the histogram belongs to.
+     * @param labels the labels of the histogram in Prometheus syntax, or an empty string.
+     * @param histogram the histogram.
+     */
+    public static void histogram(String name, String labels, LatencyHistogram histogram) {
+        timers.put(key(name, labels), new Timer(name, labels, histogram));
+    }
+
+    /**
+     * @param dao the name of the DAO class.
+     * @param method the name of the DAO method.
+     * @return the histogram of the method's query times.
+     */
+    public static LatencyHistogram daoTimer(String dao, String method) {
+        return timer("socialmedia_dao_query_duration_seconds", "dao=\"" + dao + "\",method=\"" + method + "\"");
+    }
+
+    /**
+     * Registers a gauge, a value that can go up and down, read when the metrics are scraped. Registering a gauge
+     * with the same name and labels again replaces the earlier one.
+     * @param name the name of the metric.
+     * @param labels the labels of the gauge in Prometheus syntax, or an empty string.
+     * @param value supplies the current value.
+     */
+    public static void gauge(String name, String labels, DoubleSupplier value) {
+        sampled.put(key(name, labels), new Sampled(name, labels, "gauge", value));
+    }
+
+    /**
+     * Registers a counter, a value that only goes up, read when the metrics are scraped. Registering a counter with
+     * the same name and labels again replaces the earlier one.
+     * @param name the name of the metric, which should end in "_total".
+     * @param labels the labels of the counter in Prometheus syntax, or an empty string.
+     * @param value supplies the current value.
+     */
+    public static void counter(String name, String labels, DoubleSupplier value) {
+        sampled.put(key(name, labels), new Sampled(name, labels, "counter", value));
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+
+        out.append("# TYPE socialmedia_http_requests_total counter\n");
+        for (Route route : routes.values()) {
+            for (int status = 0; status < Route.STATUS_CODES; status++) {
+                long count = route.statusCounts.get(status);
+                if (count > 0)
+                    out.append("socialmedia_http_requests_total{").append(route.labels)
+                            .append(",status=\"").append(status).append("\"} ").append(count).append('\n');
+            }
+        }
+        out.append("# TYPE socialmedia_http_request_duration_seconds summary\n");
+        for (Route route : routes.values())
+            appendSummary(out, "socialmedia_http_request_duration_seconds", route.labels, route.latency);
+
+        String family = null;
+        for (Timer timer : timers.values()) {
+            if (!timer.name.equals(family)) {
+                family = timer.name;
+                out.append("# TYPE ").append(family).append(" summary\n");
+            }
+            appendSummary(out, timer.name, timer.labels, timer.histogram);
+        }
+
+        // sort the sampled series so each metric family is written together, under one TYPE line
+        family = null;
+        for (Sampled metric : new TreeMap<>(sampled).values()) {
+            if (!metric.name.equals(family)) {
+                family = metric.name;
+                out.append("# TYPE ").append(family).append(' ').append(metric.type).append('\n');
+            }
+            out.append(series(metric.name, metric.labels)).append(' ').append(metric.value.getAsDouble())
+                    .append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendSummary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES)
+            out.append(name).append('{').append(labels).append(separator).append("quantile=\"").append(quantile)
+                    .append("\"} ").append(histogram.getPercentile(quantile) / NANOS_PER_SECOND).append('\n');
+        out.append(series(name + "_sum", labels)).append(' ').append(histogram.getSum() / NANOS_PER_SECOND)
+                .append('\n');
+        out.append(series(name + "_count", labels)).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static String series(String name, String labels) {
+        return labels.isEmpty() ? name : name + "{" + labels + "}";
+    }
+
+    /**
+     * The key a timer or sampled metric is registered under. The space sorts before any character of a metric
+     * name, so the series of one family sort together even when another family's name starts with this name.
+     */
+    private static String key(String name, String labels) {
+        return name + " " + labels;
+    }
+
+    /**
+     * The metrics of one HTTP route: the number of responses with each status code, and the latency of every
+     * request, whatever its status.
+     */
+    public static class Route {
+        static final int STATUS_CODES = 600;
+
+        private final String labels;
+        private final AtomicLongArray statusCounts = new AtomicLongArray(STATUS_CODES);
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Route(String method, String path) {
+            this.labels = "method=\"" + method + "\",route=\"" + path + "\"";
+        }
+
+        /**
+         * @param status the HTTP status code of the response.
+         * @param startNanos the System.nanoTime() when the request started.
+         */
+        public void record(int status, long startNanos) {
+            latency.recordSince(startNanos);
+            statusCounts.incrementAndGet(status >= 0 && status < STATUS_CODES ? status : 0);
+        }
+
+        /**
+         * @return the latency histogram of the route.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @param status an HTTP status code.
+         * @return the number of responses sent with that status code.
+         */
+        public long getStatusCount(int status) {
+            return statusCounts.get(status);
+        }
+    }
+
+    private static class Timer {
+        final String name;
+        final String labels;
+        final LatencyHistogram histogram;
+
+        Timer(String name, String labels, LatencyHistogram histogram) {
+            this.name = name;
+            this.labels = labels;
+            this.histogram = histogram;
+        }
+    }
+
+    private static class Sampled {
+        final String name;
+        final String labels;
+        final String type;
+        final DoubleSupplier value;
+
+        Sampled(String name, String labels, String type, DoubleSupplier value) {
+            this.name = name;
+            this.labels = labels;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The PasswordHasher class turns passwords into salted, deliberately slow PBKDF2-HMAC-SHA256 hashes, and checks
+ * passwords against them.
+ *
+ * A hash is stored as a single string, "pbkdf2-sha256$iterations$salt$hash" with the salt and hash in base64, so
+ * it fits the existing password column and the iteration count can be raised later without breaking old hashes:
+ * needsRehash() tells when a hash was made with fewer iterations than are configured now.
+ *
+ * Accounts created before passwords were hashed still hold their plaintext password. isHash() tells the two apart,
+ * and verify() accepts a plaintext one so that the account can be migrated to a hash on its next login.
+ *
+ * Hashing takes tens to hundreds of milliseconds of CPU by design, so it should not be called on a request thread;
+ * see Service.PasswordVerifier.
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param iterations the number of PBKDF2 iterations for new hashes.
+     */
+    public PasswordHasher(int iterations) {
+        this.iterations = Math.max(1, iterations);
+    }
+
+    /**
+     * @param password the password to hash.
+     * @return the salted hash of the password, in the stored format.
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+    }
+
+    /**
+     * @param password the password to check.
+     * @param stored the stored hash, or a legacy plaintext password.
+     * @return true if the password matches. The comparison takes the same time whether or not it matches.
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null)
+            return false;
+        if (!isHash(stored))
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+
+        String[] parts = stored.split("\\$");
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(pbkdf2(password, salt, storedIterations), expected);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Malformed password hash: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param stored a stored password.
+     * @return true if the stored password is a hash made by this class, false if it is a legacy plaintext password.
+     */
+    public boolean isHash(String stored) {
+        return stored != null && stored.startsWith(PREFIX + "$") && stored.split("\\$").length == 4;
+    }
+
+    /**
+     * @param stored a stored password.
+     * @return true if the stored password is plaintext or was hashed with a different number of iterations than are
+     *         configured now, so it should be replaced by a new hash once the password has been verified.
+     */
+    public boolean needsRehash(String stored) {
+        if (!isHash(stored))
+            return true;
+        return !stored.startsWith(PREFIX + "$" + iterations + "$");
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * The PostingList class is a compressed, sorted set of non-negative ints, such as the ids of the messages that
+ * contain a search term.
+ *
+ * The ids are stored as the gaps between consecutive ids, each written as a variable-length int (7 bits per
+ * byte), so the dense, increasing ids of an auto-increment column take one or two bytes each instead of four.
+ * Adding an id larger than every id in the list, the usual case for a new row, appends to the encoded bytes.
+ * Ids added out of order and ids removed are kept in two small sorted arrays beside the encoded bytes and merged
+ * in when they grow past a fraction of the list, so neither rewrites the whole list every time. An id is in the
+ * list if it is encoded or added, and not removed.
+ *
+ * The class is not thread-safe; see Service.MessageSearchIndex for the locking.
+ */
+public class PostingList {
+    private static final int[] EMPTY = new int[0];
+
+    private byte[] bytes = new byte[8];
+    private int length;
+    private int encodedCount;
+    private int last = -1;
+
+    private int[] added = EMPTY;
+    private int addedCount;
+    private int[] removed = EMPTY;
+    private int removedCount;
+
+    /**
+     * @param ids non-negative ints in ascending order, without repeats.
+     * @param from the index of the first int to take.
+     * @param to the index after the last int to take.
+     * @return a list of the ints, encoded in one pass.
+     */
+    public static PostingList of(int[] ids, int from, int to) {
+        PostingList list = new PostingList();
+        list.bytes = new byte[Math.max(8, (to - from) * 2)];
+        for (int i = from; i < to; i++)
+            list.add(ids[i]);
+        return list;
+    }
+
+    /**
+     * @param id a non-negative int to add. Adding an id already in the list does nothing.
+     */
+    public void add(int id) {
+        if (id < 0)
+            throw new IllegalArgumentException("Negative id " + id);
+        int index = Arrays.binarySearch(removed, 0, removedCount, id);
+        if (index >= 0)
+            removedCount = delete(removed, removedCount, index);
+        if (id > last) {
+            append(id);
+            return;
+        }
+        index = Arrays.binarySearch(added, 0, addedCount, id);
+        if (index < 0) {
+            added = insert(added, addedCount, -index - 1, id);
+            addedCount++;
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * @param id an int to remove. Removing an id that isn't in the list does nothing.
+     */
+    public void remove(int id) {
+        int index = Arrays.binarySearch(added, 0, addedCount, id);
+        if (index >= 0)
+            addedCount = delete(added, addedCount, index);
+        if (id < 0 || id > last)
+            return;
+        index = Arrays.binarySearch(removed, 0, removedCount, id);
+        if (index < 0) {
+            removed = insert(removed, removedCount, -index - 1, id);
+            removedCount++;
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * @return the ids in the list, in ascending order.
+     */
+    public int[] toArray() {
+        int[] encoded = decode();
+        if (addedCount == 0 && removedCount == 0)
+            return encoded;
+        int[] merged = new int[encoded.length + addedCount];
+        int count = 0;
+        int e = 0;
+        int a = 0;
+        int r = 0;
+        while (e < encoded.length || a < addedCount) {
+            int id;
+            if (a == addedCount || (e < encoded.length && encoded[e] <= added[a])) {
+                id = encoded[e++];
+                if (a < addedCount && added[a] == id)
+                    a++;
+            } else {
+                id = added[a++];
+            }
+            while (r < removedCount && removed[r] < id)
+                r++;
+            if (r < removedCount && removed[r] == id)
+                continue;
+            merged[count++] = id;
+        }
+        return count == merged.length ? merged : Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * @return true if the list holds no ids.
+     */
+    public boolean isEmpty() {
+        if (Math.max(encodedCount, addedCount) > removedCount)
+            return false;
+        return toArray().length == 0;
+    }
+
+    /**
+     * @return the number of bytes used by the list's arrays.
+     */
+    public long getSizeInBytes() {
+        return bytes.length + (long) (added.length + removed.length) * Integer.BYTES;
+    }
+
+    private void append(int id) {
+        if (length + 5 > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+        int gap = id - last;
+        while ((gap & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        bytes[length++] = (byte) gap;
+        last = id;
+        encodedCount++;
+    }
+
+    private int[] decode() {
+        int[] ids = new int[encodedCount];
+        int id = -1;
+        int position = 0;
+        for (int i = 0; i < encodedCount; i++) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += gap;
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Re-encodes the list with the added and removed ids merged in once they make up more than a sixteenth of it,
+     * so lookups don't spend long merging them and the list doesn't hold on to removed ids.
+     */
+    private void compactIfNeeded() {
+        if (addedCount + removedCount <= Math.max(16, encodedCount >>> 4))
+            return;
+        int[] ids = toArray();
+        bytes = new byte[Math.max(8, ids.length * 2)];
+        length = 0;
+        encodedCount = 0;
+        last = -1;
+        added = EMPTY;
+        addedCount = 0;
+        removed = EMPTY;
+        removedCount = 0;
+        for (int id : ids)
+            append(id);
+    }
+
+    private static int[] insert(int[] array, int count, int index, int value) {
+        if (count == array.length)
+            array = Arrays.copyOf(array, Math.max(4, count * 2));
+        System.arraycopy(array, index, array, index + 1, count - index);
+        array[index] = value;
+        return array;
+    }
+
+    private static int delete(int[] array, int count, int index) {
+        System.arraycopy(array, index + 1, array, index, count - index - 1);
+        return count - 1;
+    }
+}
@@ -0,0 +1,54 @@
+package Util;
+
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * The ServerThreadPool class creates the thread pool the Javalin (Jetty) server runs requests on.
+ *
+ * The execution mode is chosen with the socialmedia.server.threads setting:
+ * <ul>
+ *     <li>platform (the default): handlers run on a pool of at most socialmedia.server.maxThreads platform threads,
+ *     so at most that many requests can be blocked in JDBC calls at once.</li>
+ *     <li>virtual: Jetty's selector and acceptor threads stay on the platform pool, but every handler runs on its
+ *     own virtual thread, so a request blocked on the database no longer ties up a platform thread. This needs a
+ *     JVM with virtual threads (Java 21 or later); on an older JVM the server falls back to platform threads.</li>
+ * </ul>
+ * Either way, the number of requests working against the database at once is bounded separately by the
+ * ConcurrencyLimiter in front of the handlers.
+ */
+public class ServerThreadPool {
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * @return the execution mode that was asked for, either PLATFORM or VIRTUAL.
+     */
+    public static String getConfiguredMode() {
+        String mode = AppConfig.getString("socialmedia.server.threads", PLATFORM);
+        if (VIRTUAL.equalsIgnoreCase(mode))
+            return VIRTUAL;
+        if (!PLATFORM.equalsIgnoreCase(mode))
+            System.out.println("Unknown value for socialmedia.server.threads: " + mode + ", using " + PLATFORM);
+        return PLATFORM;
+    }
+
+    /**
+     * @return a new, unstarted thread pool for the server, in the configured execution mode.
+     */
+    public static QueuedThreadPool create() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(
+                AppConfig.getInt("socialmedia.server.maxThreads", 250),
+                AppConfig.getInt("socialmedia.server.minThreads", 8),
+                60_000);
+        threadPool.setName("JettyServerThreadPool");
+        if (VIRTUAL.equals(getConfiguredMode())) {
+            if (VirtualThreads.areSupported())
+                threadPool.setUseVirtualThreads(true);
+            else
+                System.out.println("Virtual threads are not supported by this JVM (Java 21 or later is needed), "
+                        + "using platform threads");
+        }
+        return threadPool;
+    }
+}
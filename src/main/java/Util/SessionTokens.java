@@ -0,0 +1,184 @@
+package Util;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The SessionTokens class issues and verifies signed, stateless session tokens.
+ *
+ * A token carries an account id and an expiry time, signed with an HMAC-SHA256 (truncated to 128 bits) under a
+ * server secret, and is encoded as 38 characters of unpadded base64url. Verifying a token needs no database
+ * lookup and no server-side session: if the signature matches and the token hasn't expired, the account id in it
+ * was issued by this server at login.
+ *
+ * The secret is read from socialmedia.session.secret (base64). If it isn't set, a random secret is generated, so
+ * tokens only stay valid for the life of the process and can't be shared between servers.
+ *
+ * verify() compares signatures in constant time, and decodes and signs into a scratch set of buffers and an
+ * initialized Mac borrowed from a small pool. The pool isn't tied to threads, so checking a token allocates
+ * nothing even when every request runs on a new virtual thread; a new set is only made when every pooled one is
+ * in use, and a set returned to a full pool is dropped.
+ */
+public class SessionTokens {
+    private static final int PAYLOAD_BYTES = Integer.BYTES + Long.BYTES;
+    private static final int SIGNATURE_BYTES = 16;
+    private static final int TOKEN_BYTES = PAYLOAD_BYTES + SIGNATURE_BYTES;
+    private static final int TOKEN_CHARS = (TOKEN_BYTES * 8 + 5) / 6;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte[] BASE64_URL_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_URL_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++)
+            BASE64_URL_VALUES[alphabet.charAt(i)] = (byte) i;
+    }
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final BlockingQueue<Scratch> scratchPool = new ArrayBlockingQueue<>(
+            Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+
+    /**
+     * @param secret the key tokens are signed with.
+     * @param ttlMillis how long an issued token stays valid.
+     */
+    public SessionTokens(byte[] secret, long ttlMillis) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return session tokens signed with the configured secret (or a random one) and valid for the configured time.
+     */
+    public static SessionTokens fromConfig() {
+        String configured = AppConfig.getString("socialmedia.session.secret", null);
+        byte[] secret;
+        if (configured != null) {
+            secret = Base64.getDecoder().decode(configured);
+        } else {
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+        }
+        return new SessionTokens(secret, AppConfig.getLong("socialmedia.session.ttlSeconds", 3600) * 1000);
+    }
+
+    /**
+     * @param account_id the account that logged in.
+     * @return a token for the account, valid for the configured time from now.
+     */
+    public String issue(int account_id) {
+        byte[] token = new byte[TOKEN_BYTES];
+        ByteBuffer.wrap(token).putInt(account_id).putLong(System.currentTimeMillis() + ttlMillis);
+        Scratch s = borrowScratch();
+        try {
+            sign(s, token);
+            System.arraycopy(s.signature, 0, token, PAYLOAD_BYTES, SIGNATURE_BYTES);
+        } finally {
+            scratchPool.offer(s);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * @param token a token sent by a client.
+     * @return the account id in the token, or -1 if the token is malformed, was not signed by this server or has
+     *         expired.
+     */
+    public int verify(String token) {
+        if (token == null || token.length() != TOKEN_CHARS)
+            return -1;
+        Scratch s = borrowScratch();
+        try {
+            if (!decode(token, s.token))
+                return -1;
+            sign(s, s.token);
+            int difference = 0;
+            for (int i = 0; i < SIGNATURE_BYTES; i++)
+                difference |= s.signature[i] ^ s.token[PAYLOAD_BYTES + i];
+            if (difference != 0)
+                return -1;
+
+            int account_id = readInt(s.token, 0);
+            long expiresAt = ((long) readInt(s.token, Integer.BYTES) << 32) | (readInt(s.token, 8) & 0xFFFFFFFFL);
+            return System.currentTimeMillis() < expiresAt ? account_id : -1;
+        } finally {
+            scratchPool.offer(s);
+        }
+    }
+
+    /**
+     * @return a pooled scratch set, or a new one if the pool is empty. Return it with scratchPool.offer.
+     */
+    private Scratch borrowScratch() {
+        Scratch s = scratchPool.poll();
+        return s != null ? s : new Scratch(key);
+    }
+
+    /**
+     * Signs the payload at the start of token into s.signature.
+     */
+    private static void sign(Scratch s, byte[] token) {
+        try {
+            s.mac.update(token, 0, PAYLOAD_BYTES);
+            s.mac.doFinal(s.signature, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " failed", e);
+        }
+    }
+
+    /**
+     * Decodes unpadded base64url into out without allocating.
+     * @return false if the token holds a character outside the base64url alphabet.
+     */
+    private static boolean decode(String token, byte[] out) {
+        int buffer = 0;
+        int bits = 0;
+        int written = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            int value = c < 128 ? BASE64_URL_VALUES[c] : -1;
+            if (value < 0)
+                return false;
+            buffer = (buffer << 6) | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                if (written < out.length)
+                    out[written++] = (byte) (buffer >> bits);
+            }
+        }
+        return written == out.length;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * A Mac initialized with the key and the buffers to decode and sign with, used by one thread at a time.
+     */
+    private static class Scratch {
+        final Mac mac;
+        final byte[] token = new byte[TOKEN_BYTES];
+        final byte[] signature = new byte[32];
+
+        Scratch(SecretKeySpec key) {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        }
+    }
+}
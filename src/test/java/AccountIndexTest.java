@@ -0,0 +1,78 @@
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import Model.Account;
+import Service.AccountIndex;
+import Service.AccountService;
+import Util.BloomFilter;
+import Util.ConnectionUtil;
+import Util.GrowableBitSet;
+
+public class AccountIndexTest {
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * The bitset should grow to hold any id added to it, and never report an id that wasn't.
+     */
+    @Test
+    public void bitSetGrowsAndHoldsExactly() {
+        GrowableBitSet bits = new GrowableBitSet(1);
+        bits.add(3);
+        bits.add(100_000);
+
+        Assert.assertTrue(bits.contains(3));
+        Assert.assertTrue(bits.contains(100_000));
+        Assert.assertFalse(bits.contains(4));
+        Assert.assertFalse(bits.contains(99_999));
+        Assert.assertFalse(bits.contains(1_000_000));
+        Assert.assertFalse(bits.contains(-1));
+    }
+
+    /**
+     * The filter should never answer false for an added string, and at its expected size should answer true for
+     * a string that wasn't added at close to the false positive rate it was sized for.
+     */
+    @Test
+    public void bloomFilterHasNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++)
+            filter.add("user" + i);
+
+        for (int i = 0; i < 10_000; i++)
+            Assert.assertTrue(filter.mightContain("user" + i));
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++)
+            if (filter.mightContain("other" + i))
+                falsePositives++;
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 300);
+        Assert.assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+    }
+
+    /**
+     * Warming should load the accounts already in the database, and accounts registered through the service
+     * should be added to the index.
+     */
+    @Test
+    public void warmedIndexTracksInsertedAccounts() {
+        AccountDAO accountDAO = new AccountDAO();
+        AccountIndex index = AccountIndex.warm(accountDAO, 1000, 0.01);
+        Assert.assertTrue(index.mightHaveAccountId(1));
+        Assert.assertTrue(index.mightHaveUsername("testuser1"));
+        Assert.assertFalse(index.mightHaveAccountId(2));
+
+        AccountService accountService = new AccountService(accountDAO, index);
+        Account inserted = accountService.insertAccount(new Account("user", "password"));
+        Assert.assertTrue(index.mightHaveAccountId(inserted.getAccount_id()));
+        Assert.assertTrue(index.mightHaveUsername("user"));
+        Assert.assertNull(accountService.insertAccount(new Account("user", "password")));
+        Assert.assertNull(accountService.login(new Account("nobody", "password")));
+
+        accountService.shutdown();
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.ColumnarMessageDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class ColumnarMessageDAOTest {
+    MessageDAO messageDAO;
+    ColumnarMessageDAO columnar;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        columnar = new ColumnarMessageDAO(messageDAO);
+    }
+
+    /**
+     * After a mix of inserts, updates and deletes made through the columnar store, every read should answer the
+     * same as the same read against the database.
+     */
+    @Test
+    public void readsMatchDatabase() {
+        for (int i = 0; i < 50; i++)
+            Assert.assertNotNull(columnar.insertMessage(new Message(1, "message " + i + " \u00fcn\u00efc\u00f6d\u00e9 \u2713", 1000 - i % 7)));
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            batch.add(new Message(1, "batch " + i, 2000 + i));
+        Assert.assertEquals(20, columnar.insertMessages(batch).size());
+        for (int message_id = 2; message_id < 70; message_id += 3)
+            columnar.updateMessage(message_id, "updated " + message_id);
+        for (int message_id = 3; message_id < 70; message_id += 5)
+            columnar.deleteMessage(message_id);
+
+        assertSameAsDatabase();
+        Assert.assertEquals(messageDAO.getAllMessages(), new ColumnarMessageDAO(messageDAO).getAllMessages());
+    }
+
+    /**
+     * Enough updates to leave most of the text arena as garbage should compact it without changing any answer.
+     */
+    @Test
+    public void compactionKeepsLiveRows() {
+        for (int i = 0; i < 20; i++)
+            columnar.insertMessage(new Message(1, "message " + i, i));
+        String longText = "x".repeat(250);
+        for (int round = 0; round < 30; round++)
+            for (int message_id = 2; message_id <= 21; message_id++)
+                columnar.updateMessage(message_id, longText.substring(round));
+        columnar.deleteMessage(5);
+
+        assertSameAsDatabase();
+        Assert.assertTrue(columnar.getSizeInBytes() < 200_000);
+    }
+
+    /**
+     * Each account's timeline should hold exactly its own live messages, including messages inserted after
+     * deletes, and a reloaded store should build the same timelines.
+     */
+    @Test
+    public void accountTimelinesMatchDatabase() {
+        AccountDAO accountDAO = new AccountDAO();
+        Assert.assertNotNull(accountDAO.insertAccount(new Account("user2", "password")));
+        Assert.assertNotNull(accountDAO.insertAccount(new Account("user3", "password")));
+        for (int i = 0; i < 60; i++)
+            columnar.insertMessage(new Message(1 + i % 3, "message " + i, 1000 + i % 11));
+        for (int message_id = 2; message_id < 62; message_id += 4)
+            columnar.deleteMessage(message_id);
+        columnar.insertMessage(new Message(3, "after deletes", 1005));
+
+        ColumnarMessageDAO reloaded = new ColumnarMessageDAO(messageDAO);
+        for (int account_id = 1; account_id <= 4; account_id++) {
+            Assert.assertEquals(messageDAO.getMessagesByAccountId(account_id),
+                    columnar.getMessagesByAccountId(account_id));
+            Assert.assertEquals(messageDAO.getMessagesByAccountIdBetween(account_id, 1003, 1008),
+                    columnar.getMessagesByAccountIdBetween(account_id, 1003, 1008));
+            Assert.assertEquals(messageDAO.getMessagesByAccountId(account_id),
+                    reloaded.getMessagesByAccountId(account_id));
+        }
+    }
+
+    private void assertSameAsDatabase() {
+        Assert.assertEquals(messageDAO.getAllMessages(), columnar.getAllMessages());
+        Assert.assertEquals(messageDAO.getMessagesAfter(10, 15), columnar.getMessagesAfter(10, 15));
+        Assert.assertEquals(messageDAO.getMessagesByAccountId(1), columnar.getMessagesByAccountId(1));
+        Assert.assertEquals(messageDAO.getMessagesBetween(996, 2010), columnar.getMessagesBetween(996, 2010));
+        Assert.assertEquals(messageDAO.getMessagesByAccountIdBetween(1, 0, 1000),
+                columnar.getMessagesByAccountIdBetween(1, 0, 1000));
+        Assert.assertArrayEquals(messageDAO.getTimeBounds(), columnar.getTimeBounds());
+        for (int message_id = 0; message_id < 75; message_id++)
+            Assert.assertEquals(messageDAO.getMessageById(message_id), columnar.getMessageById(message_id));
+        List<Message> expected = new ArrayList<>(messageDAO.getMessagesByIds(List.of(1, 3, 4, 8, 100)));
+        List<Message> actual = new ArrayList<>(columnar.getMessagesByIds(List.of(1, 3, 4, 8, 100)));
+        expected.sort(Comparator.comparingInt(Message::getMessage_id));
+        actual.sort(Comparator.comparingInt(Message::getMessage_id));
+        Assert.assertEquals(expected, actual);
+    }
+}
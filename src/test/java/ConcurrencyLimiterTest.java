@@ -0,0 +1,51 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ConcurrencyLimiter;
+
+public class ConcurrencyLimiterTest {
+
+    /**
+     * Once every permit is taken, a request should wait for the timeout and then be rejected, and a released permit
+     * should be available to the next request.
+     */
+    @Test
+    public void requestIsRejectedWhenNoPermitFreesUp() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, 20);
+
+        Assert.assertTrue(limiter.acquire());
+        Assert.assertEquals(1, limiter.getActiveCount());
+        Assert.assertFalse(limiter.acquire());
+        Assert.assertEquals(1, limiter.getRejectedCount());
+
+        limiter.release();
+        Assert.assertTrue(limiter.acquire());
+        limiter.release();
+        Assert.assertEquals(0, limiter.getActiveCount());
+    }
+
+    /**
+     * When too many requests are already waiting, a request should be rejected without waiting at all.
+     */
+    @Test
+    public void requestIsRejectedImmediatelyWhenTooManyAreWaiting() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 0, 10_000);
+        Assert.assertTrue(limiter.acquire());
+
+        long start = System.nanoTime();
+        Assert.assertFalse(limiter.acquire());
+        Assert.assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        limiter.release();
+    }
+
+    /**
+     * A limiter with a maxConcurrent of 0 should never reject a request.
+     */
+    @Test
+    public void zeroMaxConcurrentDisablesTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(0, 0, 0);
+        for (int i = 0; i < 100; i++)
+            Assert.assertTrue(limiter.acquire());
+        Assert.assertEquals(0, limiter.getRejectedCount());
+    }
+}
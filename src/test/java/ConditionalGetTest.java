@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/messages/1 with the ETag of an earlier response in If-None-Match
+     *
+     * Expected Response:
+     *  Status Code: 304 with no body, and without the message being looked up, until the message is updated
+     */
+    @Test
+    public void getMessageByIdNotModified() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null);
+        Assert.assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        double lookups = cacheLookups("messages");
+        Assert.assertTrue(lookups > 0);
+        HttpResponse<String> second = get("/messages/1", etag);
+        Assert.assertEquals(304, second.statusCode());
+        Assert.assertEquals("", second.body());
+        Assert.assertEquals(etag, second.headers().firstValue("ETag").orElseThrow());
+        Assert.assertEquals(304, get("/messages/1", "\"other\", W/" + etag).statusCode());
+        Assert.assertEquals(lookups, cacheLookups("messages"), 0);
+
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json").build());
+        HttpResponse<String> updated = get("/messages/1", etag);
+        Assert.assertEquals(200, updated.statusCode());
+        Assert.assertTrue(updated.body().contains("updated message"));
+        String updatedEtag = updated.headers().firstValue("ETag").orElseThrow();
+        Assert.assertNotEquals(etag, updatedEtag);
+
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).DELETE().build());
+        HttpResponse<String> deleted = get("/messages/1", updatedEtag);
+        Assert.assertEquals(200, deleted.statusCode());
+        Assert.assertEquals("", deleted.body());
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/accounts/1/messages with the ETag of an earlier response in
+     * If-None-Match
+     *
+     * Expected Response:
+     *  Status Code: 304 with no body until the account posts another message
+     */
+    @Test
+    public void getUserMessagesNotModified() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/accounts/1/messages", null);
+        Assert.assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        double lookups = cacheLookups("timelines");
+        Assert.assertTrue(lookups > 0);
+        Assert.assertEquals(304, get("/accounts/1/messages", etag).statusCode());
+        Assert.assertEquals(lookups, cacheLookups("timelines"), 0);
+
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\": 1, \"message_text\": \"second message\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json").build());
+        HttpResponse<String> changed = get("/accounts/1/messages", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body().contains("second message"));
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (ifNoneMatch != null)
+            request.header("If-None-Match", ifNoneMatch);
+        return send(request.build());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * @return the hits plus misses of one of the service's caches, as reported on GET /metrics.
+     */
+    private double cacheLookups(String cache) throws IOException, InterruptedException {
+        double lookups = 0;
+        for (String line : get("/metrics", null).body().split("\n"))
+            if (line.startsWith("socialmedia_cache_hits_total{cache=\"" + cache + "\"}")
+                    || line.startsWith("socialmedia_cache_misses_total{cache=\"" + cache + "\"}"))
+                lookups += Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+        return lookups;
+    }
+}
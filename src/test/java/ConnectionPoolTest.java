@@ -0,0 +1,163 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool against a private in-memory database.
+     */
+    @Before
+    public void setUp() {
+        pool = new ConnectionPool("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1", "sa", "sa", 2, 0, 200, 60000, 0, 4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Closing a borrowed connection should return it to the pool rather than closing it, so the next borrower
+     * reuses the same physical connection.
+     */
+    @Test
+    public void closedConnectionIsReused() throws SQLException {
+        Connection first = pool.getConnection();
+        first.close();
+        Connection second = pool.getConnection();
+        second.close();
+
+        Assert.assertTrue(first.isClosed());
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    /**
+     * When every connection is borrowed, getConnection() should give up after the borrow timeout.
+     */
+    @Test
+    public void borrowTimesOutWhenPoolIsExhausted() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+            Assert.fail("expected the borrow to time out");
+        } catch (SQLTransientConnectionException e) {
+            Assert.assertEquals(1, pool.getBorrowTimeoutCount());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    /**
+     * A connection returned in the middle of a transaction should be rolled back and reset to auto-commit.
+     */
+    @Test
+    public void returnedConnectionIsReset() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.setAutoCommit(false);
+        connection.close();
+
+        Connection reused = pool.getConnection();
+        Assert.assertTrue(reused.getAutoCommit());
+        reused.close();
+    }
+
+    /**
+     * A handle that has been returned to the pool must not be usable any more.
+     */
+    @Test(expected = SQLException.class)
+    public void closedHandleCannotBeUsed() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        connection.createStatement();
+    }
+
+    /**
+     * Preparing the same sql again on a connection should reuse the cached statement, with its parameters and
+     * result sets reset by the previous close().
+     */
+    @Test
+    public void preparedStatementIsCachedPerConnection() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement first = connection.prepareStatement("SELECT ?");
+        first.setInt(1, 7);
+        ResultSet rs = first.executeQuery();
+        first.close();
+        Assert.assertTrue(rs.isClosed());
+
+        PreparedStatement second = connection.prepareStatement("SELECT ?");
+        second.setInt(1, 8);
+        try (ResultSet secondRs = second.executeQuery()) {
+            secondRs.next();
+            Assert.assertEquals(8, secondRs.getInt(1));
+        }
+        second.close();
+        connection.close();
+
+        Assert.assertEquals(1, pool.getStatementCacheHits());
+        Assert.assertEquals(1, pool.getStatementCacheMisses());
+    }
+
+    /**
+     * Settings a borrower changed on a cached statement, such as the fetch size and max rows, should be put back
+     * when it is closed, so the next borrower doesn't inherit them.
+     */
+    @Test
+    public void cachedStatementSettingsAreReset() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement first = connection.prepareStatement("SELECT X FROM SYSTEM_RANGE(1, 3)");
+        int fetchSize = first.getFetchSize();
+        first.setFetchSize(fetchSize + 7);
+        first.setMaxRows(1);
+        first.close();
+
+        PreparedStatement second = connection.prepareStatement("SELECT X FROM SYSTEM_RANGE(1, 3)");
+        Assert.assertEquals(fetchSize, second.getFetchSize());
+        Assert.assertEquals(0, second.getMaxRows());
+        int rows = 0;
+        try (ResultSet rs = second.executeQuery()) {
+            while (rs.next())
+                rows++;
+        }
+        Assert.assertEquals(3, rows);
+        second.close();
+        connection.close();
+        Assert.assertEquals(1, pool.getStatementCacheHits());
+    }
+
+    /**
+     * A cached statement that can't be reset when it is closed is closed itself, and should be dropped from the
+     * cache rather than handed to the next borrower.
+     */
+    @Test
+    public void statementThatFailsToResetIsDropped() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement first = connection.prepareStatement("SELECT ?");
+        first.unwrap(PreparedStatement.class).close();
+        first.close();
+
+        PreparedStatement second = connection.prepareStatement("SELECT ?");
+        second.setInt(1, 8);
+        try (ResultSet rs = second.executeQuery()) {
+            rs.next();
+            Assert.assertEquals(8, rs.getInt(1));
+        }
+        second.close();
+        connection.close();
+        Assert.assertEquals(0, pool.getStatementCacheHits());
+    }
+}
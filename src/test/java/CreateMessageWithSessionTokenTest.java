@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessageWithSessionTokenTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Logging in, then sending an http request to POST localhost:8080/messages with the session token from the
+     * login response
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of message object
+     */
+    @Test
+    public void createMessageWithSessionToken() throws IOException, InterruptedException {
+        String token = login();
+        Assert.assertNotNull(token);
+
+        HttpResponse<String> response = postMessage(1, "Bearer " + token);
+
+        Assert.assertEquals(200, response.statusCode());
+        Message expectedResult = new Message(2, 1, "hello message", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(response.body(), Message.class));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages with a valid session token of a different account
+     * than posted_by
+     *
+     * Expected Response:
+     *  Status Code: 401
+     *  Response Body:
+     */
+    @Test
+    public void createMessageForAnotherAccount() throws IOException, InterruptedException {
+        HttpResponse<String> response = postMessage(2, "Bearer " + login());
+
+        Assert.assertEquals(401, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages with a session token that wasn't issued by the server
+     *
+     * Expected Response:
+     *  Status Code: 401
+     *  Response Body:
+     */
+    @Test
+    public void createMessageWithInvalidToken() throws IOException, InterruptedException {
+        HttpResponse<String> response = postMessage(1, "Bearer AAAAAQAAAYTUqMkAAAAAAAAAAAAAAAAAAAAAAA");
+
+        Assert.assertEquals(401, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    private String login() throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue("X-Session-Token").orElse(null);
+    }
+
+    private HttpResponse<String> postMessage(int posted_by, String authorization)
+            throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", authorization)
+                .build();
+        return webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
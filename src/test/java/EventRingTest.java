@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.EventRing;
+
+public class EventRingTest {
+
+    /**
+     * Events should be numbered from 0 in publish order, and read back by number until they are overwritten.
+     */
+    @Test
+    public void keepsTheLastCapacityEvents() {
+        EventRing<String> ring = new EventRing<>(4);
+        Assert.assertEquals(4, ring.getCapacity());
+        Assert.assertNull(ring.get(0));
+        for (int i = 0; i < 6; i++)
+            Assert.assertEquals(i, ring.publish("event " + i));
+
+        Assert.assertEquals(6, ring.getPublished());
+        Assert.assertEquals(2, ring.getOldestSequence());
+        Assert.assertNull(ring.get(1));
+        Assert.assertEquals("event 2", ring.get(2));
+        Assert.assertEquals("event 5", ring.get(5));
+        Assert.assertNull(ring.get(6));
+    }
+
+    /**
+     * A consumer reading while events are published should see every event it reads in order, and notice when it
+     * has fallen behind rather than read a newer event in place of an overwritten one.
+     */
+    @Test
+    public void concurrentReaderSeesOrderedEventsOrOverrun() throws InterruptedException {
+        EventRing<Long> ring = new EventRing<>(64);
+        AtomicInteger wakeups = new AtomicInteger();
+        ring.addListener(wakeups::incrementAndGet);
+        int count = 200_000;
+        List<Long> mismatches = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            long cursor = 0;
+            while (cursor < count) {
+                if (cursor >= ring.getPublished())
+                    continue;
+                Long event = ring.get(cursor);
+                if (event == null)
+                    cursor = ring.getOldestSequence();
+                else if (event != cursor)
+                    mismatches.add(cursor);
+                else
+                    cursor++;
+            }
+        });
+        reader.start();
+        for (long i = 0; i < count; i++)
+            ring.publish(i);
+        reader.join(30_000);
+
+        Assert.assertFalse(reader.isAlive());
+        Assert.assertEquals(List.of(), mismatches);
+        Assert.assertEquals(count, wakeups.get());
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    /**
+     * Percentiles of a uniform spread of values should be within the histogram's bucket precision (about 3%).
+     */
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++)
+            histogram.record(micros * 1000);
+
+        Assert.assertEquals(10_000, histogram.getCount());
+        Assert.assertEquals(10_000_000L, histogram.getMax());
+        assertWithinPrecision(5_000_000L, histogram.getPercentile(0.5));
+        assertWithinPrecision(9_900_000L, histogram.getPercentile(0.99));
+        assertWithinPrecision(9_990_000L, histogram.getPercentile(0.999));
+        Assert.assertEquals(10_000_000L, histogram.getPercentile(1.0));
+    }
+
+    /**
+     * An empty histogram should report 0 for every percentile.
+     */
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(0.99));
+        Assert.assertEquals(0, histogram.getCount());
+    }
+
+    /**
+     * Small values are recorded exactly.
+     */
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        Assert.assertEquals(3, histogram.getPercentile(0.5));
+        Assert.assertEquals(7, histogram.getPercentile(1.0));
+        Assert.assertEquals(10, histogram.getSum());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        Assert.assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.04);
+    }
+}
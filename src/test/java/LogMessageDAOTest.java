@@ -0,0 +1,201 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.LogMessageDAO;
+import DAO.MessageDAO;
+import DAO.MessageLog;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class LogMessageDAOTest {
+    File directory;
+    LogMessageDAO logDAO;
+
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = Files.createTempDirectory("messagelog").toFile();
+        logDAO = open(MessageLog.FsyncPolicy.WRITE);
+    }
+
+    @After
+    public void tearDown() {
+        logDAO.close();
+        for (File file : directory.listFiles())
+            file.delete();
+        directory.delete();
+    }
+
+    private LogMessageDAO open(MessageLog.FsyncPolicy fsync) throws IOException {
+        return new LogMessageDAO(new MessageLog(directory, 4096, fsync), new MessageDAO(), fsync,
+                1000, 60_000, 0.5, new File(directory, "index.snapshot"), 60_000, 2);
+    }
+
+    private LogMessageDAO reopen() throws IOException {
+        logDAO.close();
+        logDAO = open(MessageLog.FsyncPolicy.NONE);
+        return logDAO;
+    }
+
+    /**
+     * A record cut short or damaged by a crash should be dropped on replay, with everything before it kept, and
+     * new records should be appended in its place.
+     */
+    @Test
+    public void damagedTailIsDropped() throws IOException {
+        for (int i = 0; i < 10; i++)
+            logDAO.insertMessage(new Message(1, "message " + i, i));
+        List<Message> before = logDAO.getAllMessages();
+        logDAO.insertMessage(new Message(1, "damaged", 99));
+        logDAO.close();
+        new File(directory, "index.snapshot").delete();
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, "0000000001.log"), "rw")) {
+            int position = 0;
+            for (int i = 0; i < 12; i++) {
+                segment.seek(position);
+                position += 8 + segment.readInt();
+            }
+            segment.seek(position - 3);
+            segment.write('X');
+        }
+
+        logDAO = open(MessageLog.FsyncPolicy.NONE);
+        Assert.assertEquals(before, logDAO.getAllMessages());
+        Assert.assertEquals(12, logDAO.insertMessage(new Message(1, "after", 100)).getMessage_id());
+        Assert.assertEquals(12, reopen().getMessageById(12).getMessage_id());
+        Assert.assertEquals(12, logDAO.getAllMessages().size());
+    }
+
+    /**
+     * The messages of a batch whose last record never made it to the log should all be dropped.
+     */
+    @Test
+    public void unfinishedBatchIsDropped() throws IOException {
+        logDAO.close();
+        MessageLog log = new MessageLog(directory, 4096, MessageLog.FsyncPolicy.NONE);
+        log.replay(new MessageLog.Visitor() {
+            public void put(long location, int message_id, int posted_by, long time_posted_epoch) {
+            }
+
+            public void delete(long location, int message_id) {
+            }
+        }, 1);
+        log.appendPut(MessageLog.BATCH_PUT, 2, 1, 5, "first of batch".getBytes());
+        log.appendPut(MessageLog.BATCH_PUT, 3, 1, 6, "second of batch".getBytes());
+        log.close();
+        new File(directory, "index.snapshot").delete();
+
+        logDAO = open(MessageLog.FsyncPolicy.NONE);
+        Assert.assertEquals(1, logDAO.getAllMessages().size());
+        Assert.assertEquals(2, logDAO.insertMessage(new Message(1, "after", 7)).getMessage_id());
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792), new Message(2, 1, "after", 7)),
+                reopen().getAllMessages());
+    }
+
+    /**
+     * Compacting segments full of replaced records should free them without changing any answer, before or after
+     * reopening, and without letting an id be used twice.
+     */
+    @Test
+    public void compactionKeepsLiveMessages() throws IOException {
+        for (int b = 0; b < 2; b++) {
+            List<Message> batch = new ArrayList<>();
+            for (int i = 0; i < 50; i++)
+                batch.add(new Message(1, "message " + i + " \u00fcn\u00efc\u00f6d\u00e9", b * 50 + i));
+            Assert.assertEquals(50, logDAO.insertMessages(batch).size());
+        }
+        for (int round = 0; round < 3; round++)
+            for (int message_id = 1; message_id <= 101; message_id += 2)
+                logDAO.updateMessage(message_id, "updated " + round + " " + message_id);
+        for (int message_id = 2; message_id <= 101; message_id += 4)
+            logDAO.deleteMessage(message_id);
+        logDAO.deleteMessage(101);
+        List<Message> expected = logDAO.getAllMessages();
+        List<Message> byAccount = logDAO.getMessagesByAccountId(1);
+        int segments = logDAO.getLog().getSegmentCount();
+
+        Assert.assertTrue(logDAO.compact() > 0);
+        Assert.assertTrue(logDAO.getLog().getSegmentCount() < segments);
+        Assert.assertEquals(expected, logDAO.getAllMessages());
+        Assert.assertEquals(byAccount, logDAO.getMessagesByAccountId(1));
+
+        reopen();
+        Assert.assertEquals(expected, logDAO.getAllMessages());
+        Assert.assertEquals(byAccount, logDAO.getMessagesByAccountId(1));
+        Assert.assertEquals(102, logDAO.insertMessage(new Message(1, "new", 1)).getMessage_id());
+    }
+
+    /**
+     * After a crash, the index should be loaded from the last snapshot, and the changes made after it replayed
+     * from the log.
+     */
+    @Test
+    public void restartLoadsSnapshotAndReplaysTail() throws IOException {
+        for (int i = 0; i < 20; i++)
+            logDAO.insertMessage(new Message(1, "message " + i, i));
+        logDAO.saveSnapshot();
+        File crashed = new File(directory, "crashed.snapshot");
+        Files.copy(new File(directory, "index.snapshot").toPath(), crashed.toPath());
+        logDAO.insertMessages(List.of(new Message(1, "after snapshot", 50), new Message(1, "also after", 51)));
+        logDAO.updateMessage(3, "updated after snapshot");
+        logDAO.deleteMessage(4);
+        List<Message> expected = logDAO.getAllMessages();
+        List<Message> byAccount = logDAO.getMessagesByAccountId(1);
+        logDAO.close();
+        Files.move(crashed.toPath(), new File(directory, "index.snapshot").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        logDAO = open(MessageLog.FsyncPolicy.NONE);
+        Assert.assertTrue(logDAO.isRestoredFromSnapshot());
+        Assert.assertEquals(expected, logDAO.getAllMessages());
+        Assert.assertEquals(byAccount, logDAO.getMessagesByAccountId(1));
+        Assert.assertEquals(expected.size(), logDAO.getMessageCount());
+        Assert.assertEquals(24, logDAO.insertMessage(new Message(1, "new", 1)).getMessage_id());
+
+        Assert.assertTrue(reopen().isRestoredFromSnapshot());
+        Assert.assertEquals(expected.size() + 1, logDAO.getAllMessages().size());
+    }
+
+    /**
+     * A snapshot saved before a segment was compacted no longer matches the log, so the whole log should be
+     * replayed instead.
+     */
+    @Test
+    public void snapshotOlderThanCompactionIsIgnored() throws IOException {
+        for (int i = 0; i < 60; i++)
+            logDAO.insertMessage(new Message(1, "message " + i, i));
+        logDAO.saveSnapshot();
+        File crashed = new File(directory, "crashed.snapshot");
+        Files.copy(new File(directory, "index.snapshot").toPath(), crashed.toPath());
+        for (int message_id = 1; message_id <= 61; message_id++)
+            logDAO.updateMessage(message_id, "updated " + message_id);
+        Assert.assertTrue(logDAO.compact() > 0);
+        List<Message> expected = logDAO.getAllMessages();
+        List<Message> byAccount = logDAO.getMessagesByAccountId(1);
+        logDAO.close();
+        Files.move(crashed.toPath(), new File(directory, "index.snapshot").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        logDAO = open(MessageLog.FsyncPolicy.NONE);
+        Assert.assertFalse(logDAO.isRestoredFromSnapshot());
+        Assert.assertEquals(expected, logDAO.getAllMessages());
+        Assert.assertEquals(byAccount, logDAO.getMessagesByAccountId(1));
+    }
+
+    @Test
+    public void unknownAccountsAreRefused() {
+        Assert.assertNull(logDAO.insertMessage(new Message(2, "nobody", 1)));
+        Assert.assertNull(logDAO.insertMessages(List.of(new Message(1, "a", 1), new Message(2, "b", 2))));
+        Assert.assertEquals(1, logDAO.getAllMessages().size());
+    }
+}
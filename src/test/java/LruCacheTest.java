@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.LruCache;
+
+public class LruCacheTest {
+
+    /**
+     * A read-through lookup should only call the loader the first time a key is looked up.
+     */
+    @Test
+    public void getOrLoadCachesLoadedValue() {
+        LruCache<Integer, String> cache = new LruCache<>(10, 0);
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertEquals("1", cache.getOrLoad(1, key -> { loads.incrementAndGet(); return key.toString(); }));
+        Assert.assertEquals("1", cache.getOrLoad(1, key -> { loads.incrementAndGet(); return key.toString(); }));
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * A null result from the loader should not be cached.
+     */
+    @Test
+    public void nullIsNotCached() {
+        LruCache<Integer, String> cache = new LruCache<>(10, 0);
+        Assert.assertNull(cache.getOrLoad(1, key -> null));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * When the cache is full, the least recently used entry should be evicted.
+     */
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        LruCache<Integer, String> cache = new LruCache<>(2, 0);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.get(1);
+        cache.put(3, "three");
+
+        Assert.assertEquals("one", cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertEquals("three", cache.get(3));
+        Assert.assertEquals(1, cache.getEvictionCount());
+    }
+
+    /**
+     * An entry should no longer be returned once its time to live has passed.
+     */
+    @Test
+    public void expiredEntryIsNotReturned() throws InterruptedException {
+        LruCache<Integer, String> cache = new LruCache<>(10, 20);
+        cache.put(1, "one");
+        Thread.sleep(50);
+        Assert.assertNull(cache.get(1));
+    }
+
+    /**
+     * A value loaded while the key was invalidated may be stale, so it should be returned but not cached.
+     */
+    @Test
+    public void loadRacingWithInvalidationIsNotCached() {
+        LruCache<Integer, String> cache = new LruCache<>(10, 0);
+        String loaded = cache.getOrLoad(1, key -> {
+            cache.invalidate(key);
+            return "stale";
+        });
+
+        Assert.assertEquals("stale", loaded);
+        Assert.assertNull(cache.get(1));
+    }
+
+    /**
+     * A value read before the key was written may be stale, so putIfUnchanged should not cache it.
+     */
+    @Test
+    public void putIfUnchangedSkipsValueReadBeforeWrite() {
+        LruCache<Integer, String> cache = new LruCache<>(10, 0);
+        long stamp = cache.getWriteStamp(1);
+        cache.put(1, "new");
+
+        Assert.assertFalse(cache.putIfUnchanged(1, "stale", stamp));
+        Assert.assertEquals("new", cache.get(1));
+        Assert.assertTrue(cache.putIfUnchanged(2, "fresh", cache.getWriteStamp(2)));
+        Assert.assertEquals("fresh", cache.get(2));
+    }
+}
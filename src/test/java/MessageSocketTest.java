@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageSocketTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Connecting to ws://localhost:8080/messages/ws?accounts=2, then posting a batch of account 2's messages, a
+     * message of account 1's, and updating and deleting account 2's messages
+     *
+     * Expected Response:
+     *  A subscribed reply, then only account 2's events, in order; the batch's inserts arrive in one message
+     */
+    @Test
+    public void pushesSubscribedAccountsEvents() throws Exception {
+        insertAccount("testuser2");
+        Listener listener = new Listener();
+        WebSocket socket = connect("/messages/ws?accounts=2", listener);
+        Assert.assertEquals("{\"type\":\"subscribed\",\"accounts\":[2]}", listener.next());
+
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[" +
+                        "{\"posted_by\":2, \"message_text\": \"first\", \"time_posted_epoch\": 1669947800}," +
+                        "{\"posted_by\":2, \"message_text\": \"second\", \"time_posted_epoch\": 1669947801}]"))
+                .header("Content-Type", "application/json").build());
+        Assert.assertEquals("{\"type\":\"events\",\"events\":[" +
+                "{\"id\":0,\"type\":\"insert\",\"message\":{\"message_id\":2,\"posted_by\":2," +
+                "\"message_text\":\"first\",\"time_posted_epoch\":1669947800}}," +
+                "{\"id\":1,\"type\":\"insert\",\"message\":{\"message_id\":3,\"posted_by\":2," +
+                "\"message_text\":\"second\",\"time_posted_epoch\":1669947801}}]}", listener.next());
+
+        postMessage(1, "not subscribed");
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")).build());
+        Assert.assertEquals("{\"type\":\"events\",\"events\":[" +
+                "{\"id\":3,\"type\":\"update\",\"message\":{\"message_id\":2,\"posted_by\":2," +
+                "\"message_text\":\"edited\",\"time_posted_epoch\":1669947800}}]}", listener.next());
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/3")).DELETE().build());
+        Assert.assertEquals("{\"type\":\"events\",\"events\":[" +
+                "{\"id\":4,\"type\":\"delete\",\"message\":{\"message_id\":3,\"posted_by\":2," +
+                "\"message_text\":\"second\",\"time_posted_epoch\":1669947801}}]}", listener.next());
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+    }
+
+    /**
+     * Connecting to ws://localhost:8080/messages/ws?accounts=1 with an event ring of 8 events and a long flush
+     * interval, then posting a batch of 10 messages, so the ring goes round before the next flush
+     *
+     * Expected Response:
+     *  One batch: a reset in place of the lost events, followed by the events still in the ring, in order
+     */
+    @Test
+    public void resetIsSentInOrderWhenRingWrapsAround() throws Exception {
+        app.stop();
+        System.setProperty("socialmedia.events.ringSize", "8");
+        System.setProperty("socialmedia.ws.flushMillis", "3000");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+            app.start(8080);
+            Thread.sleep(1000);
+        } finally {
+            System.clearProperty("socialmedia.events.ringSize");
+            System.clearProperty("socialmedia.ws.flushMillis");
+        }
+        Listener listener = new Listener();
+        WebSocket socket = connect("/messages/ws?accounts=1", listener);
+        Assert.assertEquals("{\"type\":\"subscribed\",\"accounts\":[1]}", listener.next());
+
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 10; i++)
+            batch.append(i == 0 ? "" : ",").append("{\"posted_by\":1, \"message_text\": \"message ").append(i)
+                    .append("\", \"time_posted_epoch\": 1669947800}");
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch.append("]").toString()))
+                .header("Content-Type", "application/json").build());
+
+        String received = listener.next();
+        Assert.assertTrue(received, received.startsWith("{\"type\":\"events\",\"events\":[{\"type\":\"reset\"},"
+                + "{\"id\":2,\"type\":\"insert\""));
+        Assert.assertTrue(received, received.contains("{\"id\":9,\"type\":\"insert\""));
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+    }
+
+    /**
+     * Sending subscribe, unsubscribe and invalid requests over ws://localhost:8080/messages/ws
+     *
+     * Expected Response:
+     *  Each subscribe and unsubscribe is answered with the accounts now subscribed to, and events only arrive
+     *  while subscribed; an invalid request is answered with an error
+     */
+    @Test
+    public void subscribesAndUnsubscribes() throws Exception {
+        Listener listener = new Listener();
+        WebSocket socket = connect("/messages/ws", listener);
+        Assert.assertEquals("{\"type\":\"subscribed\",\"accounts\":[]}", listener.next());
+
+        socket.sendText("{\"subscribe\": [1]}", true).join();
+        Assert.assertEquals("{\"type\":\"subscribed\",\"accounts\":[1]}", listener.next());
+        postMessage(1, "subscribed");
+        Assert.assertTrue(listener.next().contains("\"message_text\":\"subscribed\""));
+
+        socket.sendText("{\"unsubscribe\": [1]}", true).join();
+        Assert.assertEquals("{\"type\":\"subscribed\",\"accounts\":[]}", listener.next());
+        postMessage(1, "unsubscribed");
+        socket.sendText("{\"subscribe\": \"1\"}", true).join();
+        Assert.assertTrue(listener.next().startsWith("{\"type\":\"error\""));
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+    }
+
+    /**
+     * Connecting to ws://localhost:8080/messages/ws with an accounts parameter that isn't a list of numbers
+     *
+     * Expected Response:
+     *  The socket is closed with 1008 (policy violation)
+     */
+    @Test
+    public void invalidAccountsAreRejected() throws Exception {
+        Listener listener = new Listener();
+        connect("/messages/ws?accounts=abc", listener);
+        Assert.assertEquals("close 1008", listener.next());
+    }
+
+    private WebSocket connect(String path, Listener listener) {
+        return webClient.newWebSocketBuilder().buildAsync(URI.create("ws://localhost:8080" + path), listener).join();
+    }
+
+    /**
+     * Collects the text messages received, and "close <status>" when the socket is closed.
+     */
+    private static class Listener implements WebSocket.Listener {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        private final StringBuilder partial = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                received.add(partial.toString());
+                partial.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            received.add("close " + statusCode);
+            return null;
+        }
+
+        String next() throws InterruptedException {
+            return received.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private void postMessage(int posted_by, String text) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": " + posted_by
+                        + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json").build());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private void insertAccount(String username) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json").build());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response;
+    }
+}
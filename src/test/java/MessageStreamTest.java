@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageStreamTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+    List<Stream<String>> streams = new ArrayList<>();
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web. The event ring holds 8 events, so a client can fall behind it quickly.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.events.ringSize", "8");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        for (Stream<String> stream : streams)
+            stream.close();
+        app.stop();
+        System.clearProperty("socialmedia.events.ringSize");
+    }
+
+    /**
+     * Opening GET localhost:8080/messages/stream, with and without posted_by, then posting, updating and deleting
+     * messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: an event for every change, in order; the filtered stream only gets account 2's messages
+     */
+    @Test
+    public void streamsChangesInOrder() throws Exception {
+        insertAccount("testuser2");
+        BlockingQueue<String> all = openStream("/messages/stream", null);
+        BlockingQueue<String> account2 = openStream("/messages/stream?posted_by=2", null);
+        Assert.assertEquals(": connected", nextLine(all, ": connected"));
+        Assert.assertEquals(": connected", nextLine(account2, ": connected"));
+
+        postMessage(1, "first");
+        postMessage(2, "second");
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/3"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")).build());
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).DELETE().build());
+
+        Assert.assertEquals(List.of(
+                "id: 0", "event: insert",
+                "data: {\"message_id\":2,\"posted_by\":1,\"message_text\":\"first\",\"time_posted_epoch\":1669947800}",
+                "id: 1", "event: insert",
+                "data: {\"message_id\":3,\"posted_by\":2,\"message_text\":\"second\",\"time_posted_epoch\":1669947800}",
+                "id: 2", "event: update",
+                "data: {\"message_id\":3,\"posted_by\":2,\"message_text\":\"edited\",\"time_posted_epoch\":1669947800}",
+                "id: 3", "event: delete",
+                "data: {\"message_id\":1,\"posted_by\":1,\"message_text\":\"test message 1\",\"time_posted_epoch\":1669947792}"),
+                nextEvents(all, 4));
+        Assert.assertEquals(List.of(
+                "id: 1", "event: insert",
+                "data: {\"message_id\":3,\"posted_by\":2,\"message_text\":\"second\",\"time_posted_epoch\":1669947800}",
+                "id: 2", "event: update",
+                "data: {\"message_id\":3,\"posted_by\":2,\"message_text\":\"edited\",\"time_posted_epoch\":1669947800}"),
+                nextEvents(account2, 2));
+    }
+
+    /**
+     * Reconnecting to GET localhost:8080/messages/stream with a Last-Event-ID header
+     *
+     * Expected Response:
+     *  Response Body: the events after that id if they are still in the ring, otherwise a reset event
+     */
+    @Test
+    public void resumesFromLastEventId() throws Exception {
+        for (int i = 0; i < 3; i++)
+            postMessage(1, "message " + i);
+        BlockingQueue<String> resumed = openStream("/messages/stream", "0");
+        Assert.assertEquals(List.of("id: 1", "event: insert"), nextEvents(resumed, 2).subList(0, 2));
+
+        for (int i = 3; i < 12; i++)
+            postMessage(1, "message " + i);
+        BlockingQueue<String> reset = openStream("/messages/stream", "0");
+        Assert.assertEquals("event: reset", nextLine(reset, "event: reset"));
+        postMessage(1, "after reset");
+        Assert.assertEquals("id: 12", nextLine(reset, "id: 12"));
+    }
+
+    /**
+     * Opening GET localhost:8080/messages/stream with a posted_by that isn't a number
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void invalidPostedByIsRejected() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream?posted_by=abc")).build());
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    private BlockingQueue<String> openStream(String path, String lastEventId) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path))
+                .header("Accept", "text/event-stream");
+        if (lastEventId != null)
+            request.header("Last-Event-ID", lastEventId);
+        HttpResponse<Stream<String>> response = webClient.send(request.build(),
+                HttpResponse.BodyHandlers.ofLines());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("text/event-stream;charset=utf-8",
+                response.headers().firstValue("Content-Type").orElseThrow().replace(" ", "").toLowerCase());
+        streams.add(response.body());
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try {
+                response.body().forEach(lines::add);
+            } catch (RuntimeException e) {
+                // the stream was closed at the end of the test
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        return lines;
+    }
+
+    /**
+     * @return the next line equal to the expected one, skipping the lines before it.
+     */
+    private static String nextLine(BlockingQueue<String> lines, String expected) throws InterruptedException {
+        String line;
+        do {
+            line = lines.poll(5, TimeUnit.SECONDS);
+        } while (line != null && !line.equals(expected));
+        return line;
+    }
+
+    /**
+     * @return the id, event and data lines of the next count events, skipping comments and retry lines.
+     */
+    private static List<String> nextEvents(BlockingQueue<String> lines, int count) throws InterruptedException {
+        List<String> eventLines = new ArrayList<>();
+        while (eventLines.size() < count * 3) {
+            String line = lines.poll(5, TimeUnit.SECONDS);
+            if (line == null)
+                break;
+            if (line.startsWith("id: ") || line.startsWith("event: ") || line.startsWith("data: "))
+                eventLines.add(line);
+        }
+        return eventLines;
+    }
+
+    private void postMessage(int posted_by, String text) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": " + posted_by
+                        + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json").build());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private void insertAccount(String username) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json").build());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.MessageWriteBehind;
+
+public class MessageWriteBehindTest {
+
+    /**
+     * Messages submitted while the writer lingers should be written together in one group, and each future
+     * should complete with its own inserted message.
+     */
+    @Test
+    public void queuedMessagesAreGroupCommitted() {
+        AtomicInteger nextId = new AtomicInteger(1);
+        List<Integer> groupSizes = new ArrayList<>();
+        MessageWriteBehind writeBehind = new MessageWriteBehind(100, 50, 200, messages -> {
+            groupSizes.add(messages.size());
+            List<Message> inserted = new ArrayList<>();
+            for (Message message : messages)
+                inserted.add(new Message(nextId.getAndIncrement(), message.getPosted_by(),
+                        message.getMessage_text(), message.getTime_posted_epoch()));
+            return inserted;
+        }, message -> null);
+
+        List<CompletableFuture<Message>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            results.add(writeBehind.submit(new Message(1, "message " + i, 1669947792)));
+        for (int i = 0; i < 10; i++) {
+            Message inserted = results.get(i).join();
+            Assert.assertEquals("message " + i, inserted.getMessage_text());
+            Assert.assertEquals(i + 1, inserted.getMessage_id());
+        }
+        writeBehind.shutdown();
+
+        Assert.assertEquals(10, groupSizes.stream().mapToInt(Integer::intValue).sum());
+        Assert.assertTrue(groupSizes.size() < 10);
+    }
+
+    /**
+     * If a group fails as a whole, each message should be retried on its own so one bad message doesn't fail
+     * the others.
+     */
+    @Test
+    public void failedGroupIsRetriedOneAtATime() {
+        MessageWriteBehind writeBehind = new MessageWriteBehind(100, 50, 50, messages -> null,
+                message -> message.getMessage_text().equals("bad") ? null
+                        : new Message(7, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch()));
+
+        CompletableFuture<Message> good = writeBehind.submit(new Message(1, "good", 1669947792));
+        CompletableFuture<Message> bad = writeBehind.submit(new Message(1, "bad", 1669947792));
+
+        Assert.assertEquals(7, good.join().getMessage_id());
+        Assert.assertNull(bad.join());
+        writeBehind.shutdown();
+    }
+
+    /**
+     * When the queue is full, submit() should reject the message instead of blocking.
+     */
+    @Test
+    public void fullQueueRejectsMessages() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageWriteBehind writeBehind = new MessageWriteBehind(1, 1, 0, messages -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return messages;
+        }, message -> message);
+
+        writeBehind.submit(new Message(1, "being written", 1669947792));
+        writing.await();
+        writeBehind.submit(new Message(1, "queued", 1669947792));
+        try {
+            writeBehind.submit(new Message(1, "rejected", 1669947792));
+            Assert.fail("expected the full queue to reject the message");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            release.countDown();
+            writeBehind.shutdown();
+        }
+    }
+
+    /**
+     * Every message accepted while the writer is being shut down should still be written, and every message
+     * submitted after it has shut down should be rejected, so no future is left incomplete.
+     */
+    @Test
+    public void submitRacingShutdownNeverStrandsAMessage() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            MessageWriteBehind writeBehind = new MessageWriteBehind(10000, 50, 0, messages -> messages,
+                    message -> message);
+            List<CompletableFuture<Message>> accepted = new ArrayList<>();
+            CountDownLatch started = new CountDownLatch(1);
+            Thread submitter = new Thread(() -> {
+                started.countDown();
+                try {
+                    while (true)
+                        accepted.add(writeBehind.submit(new Message(1, "racing", 1669947792)));
+                } catch (RejectedExecutionException e) {
+                    // shut down
+                }
+            });
+            submitter.start();
+            started.await();
+            writeBehind.shutdown();
+            submitter.join();
+
+            for (CompletableFuture<Message> future : accepted)
+                Assert.assertNotNull(future.orTimeout(5, TimeUnit.SECONDS).join());
+        }
+    }
+}
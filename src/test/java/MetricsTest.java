@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/metrics after requests to other routes
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: Prometheus text including the request counts by status, route latency summaries, DAO query
+     *  times and connection pool gauges
+     */
+    @Test
+    public void metricsReportRequestsByRouteAndStatus() throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).build());
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"testuser1\",\"password\":\"wrong\"}"))
+                .header("Content-Type", "application/json").build());
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics")).build());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        String body = response.body();
+        Assert.assertTrue(body.contains(
+                "socialmedia_http_requests_total{method=\"GET\",route=\"/messages/{message_id}\",status=\"200\"}"));
+        Assert.assertTrue(body.contains(
+                "socialmedia_http_requests_total{method=\"POST\",route=\"/login\",status=\"401\"}"));
+        Assert.assertTrue(body.contains(
+                "socialmedia_http_request_duration_seconds{method=\"GET\",route=\"/messages/{message_id}\",quantile=\"0.99\"}"));
+        Assert.assertTrue(body.contains("socialmedia_dao_query_duration_seconds_count{dao=\"AccountDAO\""));
+        Assert.assertTrue(body.contains("socialmedia_pool_connections{state=\"active\"}"));
+        Assert.assertTrue(body.contains("# TYPE socialmedia_pool_borrow_wait_seconds summary"));
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.PasswordVerifier;
+import Util.PasswordHasher;
+
+public class PasswordVerifierTest {
+
+    /**
+     * A hashed password should verify, a wrong password should not, and two hashes of the same password should
+     * differ because of their salts.
+     */
+    @Test
+    public void hashedPasswordVerifies() {
+        PasswordHasher hasher = new PasswordHasher(1000);
+        String hash = hasher.hash("password");
+
+        Assert.assertTrue(hasher.isHash(hash));
+        Assert.assertTrue(hasher.verify("password", hash));
+        Assert.assertFalse(hasher.verify("pass123", hash));
+        Assert.assertNotEquals(hash, hasher.hash("password"));
+        Assert.assertFalse(hasher.needsRehash(hash));
+        Assert.assertTrue(new PasswordHasher(2000).needsRehash(hash));
+    }
+
+    /**
+     * A legacy plaintext password should still verify, and should be reported as needing a rehash.
+     */
+    @Test
+    public void plaintextPasswordVerifiesAndNeedsRehash() {
+        PasswordHasher hasher = new PasswordHasher(1000);
+        Assert.assertFalse(hasher.isHash("password"));
+        Assert.assertTrue(hasher.verify("password", "password"));
+        Assert.assertFalse(hasher.verify("pass123", "password"));
+        Assert.assertTrue(hasher.needsRehash("password"));
+    }
+
+    /**
+     * A repeated successful login should be answered from the cache without a worker, but a wrong password or a
+     * changed stored hash should not be.
+     */
+    @Test
+    public void recentVerificationIsCached() {
+        CountingHasher hasher = new CountingHasher();
+        PasswordVerifier verifier = new PasswordVerifier(hasher, 1, 10, 5000, 100, 60_000);
+        String hash = new PasswordHasher(1000).hash("password");
+
+        Assert.assertTrue(verifier.verify("testuser1", "password", hash));
+        Assert.assertTrue(verifier.verify("testuser1", "password", hash));
+        Assert.assertEquals(1, hasher.verifications);
+
+        Assert.assertFalse(verifier.verify("testuser1", "pass123", hash));
+        Assert.assertEquals(2, hasher.verifications);
+
+        String newHash = new PasswordHasher(1000).hash("password");
+        Assert.assertTrue(verifier.verify("testuser1", "password", newHash));
+        Assert.assertEquals(3, hasher.verifications);
+        verifier.shutdown();
+    }
+
+    /**
+     * When the worker is busy and its queue is full, a verification should be rejected instead of waiting.
+     */
+    @Test
+    public void overloadedWorkersRejectVerification() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordHasher blockingHasher = new PasswordHasher(1000) {
+            @Override
+            public boolean verify(String password, String stored) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+        PasswordVerifier verifier = new PasswordVerifier(blockingHasher, 1, 1, 50, 0, 0);
+
+        Thread busy = new Thread(() -> {
+            try {
+                verifier.verify("a", "password", "password");
+            } catch (RejectedExecutionException e) {
+                // the first verification times out too, which doesn't matter here
+            }
+        });
+        busy.start();
+        started.await();
+        try {
+            verifier.verify("b", "password", "password");
+            Assert.fail("expected the verification to be rejected");
+        } catch (RejectedExecutionException e) {
+            Assert.assertTrue(verifier.getRejectedCount() >= 1);
+        } finally {
+            release.countDown();
+            busy.join();
+            verifier.shutdown();
+        }
+    }
+
+    private static class CountingHasher extends PasswordHasher {
+        int verifications;
+
+        CountingHasher() {
+            super(1000);
+        }
+
+        @Override
+        public synchronized boolean verify(String password, String stored) {
+            verifications++;
+            return super.verify(password, stored);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.PostingList;
+
+public class PostingListTest {
+
+    /**
+     * Ids added in increasing order should come back in the same order, taking about a byte each when dense.
+     */
+    @Test
+    public void appendsIncreasingIds() {
+        PostingList list = new PostingList();
+        for (int id = 1; id <= 10_000; id++)
+            list.add(id);
+
+        int[] ids = list.toArray();
+        Assert.assertEquals(10_000, ids.length);
+        for (int i = 0; i < ids.length; i++)
+            Assert.assertEquals(i + 1, ids[i]);
+        Assert.assertTrue(list.getSizeInBytes() < 20_000);
+    }
+
+    /**
+     * Adding ids out of order, adding an id twice and removing ids, including ones that aren't in the list, should
+     * keep the list equal to the same operations on a sorted set.
+     */
+    @Test
+    public void matchesSortedSetUnderRandomChanges() {
+        PostingList list = new PostingList();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            int id = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                list.remove(id);
+                expected.remove(id);
+            } else {
+                list.add(id);
+                expected.add(id);
+            }
+            if (i % 1000 == 0)
+                Assert.assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), list.toArray());
+        }
+        Assert.assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), list.toArray());
+        Assert.assertEquals(expected.isEmpty(), list.isEmpty());
+    }
+
+    /**
+     * A list whose ids have all been removed should be empty.
+     */
+    @Test
+    public void emptyAfterRemovingEverything() {
+        PostingList list = new PostingList();
+        list.add(3);
+        list.add(7);
+        list.remove(3);
+        Assert.assertFalse(list.isEmpty());
+        list.remove(7);
+        Assert.assertTrue(list.isEmpty());
+    }
+}
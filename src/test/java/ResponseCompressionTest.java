@@ -0,0 +1,112 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.EncodedResponseCache;
+import io.javalin.Javalin;
+
+public class ResponseCompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/messages and GET localhost:8080/accounts/1/messages with and
+     * without Accept-Encoding, before and after a new message is posted
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the same JSON in every content coding, including the new message once it is posted
+     */
+    @Test
+    public void compressedBodiesMatchAndFollowWrites() throws IOException, InterruptedException {
+        for (String path : new String[] {"/messages", "/accounts/1/messages"}) {
+            String plain = decode(get(path, null));
+            Assert.assertEquals(plain, decode(get(path, "gzip, deflate")));
+            Assert.assertEquals(plain, decode(get(path, "deflate")));
+            Assert.assertEquals(plain, decode(get(path, "gzip;q=0, identity")));
+            Assert.assertTrue(plain.contains("test message 1"));
+        }
+
+        HttpRequest postRequest = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\": 1, \"message_text\": \"second message\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json").build();
+        webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+
+        for (String path : new String[] {"/messages", "/accounts/1/messages"}) {
+            String gzipped = decode(get(path, "gzip"));
+            Assert.assertTrue(gzipped.contains("second message"));
+            Assert.assertEquals(objectMapper.readTree(decode(get(path, null))), objectMapper.readTree(gzipped));
+        }
+    }
+
+    @Test
+    public void negotiate() {
+        Assert.assertNull(EncodedResponseCache.negotiate(null));
+        Assert.assertNull(EncodedResponseCache.negotiate("identity"));
+        Assert.assertEquals("gzip", EncodedResponseCache.negotiate("deflate, gzip;q=0.5"));
+        Assert.assertEquals("deflate", EncodedResponseCache.negotiate("GZIP;q=0, deflate"));
+        Assert.assertNull(EncodedResponseCache.negotiate("gzip; q=0.0, br"));
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (acceptEncoding != null)
+            request.header("Accept-Encoding", acceptEncoding);
+        HttpResponse<byte[]> response = webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, response.statusCode());
+        return response;
+    }
+
+    private String decode(HttpResponse<byte[]> response) throws IOException {
+        String coding = response.headers().firstValue("Content-Encoding").orElse("identity");
+        InputStream in = new ByteArrayInputStream(response.body());
+        if (coding.equals("gzip"))
+            in = new GZIPInputStream(in);
+        else if (coding.equals("deflate"))
+            in = new InflaterInputStream(in);
+        else
+            Assert.assertEquals("identity", coding);
+        try (InputStream body = in) {
+            return new String(body.readAllBytes(), "UTF-8");
+        }
+    }
+}
@@ -98,6 +98,89 @@ public class RetrieveAllMessagesTest {
     }
 
 
+    /**
+     * Sending an http request to GET localhost:8080/messages?after=1&limit=2 with four messages in db
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of the two messages after message 1, in message id order
+     *  X-Next-After Header: 3
+     */
+    @Test
+    public void getAllMessagesPaginated() throws IOException, InterruptedException {
+        insertMessages(3);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?after=1&limit=2"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+
+        Assert.assertEquals(200, status);
+        Assert.assertEquals("3", response.headers().firstValue("X-Next-After").orElse(null));
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "message 1", 1669947793));
+        expectedResult.add(new Message(3, 1, "message 2", 1669947794));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=abc
+     * 
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getAllMessagesPaginatedInvalidLimit() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?limit=abc"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true with more messages in db than fit in
+     * one internal page
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of a list of every message, in message id order
+     */
+    @Test
+    public void getAllMessagesStreamed() throws IOException, InterruptedException {
+        insertMessages(1200);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?stream=true"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+
+        Assert.assertEquals(200, status);
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(1201, actualResult.size());
+        for (int i = 0; i < actualResult.size(); i++)
+            Assert.assertEquals(i + 1, actualResult.get(i).getMessage_id());
+    }
+
+    private void insertMessages(int count){
+        try {
+                Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement("insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)");
+                for (int i = 1; i <= count; i++) {
+                        ps.setString(1, "message " + i);
+                        ps.setLong(2, 1669947792 + i);
+                        ps.addBatch();
+                }
+                ps.executeBatch();
+        } catch (SQLException e) {
+                e.printStackTrace();
+        }
+    }
 
     private void removeInitialMessage(){
         try {
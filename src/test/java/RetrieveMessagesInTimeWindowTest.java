@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesInTimeWindowTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Range scans are split three ways for any window over 100 seconds wide,
+     * so the parallel scan is exercised too.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.timeRange.parallelism", "3");
+        System.setProperty("socialmedia.timeRange.parallelMinSpan", "100");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.timeRange.parallelism");
+        System.clearProperty("socialmedia.timeRange.parallelMinSpan");
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/messages with since and until
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of the messages posted in the window, ordered by time posted
+     */
+    @Test
+    public void getMessagesInTimeWindow() throws IOException, InterruptedException {
+        postMessage("second", 1669947800);
+        postMessage("third", 1669948500);
+        postMessage("fourth", 1669949000);
+
+        Assert.assertEquals(List.of(1, 2), ids(get("/messages?since=1669947792&until=1669947801")));
+        Assert.assertEquals(List.of(2, 3), ids(get("/messages?since=1669947793&until=1669949000")));
+        Assert.assertEquals(List.of(3, 4), ids(get("/messages?since=1669948000")));
+        Assert.assertEquals(List.of(1, 2), ids(get("/messages?until=1669948500")));
+        Assert.assertEquals(List.of(1, 2, 3, 4), ids(get("/messages?since=0&until=2000000000")));
+        Assert.assertEquals(List.of(), ids(get("/messages?since=1669949001")));
+    }
+
+    /**
+     * Sending http requests to GET localhost:8080/accounts/1/messages with since and until, before and after the
+     * account's timeline is cached
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of the account's messages posted in the window
+     */
+    @Test
+    public void getUserMessagesInTimeWindow() throws IOException, InterruptedException {
+        postMessage("second", 1669947800);
+        postMessage("third", 1669948500);
+
+        Assert.assertEquals(List.of(2), ids(get("/accounts/1/messages?since=1669947793&until=1669948500")));
+        Assert.assertEquals(List.of(1, 2, 3), ids(get("/accounts/1/messages")));
+        Assert.assertEquals(List.of(2), ids(get("/accounts/1/messages?since=1669947793&until=1669948500")));
+        Assert.assertEquals(List.of(2, 3), ids(get("/accounts/1/messages?since=1669947793")));
+        Assert.assertEquals(List.of(), ids(get("/accounts/2/messages?since=0")));
+    }
+
+    /**
+     * Sending http requests with a time bound that isn't a number, since after until, or a time window combined
+     * with paging
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void invalidTimeWindow() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?since=yesterday").statusCode());
+        Assert.assertEquals(400, get("/messages?since=10&until=5").statusCode());
+        Assert.assertEquals(400, get("/messages?since=10&limit=5").statusCode());
+        Assert.assertEquals(400, get("/accounts/1/messages?until=soon").statusCode());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest getRequest = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Integer> ids(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){}))
+            ids.add(message.getMessage_id());
+        return ids;
+    }
+
+    private void postMessage(String text, long time_posted_epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + time_posted_epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
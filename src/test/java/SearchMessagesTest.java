@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import DAO.MessageRepository;
+import Model.Message;
+import Service.MessageSearchIndex;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=TEST for a word of the message that was in
+     * the database when the app started
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of a list containing the message
+     */
+    @Test
+    public void searchFindsExistingMessage() throws IOException, InterruptedException {
+        HttpResponse<String> response = search("TEST");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, readMessages(response));
+    }
+
+    /**
+     * New messages should be searchable, with the terms of a query ANDed, "OR" between groups of terms, prefix
+     * terms, and the matches ordered most recent first by time_posted_epoch.
+     */
+    @Test
+    public void searchSupportsAndOrAndPrefix() throws IOException, InterruptedException {
+        postMessage("Coffee, then more coffee.", 1669947800);
+        postMessage("tea time", 1669947900);
+        postMessage("coffee or tea?", 1669947700);
+
+        Assert.assertEquals(List.of(2, 4), ids(search("coffee")));
+        Assert.assertEquals(List.of(4), ids(search("coffee tea")));
+        Assert.assertEquals(List.of(3, 2, 4), ids(search("coffee OR tea")));
+        Assert.assertEquals(List.of(2, 4), ids(search("cof*")));
+        Assert.assertEquals(List.of(3, 2, 1), ids(search("time OR mess* OR then")));
+        Assert.assertEquals(List.of(3), ids(search("coffee OR tea&limit=1")));
+        Assert.assertEquals(List.of(), ids(search("water")));
+    }
+
+    /**
+     * An updated message should only be found by its new text, and a deleted message not at all.
+     */
+    @Test
+    public void searchFollowsUpdatesAndDeletes() throws IOException, InterruptedException {
+        postMessage("first draft", 1669947800);
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"final version\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(List.of(), ids(search("draft")));
+        Assert.assertEquals(List.of(2), ids(search("final")));
+
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(List.of(), ids(search("final")));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search without a query
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchWithoutQuery() throws IOException, InterruptedException {
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search"))
+                .build();
+        HttpResponse<String> response = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * A message deleted after a search has read it from the database, but before the search caches it, should not
+     * be put back in the message cache: looking it up by id afterwards should find nothing.
+     */
+    @Test
+    public void searchDoesNotCacheMessageDeletedWhileReading() {
+        MessageDAO messageDAO = new MessageDAO();
+        MessageService[] messageService = new MessageService[1];
+        // reads through the real DAO, but deletes message 1 once getMessagesByIds has read it
+        MessageRepository racingDAO = (MessageRepository) Proxy.newProxyInstance(
+                MessageRepository.class.getClassLoader(), new Class<?>[]{MessageRepository.class},
+                (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(messageDAO, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (method.getName().equals("getMessagesByIds"))
+                        messageService[0].deleteMessage(1);
+                    return result;
+                });
+        messageService[0] = new MessageService(racingDAO, null, MessageSearchIndex.warm(messageDAO));
+
+        List<Message> found = messageService[0].searchMessages("test", 10);
+
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792)), found);
+        Assert.assertNull(messageService[0].getMessageById(1));
+    }
+
+    private HttpResponse<String> search(String query) throws IOException, InterruptedException {
+        String[] parts = query.split("&", 2);
+        String uri = "http://localhost:8080/messages/search?q=" + URLEncoder.encode(parts[0], StandardCharsets.UTF_8)
+                + (parts.length > 1 ? "&" + parts[1] : "");
+        HttpRequest getRequest = HttpRequest.newBuilder().uri(URI.create(uri)).build();
+        return webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private List<Integer> ids(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : readMessages(response))
+            ids.add(message.getMessage_id());
+        return ids;
+    }
+
+    private void postMessage(String text, long time_posted_epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + time_posted_epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.SessionTokens;
+
+public class SessionTokensTest {
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes();
+
+    /**
+     * A token should verify to the account id it was issued for.
+     */
+    @Test
+    public void issuedTokenVerifies() {
+        SessionTokens sessionTokens = new SessionTokens(SECRET, 60_000);
+        Assert.assertEquals(42, sessionTokens.verify(sessionTokens.issue(42)));
+    }
+
+    /**
+     * A token with any character changed, or signed with another secret, should not verify.
+     */
+    @Test
+    public void tamperedTokenIsRejected() {
+        SessionTokens sessionTokens = new SessionTokens(SECRET, 60_000);
+        String token = sessionTokens.issue(1);
+        for (int i = 0; i < token.length() - 1; i++) {
+            char replacement = token.charAt(i) == 'A' ? 'B' : 'A';
+            String tampered = token.substring(0, i) + replacement + token.substring(i + 1);
+            Assert.assertEquals(-1, sessionTokens.verify(tampered));
+        }
+        SessionTokens otherServer = new SessionTokens("another secret, another server!!".getBytes(), 60_000);
+        Assert.assertEquals(-1, otherServer.verify(token));
+        Assert.assertEquals(-1, sessionTokens.verify("not a token"));
+        Assert.assertEquals(-1, sessionTokens.verify(""));
+    }
+
+    /**
+     * An expired token should not verify.
+     */
+    @Test
+    public void expiredTokenIsRejected() {
+        SessionTokens sessionTokens = new SessionTokens(SECRET, -1);
+        Assert.assertEquals(-1, sessionTokens.verify(sessionTokens.issue(1)));
+    }
+
+    /**
+     * Tokens issued and verified at once on many short-lived threads, sharing the pooled Macs, should each verify
+     * to their own account id.
+     */
+    @Test
+    public void tokensVerifyConcurrentlyOnNewThreads() throws Exception {
+        SessionTokens sessionTokens = new SessionTokens(SECRET, 60_000);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<?>[] results = new Future<?>[200];
+            for (int i = 0; i < results.length; i++) {
+                int account_id = i;
+                results[i] = executor.submit(() -> {
+                    for (int j = 0; j < 50; j++)
+                        Assert.assertEquals(account_id, sessionTokens.verify(sessionTokens.issue(account_id)));
+                });
+            }
+            for (Future<?> result : results)
+                result.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
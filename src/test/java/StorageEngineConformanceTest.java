@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import DAO.AccountRepository;
+import DAO.MessageRepository;
+import DAO.StorageEngine;
+import DAO.StorageEngines;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * The behaviour every StorageEngine must have, run against every engine the ServiceLoader finds. The database starts
+ * as SocialMedia.sql leaves it: account 1 (testuser1) and message 1 (posted by account 1 at 1669947792).
+ */
+@RunWith(Parameterized.class)
+public class StorageEngineConformanceTest {
+    @Parameterized.Parameter
+    public String engineName;
+
+    StorageEngine engine;
+    AccountRepository accounts;
+    MessageRepository messages;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        List<Object[]> names = new ArrayList<>();
+        for (StorageEngine engine : StorageEngines.all())
+            names.add(new Object[] {engine.getName()});
+        return names;
+    }
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        StorageEngines.get(engineName).reset();
+        open();
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    private void open() {
+        engine = StorageEngines.get(engineName);
+        engine.open();
+        accounts = engine.getAccountRepository();
+        messages = engine.getMessageRepository();
+    }
+
+    @Test
+    public void builtInEnginesAreFound() {
+        List<String> names = new ArrayList<>();
+        for (StorageEngine engine : StorageEngines.all())
+            names.add(engine.getName());
+        Assert.assertTrue(names.containsAll(List.of("jdbc", "columnar", "log")));
+        Assert.assertThrows(IllegalArgumentException.class, () -> StorageEngines.get("no-such-engine"));
+    }
+
+    @Test
+    public void accounts() {
+        Account inserted = accounts.insertAccount(new Account("user2", "stored2"));
+        Assert.assertEquals(new Account(2, "user2", "stored2"), inserted);
+        Assert.assertNull(accounts.insertAccount(new Account("user2", "other")));
+        Assert.assertEquals(inserted, accounts.getAccount("user2"));
+        Assert.assertNull(accounts.getAccount("nobody"));
+
+        accounts.updatePassword(2, "stored3");
+        Assert.assertEquals("stored3", accounts.getAccount("user2").getPassword());
+
+        List<String> usernames = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        accounts.forEachAccount((username, account_id) -> {
+            usernames.add(username);
+            ids.add(account_id);
+        });
+        Assert.assertEquals(List.of("testuser1", "user2"), usernames);
+        Assert.assertEquals(List.of(1, 2), ids);
+    }
+
+    @Test
+    public void insertAndRead() {
+        Message seeded = new Message(1, 1, "test message 1", 1669947792);
+        Message inserted = messages.insertMessage(new Message(1, "second", 1669947000));
+        Assert.assertEquals(new Message(2, 1, "second", 1669947000), inserted);
+        Assert.assertNull(messages.insertMessage(new Message(99, "nobody's", 1)));
+
+        Assert.assertEquals(List.of(seeded, inserted), messages.getAllMessages());
+        Assert.assertEquals(inserted, messages.getMessageById(2));
+        Assert.assertNull(messages.getMessageById(3));
+        Assert.assertEquals(List.of(inserted), messages.getMessagesAfter(1, 10));
+        Assert.assertEquals(List.of(seeded), messages.getMessagesAfter(0, 1));
+        Assert.assertEquals(List.of(inserted), messages.getMessagesByIds(List.of(2, 3)));
+        Assert.assertEquals(2, messages.getMessagesByAccountId(1).size());
+        Assert.assertEquals(List.of(), messages.getMessagesByAccountId(2));
+        Assert.assertEquals(1, messages.getPostedBy(1));
+        Assert.assertEquals(-1, messages.getPostedBy(2));
+        Assert.assertEquals(Set.of(1), messages.getExistingAccountIds(List.of(1, 2, 3)));
+    }
+
+    @Test
+    public void timeRanges() {
+        messages.insertMessage(new Message(1, "early", 100));
+        messages.insertMessage(new Message(1, "late", 200));
+        Assert.assertArrayEquals(new long[] {100, 1669947792}, messages.getTimeBounds());
+
+        List<Message> between = messages.getMessagesBetween(100, 201);
+        Assert.assertEquals(2, between.size());
+        Assert.assertEquals(between, messages.getMessagesByAccountIdBetween(1, 100, 201));
+        Assert.assertEquals(List.of(), messages.getMessagesByAccountIdBetween(2, 0, Long.MAX_VALUE));
+        Assert.assertEquals(1, messages.getMessagesBetween(100, 200).size());
+        Assert.assertEquals(List.of(), messages.getMessagesBetween(201, 1000));
+    }
+
+    @Test
+    public void updateAndDelete() {
+        messages.insertMessage(new Message(1, "second", 2));
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), messages.updateMessage(1, "updated"));
+        Assert.assertEquals("updated", messages.getMessageById(1).getMessage_text());
+        Assert.assertEquals(new Message(1, 1, "updated", 1669947792), messages.deleteMessage(1));
+        Assert.assertNull(messages.getMessageById(1));
+        Assert.assertNull(messages.deleteMessage(1));
+        Assert.assertNull(messages.updateMessage(1, "gone"));
+        Assert.assertEquals(List.of(new Message(2, 1, "second", 2)), messages.getAllMessages());
+        Assert.assertArrayEquals(new long[] {2, 2}, messages.getTimeBounds());
+        messages.deleteMessage(2);
+        Assert.assertNull(messages.getTimeBounds());
+    }
+
+    /**
+     * Threads update message 1 at once, each with its own text. Every update must get back a different previous
+     * text, and those texts together with the final one must be exactly the original and every written text:
+     * an update that read a text another update had already replaced, or whose write was overwritten unseen,
+     * would break the chain.
+     */
+    @Test
+    public void concurrentUpdatesAreNotLost() throws Exception {
+        int threads = 4;
+        int updatesPerThread = 50;
+        List<String> previousTexts = Collections.synchronizedList(new ArrayList<>());
+        runConcurrently(threads, thread -> {
+            for (int i = 0; i < updatesPerThread; i++) {
+                Message previous = messages.updateMessage(1, "update " + thread + " " + i);
+                previousTexts.add(previous.getMessage_text());
+            }
+        });
+
+        Set<String> expected = new HashSet<>();
+        expected.add("test message 1");
+        for (int thread = 0; thread < threads; thread++)
+            for (int i = 0; i < updatesPerThread; i++)
+                expected.add("update " + thread + " " + i);
+        Set<String> seen = new HashSet<>(previousTexts);
+        Assert.assertEquals(threads * updatesPerThread, seen.size());
+        String finalText = messages.getMessageById(1).getMessage_text();
+        Assert.assertTrue(seen.add(finalText));
+        Assert.assertEquals(expected, seen);
+    }
+
+    @Test
+    public void concurrentDeletesReturnTheMessageOnce() throws Exception {
+        AtomicInteger deleted = new AtomicInteger();
+        runConcurrently(4, thread -> {
+            if (messages.deleteMessage(1) != null)
+                deleted.incrementAndGet();
+        });
+        Assert.assertEquals(1, deleted.get());
+        Assert.assertNull(messages.getMessageById(1));
+    }
+
+    private static void runConcurrently(int threads, IntConsumer task) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int t = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.accept(t);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void batchIsAllOrNothing() {
+        List<Message> inserted = messages.insertMessages(List.of(new Message(1, "a", 10), new Message(1, "b", 11)));
+        Assert.assertEquals(List.of(new Message(2, 1, "a", 10), new Message(3, 1, "b", 11)), inserted);
+
+        Assert.assertNull(messages.insertMessages(List.of(new Message(1, "c", 12), new Message(99, "d", 13))));
+        Assert.assertEquals(3, messages.getAllMessages().size());
+    }
+
+    @Test
+    public void writesSurviveReopening() {
+        accounts.insertAccount(new Account("user2", "stored2"));
+        messages.insertMessage(new Message(2, "second", 2));
+        messages.updateMessage(1, "updated");
+        engine.close();
+
+        open();
+        Assert.assertEquals(new Account(2, "user2", "stored2"), accounts.getAccount("user2"));
+        Assert.assertEquals(List.of(new Message(1, 1, "updated", 1669947792), new Message(2, 2, "second", 2)),
+                messages.getAllMessages());
+    }
+}
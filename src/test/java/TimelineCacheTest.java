@@ -0,0 +1,30 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.TimelineCache;
+
+public class TimelineCacheTest {
+
+    /**
+     * A timeline longer than maxLength should not be cached, and loading it should not stop a timeline of another
+     * account, loaded at the same time, from being cached.
+     */
+    @Test
+    public void longTimelineIsNotCachedAndDoesNotBlockOthers() {
+        TimelineCache cache = new TimelineCache(10, 1, 0);
+        List<Message> longTimeline = List.of(new Message(1, 2, "first", 1), new Message(2, 2, "second", 2));
+        List<Message> shortTimeline = List.of(new Message(3, 1, "only", 3));
+
+        List<Message> loaded = cache.getTimeline(1, id -> {
+            Assert.assertEquals(longTimeline, cache.getTimeline(2, other -> longTimeline));
+            return shortTimeline;
+        });
+
+        Assert.assertEquals(shortTimeline, loaded);
+        Assert.assertEquals(shortTimeline, cache.getCachedTimeline(1));
+        Assert.assertNull(cache.getCachedTimeline(2));
+    }
+}
@@ -3,6 +3,9 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -119,4 +122,40 @@ public class UserLoginTest {
         Assert.assertEquals("", response.body().toString());
 
     }
+
+    /**
+     * Logging in to an account that still holds a plaintext password should replace it with a salted hash, and
+     * the account should still accept the password (and reject a wrong one) afterwards.
+     *
+     * Expected Response:
+     *  Status Code: 200 for both logins with the right password, 401 with the wrong one
+     *  The stored password is no longer the plaintext password
+     */
+    @Test
+    public void loginMigratesPlaintextPassword() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals(200, login("password").statusCode());
+
+        String stored;
+        try (Statement statement = ConnectionUtil.getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT password FROM account WHERE account_id = 1")) {
+            Assert.assertTrue(rs.next());
+            stored = rs.getString("password");
+        }
+        Assert.assertNotEquals("password", stored);
+        Assert.assertTrue(stored.startsWith("pbkdf2-sha256$"));
+
+        Assert.assertEquals(200, login("password").statusCode());
+        Assert.assertEquals(401, login("pass123").statusCode());
+    }
+
+    private HttpResponse<String> login(String password) throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
 }